@@ -0,0 +1,24 @@
+package com.romanmarkunas.blog.memory.example16.records;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares how many bits an integral or pooled field of {@link SlabRecord}
+ * takes, e.g. {@code @Bits(4) int count()} for counts below 16. Values are
+ * stored unsigned, so negative values and values that do not fit are
+ * rejected when set. For pooled fields this limits pool keys, so pool must
+ * not grow beyond that many values.
+ *
+ * Records with at least one such field are bit packed: fields are laid out
+ * back to back at bit granularity and the record is not padded, so fields
+ * are read and written with shifts and masks instead of aligned accesses.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.METHOD)
+public @interface Bits {
+
+    int value();
+}
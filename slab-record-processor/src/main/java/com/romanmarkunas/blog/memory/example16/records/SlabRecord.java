@@ -0,0 +1,21 @@
+package com.romanmarkunas.blog.memory.example16.records;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks an interface as a layout declaration for slab stored records. Each
+ * abstract no-arg method declares one field, e.g. {@code long id()}, and
+ * {@link SlabRecordProcessor} generates {@code <Name>View} flyweight together
+ * with matching {@code <Name>SlabAllocator} in the same package.
+ *
+ * Supported field types are all primitives, {@code String} (ASCII) and
+ * {@code byte[]}. Strings and byte arrays are interned into a
+ * {@code ByteArrayPool} and only pool key is stored in the slab.
+ * Integral fields and pool keys can be narrowed with {@link Bits}.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface SlabRecord {}
@@ -0,0 +1,688 @@
+package com.romanmarkunas.blog.memory.example16.records;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Generates flyweight view and slab allocator for every {@link SlabRecord}
+ * interface. Fields are laid out from the widest to the narrowest, so each of
+ * them is naturally aligned within the record, and record size is padded to
+ * the widest field, so records stay aligned when packed one after another in
+ * a slab. Fields are read and written through {@code SlabAccess.SELECTED},
+ * same as in hand written {@code OrderView}.
+ *
+ * Records with {@link Bits} declarations are bit packed instead, still widest
+ * first, but at bit offsets and without padding, trading aligned access for
+ * smaller records.
+ */
+@SupportedAnnotationTypes("com.romanmarkunas.blog.memory.example16.records.SlabRecord")
+public class SlabRecordProcessor extends AbstractProcessor {
+
+    private static final String POOL_CLASS = "com.romanmarkunas.blog.memory.example15.ByteArrayPool";
+    private static final String IMMUTABLE_BYTE_ARRAY_CLASS = "com.romanmarkunas.blog.memory.example14.checkers.ImmutableByteArray";
+    private static final String SLAB_PACKAGE = "com.romanmarkunas.blog.memory.example16";
+
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (Element element : roundEnv.getElementsAnnotatedWith(SlabRecord.class)) {
+            if (element.getKind() != ElementKind.INTERFACE) {
+                error(element, "@SlabRecord can only be placed on interface");
+                continue;
+            }
+            TypeElement record = (TypeElement) element;
+            List<Field> fields = fieldsOf(record);
+            if (fields == null) {
+                continue;
+            }
+            try {
+                writeView(record, fields);
+                writeAllocator(record, fields);
+            }
+            catch (IOException e) {
+                error(record, "Failed to generate slab record sources: " + e.getMessage());
+            }
+        }
+        return true;
+    }
+
+
+    private List<Field> fieldsOf(TypeElement record) {
+        List<Field> fields = new ArrayList<>();
+        Set<String> constantNames = new HashSet<>();
+        boolean valid = true;
+        for (ExecutableElement method : ElementFilter.methodsIn(record.getEnclosedElements())) {
+            if (method.isDefault() || method.getModifiers().contains(Modifier.STATIC)) {
+                continue;
+            }
+            FieldType type = FieldType.of(method.getReturnType());
+            String name = method.getSimpleName().toString();
+            if (!method.getParameters().isEmpty() || !method.getTypeParameters().isEmpty()) {
+                error(method, "Slab record field must be declared as method without parameters");
+                valid = false;
+            }
+            else if (type == null) {
+                error(method, "Unsupported slab record field type " + method.getReturnType()
+                        + ", use primitive, String or byte[]");
+                valid = false;
+            }
+            else if (!constantNames.add(name.toUpperCase(Locale.ROOT))) {
+                error(method, "Slab record field names must differ not only by case");
+                valid = false;
+            }
+            else {
+                Bits bits = method.getAnnotation(Bits.class);
+                if (bits == null) {
+                    fields.add(new Field(name, type, 0));
+                }
+                else if (!type.narrowable) {
+                    error(method, "Only integral and pooled fields can declare bits");
+                    valid = false;
+                }
+                else if (bits.value() <= 0 || bits.value() >= type.bits) {
+                    error(method, "Declared bits must be between 1 and " + (type.bits - 1) + ", got " + bits.value());
+                    valid = false;
+                }
+                else {
+                    fields.add(new Field(name, type, bits.value()));
+                }
+            }
+        }
+        if (fields.isEmpty() && valid) {
+            error(record, "Slab record must declare at least one field");
+            valid = false;
+        }
+        return valid ? fields : null;
+    }
+
+    private void writeView(TypeElement record, List<Field> fields) throws IOException {
+        String packageName = packageOf(record);
+        String view = viewName(record);
+        boolean pooled = fields.stream().anyMatch(f -> f.type.pooled);
+        boolean hasStrings = fields.stream().anyMatch(f -> f.type == FieldType.STRING);
+        boolean hasBytes = fields.stream().anyMatch(f -> f.type == FieldType.BYTES);
+
+        boolean packed = fields.stream().anyMatch(f -> f.declaredBits > 0);
+        boolean checkedPoolKeys = fields.stream().anyMatch(f -> f.type.pooled && f.declaredBits > 0);
+
+        List<Field> layout = new ArrayList<>(fields);
+        int unpaddedSize;
+        int alignment;
+        int totalSize;
+        if (packed) {
+            layout.sort(Comparator.comparingInt(Field::bits).reversed());
+            totalSize = packBits(layout);
+            unpaddedSize = totalSize;
+            alignment = 1;
+        }
+        else {
+            layout.sort(Comparator.comparingInt((Field f) -> f.type.sizeBytes).reversed());
+            unpaddedSize = layout.stream().mapToInt(f -> f.type.sizeBytes).sum();
+            alignment = layout.get(0).type.sizeBytes;
+            totalSize = (unpaddedSize + alignment - 1) / alignment * alignment;
+        }
+
+        try (PrintWriter out = new PrintWriter(processingEnv.getFiler().createSourceFile(packageName + "." + view, record).openWriter())) {
+            out.println("package " + packageName + ";");
+            out.println();
+            if (hasBytes) {
+                out.println("import " + IMMUTABLE_BYTE_ARRAY_CLASS + ";");
+            }
+            if (pooled) {
+                out.println("import " + POOL_CLASS + ";");
+            }
+            if (!packageName.equals(SLAB_PACKAGE)) {
+                out.println("import " + SLAB_PACKAGE + (packed ? ".BitFields;" : ".SlabAccess;"));
+            }
+            out.println();
+            out.println("import javax.annotation.processing.Generated;");
+            out.println("import java.nio.ByteBuffer;");
+            if (hasStrings) {
+                out.println("import java.nio.charset.StandardCharsets;");
+            }
+            out.println();
+            out.println("@Generated(\"" + SlabRecordProcessor.class.getName() + "\")");
+            out.println("public final class " + view + " {");
+            out.println();
+            if (packed) {
+                for (Field field : layout) {
+                    out.println("    // " + field.name + ": " + field.bits() + " bits from bit " + field.bitOffset);
+                    out.println("    private final static int " + field.offsetConstant() + " = " + field.windowOffset + ";");
+                    out.println("    private final static int " + field.constantPrefix() + "_WINDOW = " + field.windowBytes + ";");
+                    out.println("    private final static int " + field.constantPrefix() + "_SHIFT = " + field.shift + ";");
+                    out.println("    private final static long " + field.constantPrefix() + "_MASK = 0x" + Long.toHexString(field.mask()).toUpperCase(Locale.ROOT) + "L;");
+                }
+            }
+            else {
+                String previous = null;
+                for (Field field : layout) {
+                    out.println("    private final static int " + field.offsetConstant() + " = "
+                            + (previous == null ? "0" : previous) + ";");
+                    previous = field.offsetConstant() + " + " + field.type.sizeConstant;
+                }
+            }
+            out.println();
+            out.println("    final static int TOTAL_SIZE = " + totalSize + ";"
+                    + (totalSize == unpaddedSize ? "" : " // " + unpaddedSize + " bytes padded to " + alignment + " byte alignment")
+                    + (packed ? " // bit packed, not aligned" : ""));
+            out.println();
+            if (!packed) {
+                out.println("    private final static SlabAccess ACCESS = SlabAccess.SELECTED;");
+                out.println();
+            }
+            if (pooled) {
+                out.println("    private final ByteArrayPool byteArrayPool;");
+                out.println();
+            }
+            out.println("    private ByteBuffer buffer;");
+            out.println("    private int startPosition;");
+            out.println();
+            out.println();
+            if (pooled) {
+                out.println("    " + view + "(ByteArrayPool byteArrayPool) {");
+                out.println("        this.byteArrayPool = byteArrayPool;");
+                out.println("    }");
+                out.println();
+            }
+            out.println("    " + view + " wrap(ByteBuffer buffer, int startPosition) {");
+            out.println("        this.buffer = buffer;");
+            out.println("        this.startPosition = startPosition;");
+            out.println("        return this;");
+            out.println("    }");
+            out.println();
+            out.println("    public " + view + " set(");
+            for (int i = 0; i < fields.size(); i++) {
+                Field field = fields.get(i);
+                out.println("            " + field.type.parameterType + " " + field.name + (i == fields.size() - 1 ? "" : ","));
+            }
+            out.println("    ) {");
+            for (Field field : fields) {
+                if (!field.type.pooled) {
+                    writeRangeCheck(out, field, "        ");
+                }
+            }
+            if (checkedPoolKeys) {
+                // all values are pooled before any of them is checked, so none is leaked if one does not fit
+                for (Field field : fields) {
+                    if (field.type.pooled) {
+                        out.println("        int " + field.name + "PoolKey = " + field.type.store(field.name) + ";");
+                    }
+                }
+                String condition = "        if (";
+                for (Field field : fields) {
+                    if (field.type.pooled && field.declaredBits > 0) {
+                        out.print(condition + "(" + field.name + "PoolKey >>> " + field.declaredBits + ") != 0");
+                        condition = System.lineSeparator() + "                || ";
+                    }
+                }
+                out.println(") {");
+                for (Field field : fields) {
+                    if (field.type.pooled) {
+                        out.println("            byteArrayPool.free(" + field.name + "PoolKey);");
+                    }
+                }
+                out.println("            throw poolKeyOverflow();");
+                out.println("        }");
+            }
+            for (Field field : fields) {
+                String value = checkedPoolKeys && field.type.pooled ? field.name + "PoolKey" : field.type.store(field.name);
+                out.println("        " + field.write(value) + ";");
+            }
+            out.println("        return this;");
+            out.println("    }");
+            for (Field field : fields) {
+                out.println();
+                writeAccessors(out, view, field);
+            }
+            out.println();
+            out.println();
+            out.println("    // for reading single fields by handle without binding any view");
+            for (Field field : fields) {
+                out.println();
+                writeStaticReader(out, field);
+            }
+            if (hasStrings || checkedPoolKeys) {
+                out.println();
+            }
+            if (checkedPoolKeys) {
+                out.println();
+                out.println("    private static IllegalStateException poolKeyOverflow() {");
+                out.println("        return new IllegalStateException(\"Pool key does not fit into bits declared for it, pool has too many values\");");
+                out.println("    }");
+            }
+            if (hasStrings) {
+                out.println();
+                out.println("    private int internString(String str) {");
+                out.println("        return byteArrayPool.put(str.getBytes(StandardCharsets.US_ASCII));");
+                out.println("    }");
+                out.println();
+                out.println("    @SuppressWarnings(\"byte.array.weakening\")");
+                out.println("    private String restoreString(int key) {");
+                out.println("        return new String(byteArrayPool.get(key), StandardCharsets.US_ASCII);");
+                out.println("    }");
+            }
+            out.println("}");
+        }
+    }
+
+    private void writeAccessors(PrintWriter out, String view, Field field) {
+        String property = field.capitalizedName();
+        FieldType type = field.type;
+        if (!type.pooled) {
+            out.println("    public " + type.parameterType + " get" + property + "() {");
+            out.println("        return get" + property + "(buffer, startPosition);");
+            out.println("    }");
+            out.println();
+            out.println("    public " + view + " set" + property + "(" + type.parameterType + " " + field.name + ") {");
+            writeRangeCheck(out, field, "        ");
+            out.println("        " + field.write(type.store(field.name)) + ";");
+            out.println("        return this;");
+            out.println("    }");
+            return;
+        }
+        if (type == FieldType.BYTES) {
+            out.println("    public byte @ImmutableByteArray [] get" + property + "() {");
+            out.println("        return byteArrayPool.get(get" + property + "PoolKey());");
+        }
+        else {
+            out.println("    public String get" + property + "() {");
+            out.println("        return restoreString(get" + property + "PoolKey());");
+        }
+        out.println("    }");
+        out.println();
+        out.println("    public int get" + property + "PoolKey() {");
+        out.println("        return get" + property + "PoolKey(buffer, startPosition);");
+        out.println("    }");
+        out.println();
+        out.println("    public " + view + " change" + property + "(" + type.parameterType + " " + field.name + ") {");
+        out.println("        int old" + property + " = get" + property + "PoolKey();");
+        if (field.declaredBits > 0) {
+            out.println("        int new" + property + " = " + type.store(field.name) + ";");
+            out.println("        if ((new" + property + " >>> " + field.declaredBits + ") != 0) {");
+            out.println("            byteArrayPool.free(new" + property + ");");
+            out.println("            throw poolKeyOverflow();");
+            out.println("        }");
+            out.println("        " + field.write("new" + property) + ";");
+        }
+        else {
+            out.println("        " + field.write(type.store(field.name)) + ";");
+        }
+        out.println("        byteArrayPool.free(old" + property + ");");
+        out.println("        return this;");
+        out.println("    }");
+    }
+
+    private void writeStaticReader(PrintWriter out, Field field) {
+        FieldType type = field.type;
+        out.println("    static " + type.readType() + " " + field.readerName() + "(ByteBuffer buffer, int startPosition) {");
+        out.println("        return " + field.read() + ";");
+        out.println("    }");
+    }
+
+    private void writeRangeCheck(PrintWriter out, Field field, String indent) {
+        if (field.declaredBits == 0) {
+            return;
+        }
+        // unsigned shift also catches negative values
+        out.println(indent + "if ((" + field.name + " >>> " + field.declaredBits + ") != 0) {");
+        out.println(indent + "    throw new IllegalArgumentException(\"" + field.name + " [\" + " + field.name
+                + " + \"] does not fit into " + field.declaredBits + " bits\");");
+        out.println(indent + "}");
+    }
+
+    /**
+     * Assigns bit offsets and access windows to fields in given order
+     *
+     * @return record size in bytes
+     */
+    private static int packBits(List<Field> layout) {
+        int bitOffset = 0;
+        for (Field field : layout) {
+            if (((bitOffset & 7) + field.bits() + 7) / 8 > Long.BYTES) {
+                bitOffset = (bitOffset + 7) & ~7; // would span 9 bytes, start at byte boundary instead
+            }
+            field.bitOffset = bitOffset;
+            bitOffset += field.bits();
+        }
+        int size = (bitOffset + 7) / 8;
+        for (Field field : layout) {
+            int firstByte = field.bitOffset / 8;
+            int lastByte = (field.bitOffset + field.bits() - 1) / 8;
+            int spanBytes = lastByte - firstByte + 1;
+            field.windowBytes = spanBytes == 1 ? 1 : Integer.highestOneBit(spanBytes - 1) << 1; // smallest power of 2 that fits
+            size = Math.max(size, field.windowBytes);
+        }
+        for (Field field : layout) {
+            // window is moved back if it would run past record end, it still covers the field
+            field.windowOffset = Math.min(field.bitOffset / 8, size - field.windowBytes);
+            field.shift = (field.windowOffset + field.windowBytes) * 8 - field.bitOffset - field.bits();
+        }
+        return size;
+    }
+
+    private void writeAllocator(TypeElement record, List<Field> fields) throws IOException {
+        String packageName = packageOf(record);
+        String view = viewName(record);
+        String allocator = record.getSimpleName() + "SlabAllocator";
+        boolean pooled = fields.stream().anyMatch(f -> f.type.pooled);
+        boolean samePackage = packageName.equals(SLAB_PACKAGE);
+        String poolParameter = pooled ? "ByteArrayPool byteArrayPool, " : "";
+        String poolArgument = pooled ? "byteArrayPool, " : "";
+
+        try (PrintWriter out = new PrintWriter(processingEnv.getFiler().createSourceFile(packageName + "." + allocator, record).openWriter())) {
+            out.println("package " + packageName + ";");
+            out.println();
+            if (pooled) {
+                out.println("import " + POOL_CLASS + ";");
+            }
+            if (!samePackage) {
+                out.println("import " + SLAB_PACKAGE + ".RelocationListener;");
+                out.println("import " + SLAB_PACKAGE + ".SlabAllocator;");
+                out.println("import " + SLAB_PACKAGE + ".SlabCursor;");
+                out.println("import " + SLAB_PACKAGE + ".SlabStorage;");
+            }
+            out.println();
+            out.println("import javax.annotation.processing.Generated;");
+            out.println("import java.util.function.Consumer;");
+            out.println();
+            out.println("@Generated(\"" + SlabRecordProcessor.class.getName() + "\")");
+            out.println("public final class " + allocator + " {");
+            out.println();
+            out.println("    private final SlabAllocator slabs;");
+            if (pooled) {
+                out.println("    private final ByteArrayPool byteArrayPool;");
+            }
+            out.println("    private final " + view + " view;");
+            out.println();
+            out.println();
+            out.println("    public " + allocator + "(" + (pooled ? "ByteArrayPool byteArrayPool" : "") + ") {");
+            out.println("        this(" + poolArgument + "SlabStorage.HEAP);");
+            out.println("    }");
+            out.println();
+            out.println("    public " + allocator + "(" + poolParameter + "SlabStorage storage) {");
+            out.println("        this(" + poolArgument + "storage, SlabAllocator.DEFAULT_MAX_CACHED_SLABS);");
+            out.println("    }");
+            out.println();
+            out.println("    public " + allocator + "(" + poolParameter + "SlabStorage storage, int maxCachedSlabs) {");
+            out.println("        this(" + poolArgument + "storage, SlabAllocator.DEFAULT_SLAB_SIZE_BYTES, maxCachedSlabs);");
+            out.println("    }");
+            out.println();
+            out.println("    public " + allocator + "(" + poolParameter + "SlabStorage storage, int slabSizeBytes, int maxCachedSlabs) {");
+            out.println("        this.slabs = new SlabAllocator(" + view + ".TOTAL_SIZE, slabSizeBytes, storage, maxCachedSlabs);");
+            if (pooled) {
+                out.println("        this.byteArrayPool = byteArrayPool;");
+            }
+            out.println("        this.view = new " + view + "(" + (pooled ? "byteArrayPool" : "") + ");");
+            out.println("    }");
+            out.println();
+            out.println();
+            out.println("    public long allocate() {");
+            out.println("        return slabs.allocate();");
+            out.println("    }");
+            out.println();
+            out.println("    public long allocate(int count) {");
+            out.println("        return slabs.allocate(count);");
+            out.println("    }");
+            out.println();
+            out.println("    public " + view + " get(long handle) {");
+            out.println("        return view.wrap(slabs.bufferOf(handle), slabs.byteOffsetOf(handle));");
+            out.println("    }");
+            out.println();
+            out.println("    public SlabCursor<" + view + "> newCursor() {");
+            out.println("        return new SlabCursor<>(slabs, new " + view + "(" + (pooled ? "byteArrayPool" : "") + "), " + view + "::wrap);");
+            out.println("    }");
+            out.println();
+            out.println("    public void free(long handle) {");
+            out.println("        slabs.free(handle);");
+            out.println("    }");
+            out.println();
+            out.println("    public void forEach(Consumer<" + view + "> consumer) {");
+            out.println("        SlabCursor<" + view + "> cursor = newCursor();");
+            out.println("        while (cursor.next()) {");
+            out.println("            consumer.accept(cursor.view());");
+            out.println("        }");
+            out.println("    }");
+            for (Field field : fields) {
+                out.println();
+                out.println("    public " + field.type.readType() + " " + field.accessorName() + "(long handle) {");
+                out.println("        return " + view + "." + field.readerName() + "(slabs.bufferOf(handle), slabs.byteOffsetOf(handle));");
+                out.println("    }");
+            }
+            out.println();
+            out.println("    public boolean compact(int maxWork, RelocationListener listener) {");
+            out.println("        return slabs.compact(maxWork, listener);");
+            out.println("    }");
+            out.println();
+            out.println("    public int slabCount() {");
+            out.println("        return slabs.slabCount();");
+            out.println("    }");
+            out.println();
+            out.println("    public int cachedSlabCount() {");
+            out.println("        return slabs.cachedSlabCount();");
+            out.println("    }");
+            out.println("}");
+        }
+    }
+
+    private String packageOf(TypeElement record) {
+        return processingEnv.getElementUtils().getPackageOf(record).getQualifiedName().toString();
+    }
+
+    private static String viewName(TypeElement record) {
+        return record.getSimpleName() + "View";
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+
+    private static final class Field {
+
+        private final String name;
+        private final FieldType type;
+        private final int declaredBits; // 0 if not declared
+        // bit packed layout only
+        private int bitOffset;
+        private int windowOffset;
+        private int windowBytes;
+        private int shift;
+
+
+        Field(String name, FieldType type, int declaredBits) {
+            this.name = name;
+            this.type = type;
+            this.declaredBits = declaredBits;
+        }
+
+
+        int bits() {
+            return declaredBits > 0 ? declaredBits : type.bits;
+        }
+
+        long mask() {
+            return -1L >>> (Long.SIZE - bits());
+        }
+
+        String constantPrefix() {
+            return name.toUpperCase(Locale.ROOT);
+        }
+
+        String offsetConstant() {
+            return constantPrefix() + "_OFFSET";
+        }
+
+        String read() {
+            if (windowBytes == 0) {
+                return type.read(offsetConstant());
+            }
+            return type.fromBits("BitFields.read(buffer, startPosition + " + offsetConstant() + ", "
+                    + constantPrefix() + "_WINDOW, " + constantPrefix() + "_SHIFT, " + constantPrefix() + "_MASK)");
+        }
+
+        String write(String value) {
+            if (windowBytes == 0) {
+                return type.write(offsetConstant(), value);
+            }
+            return "BitFields.write(buffer, startPosition + " + offsetConstant() + ", " + constantPrefix() + "_WINDOW, "
+                    + constantPrefix() + "_SHIFT, " + constantPrefix() + "_MASK, " + type.toBits(value) + ")";
+        }
+
+        String capitalizedName() {
+            return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        }
+
+        String readerName() {
+            return "get" + capitalizedName() + (type.pooled ? "PoolKey" : "");
+        }
+
+        String accessorName() {
+            return name + (type.pooled ? "PoolKey" : "") + "Of";
+        }
+    }
+
+    private enum FieldType {
+        LONG("long", "Long", "Long", false, true),
+        DOUBLE("double", "Double", "Long", false, false),
+        INT("int", "Integer", "Int", false, true),
+        FLOAT("float", "Float", "Int", false, false),
+        STRING("String", "Integer", "Int", true, true),
+        BYTES("byte[]", "Integer", "Int", true, true),
+        SHORT("short", "Short", "Short", false, true),
+        CHAR("char", "Character", "Short", false, true),
+        BYTE("byte", "Byte", "Byte", false, true),
+        BOOLEAN("boolean", "Byte", "Byte", false, false);
+
+        private final String parameterType;
+        private final String sizeConstant;
+        private final String accessMethodSuffix; // SlabAccess only deals with integral types
+        private final int sizeBytes;
+        private final int bits; // when bit packed
+        private final boolean pooled;
+        private final boolean narrowable;
+
+
+        FieldType(String parameterType, String boxedType, String accessMethodSuffix, boolean pooled, boolean narrowable) {
+            this.parameterType = parameterType;
+            this.sizeConstant = boxedType + ".BYTES";
+            this.accessMethodSuffix = accessMethodSuffix;
+            this.sizeBytes = sizeOf(boxedType);
+            this.bits = "boolean".equals(parameterType) ? 1 : sizeBytes * Byte.SIZE;
+            this.pooled = pooled;
+            this.narrowable = narrowable;
+        }
+
+
+        String readType() {
+            return pooled ? "int" : parameterType;
+        }
+
+        String read(String offset) {
+            String read = "ACCESS.get" + accessMethodSuffix + "(buffer, startPosition + " + offset + ")";
+            switch (this) {
+                case DOUBLE: return "Double.longBitsToDouble(" + read + ")";
+                case FLOAT: return "Float.intBitsToFloat(" + read + ")";
+                case CHAR: return "(char) " + read;
+                case BOOLEAN: return read + " != 0";
+                default: return read;
+            }
+        }
+
+        String write(String offset, String value) {
+            String bits;
+            switch (this) {
+                case DOUBLE: bits = "Double.doubleToRawLongBits(" + value + ")"; break;
+                case FLOAT: bits = "Float.floatToRawIntBits(" + value + ")"; break;
+                case CHAR: bits = "(short) " + value; break;
+                default: bits = value;
+            }
+            return "ACCESS.put" + accessMethodSuffix + "(buffer, startPosition + " + offset + ", " + bits + ")";
+        }
+
+        // value is already stored, e.g. boolean as 0 or 1 byte, sign extension
+        // does not matter as bits above field width are masked off
+        String toBits(String value) {
+            switch (this) {
+                case DOUBLE: return "Double.doubleToRawLongBits(" + value + ")";
+                case FLOAT: return "Float.floatToRawIntBits(" + value + ")";
+                default: return value;
+            }
+        }
+
+        String fromBits(String bits) {
+            switch (this) {
+                case LONG: return bits;
+                case DOUBLE: return "Double.longBitsToDouble(" + bits + ")";
+                case FLOAT: return "Float.intBitsToFloat((int) " + bits + ")";
+                case BOOLEAN: return bits + " != 0";
+                case SHORT: return "(short) " + bits;
+                case CHAR: return "(char) " + bits;
+                case BYTE: return "(byte) " + bits;
+                default: return "(int) " + bits;
+            }
+        }
+
+        String store(String parameter) {
+            switch (this) {
+                case STRING: return "internString(" + parameter + ")";
+                case BYTES: return "byteArrayPool.put(" + parameter + ")";
+                case BOOLEAN: return "(byte) (" + parameter + " ? 1 : 0)";
+                default: return parameter;
+            }
+        }
+
+        static FieldType of(TypeMirror type) {
+            switch (type.getKind()) {
+                case LONG: return LONG;
+                case DOUBLE: return DOUBLE;
+                case INT: return INT;
+                case FLOAT: return FLOAT;
+                case SHORT: return SHORT;
+                case CHAR: return CHAR;
+                case BYTE: return BYTE;
+                case BOOLEAN: return BOOLEAN;
+                case ARRAY:
+                    TypeMirror component = ((ArrayType) type).getComponentType();
+                    return component.getKind() == TypeKind.BYTE ? BYTES : null;
+                case DECLARED:
+                    return type.toString().equals("java.lang.String") ? STRING : null;
+                default:
+                    return null;
+            }
+        }
+
+        private static int sizeOf(String boxedType) {
+            switch (boxedType) {
+                case "Long": case "Double": return Long.BYTES;
+                case "Integer": case "Float": return Integer.BYTES;
+                case "Short": case "Character": return Short.BYTES;
+                default: return Byte.BYTES;
+            }
+        }
+    }
+}
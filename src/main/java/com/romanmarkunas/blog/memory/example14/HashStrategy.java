@@ -0,0 +1,90 @@
+package com.romanmarkunas.blog.memory.example14;
+
+import net.openhft.hashing.LongHashFunction;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Ways to hash values of pools. Pools take slot by remainder of hash code, so every bit of it
+ * should depend on every byte of value:
+ * <ul>
+ *     <li>{@link #ARRAYS_HASH_CODE} - {@link Arrays#hashCode(byte[])} with upper half mixed into lower one, cheapest, but
+ *     short values which differ in last bytes only, like house numbers or "1st St" and "2nd St", get close hash codes</li>
+ *     <li>{@link #MURMUR_3}, {@link #XX}, {@link #WY_3} - 64 bit hashes of zero-allocation-hashing library, folded into 32 bits</li>
+ * </ul>
+ * Hash codes are not stored in snapshots of pools, so pool can be restored with any of them. Same
+ * bytes get same hash code whether they are whole array, part of it or part of byte buffer.
+ */
+public enum HashStrategy {
+
+    ARRAYS_HASH_CODE(null) {
+        @Override
+        public int hash(byte[] value) {
+            return mix(Arrays.hashCode(value));
+        }
+
+        @Override
+        public int hash(byte[] buffer, int offset, int length) {
+            int hashCode = 1;
+            for (int i = offset; i < offset + length; i++) {
+                hashCode = 31 * hashCode + buffer[i];
+            }
+            return mix(hashCode);
+        }
+
+        @Override
+        public int hash(ByteBuffer buffer, int offset, int length) {
+            int hashCode = 1;
+            for (int i = offset; i < offset + length; i++) {
+                hashCode = 31 * hashCode + buffer.get(i);
+            }
+            return mix(hashCode);
+        }
+
+        private int mix(int hashCode) {
+            hashCode = hashCode ^ (hashCode >>> 16);
+            return hashCode & HASHCODE_MASK;
+        }
+    },
+    MURMUR_3(LongHashFunction.murmur_3()),
+    XX(LongHashFunction.xx()),
+    WY_3(LongHashFunction.wy_3());
+
+    private static final int HASHCODE_MASK = 0x7FFF_FFFF;
+
+    private final LongHashFunction function;
+
+
+    HashStrategy(LongHashFunction function) {
+        this.function = function;
+    }
+
+
+    /**
+     * @return hash code of value, never negative
+     */
+    public int hash(byte[] value) {
+        return fold(function.hashBytes(value));
+    }
+
+    /**
+     * @return hash code of {@code length} bytes of {@code buffer} from {@code offset}, never negative
+     */
+    public int hash(byte[] buffer, int offset, int length) {
+        return fold(function.hashBytes(buffer, offset, length));
+    }
+
+    /**
+     * @return hash code of {@code length} bytes of {@code buffer} from absolute {@code offset},
+     * never negative, position and limit of buffer are ignored
+     */
+    public int hash(ByteBuffer buffer, int offset, int length) {
+        return fold(function.hashBytes(buffer, offset, length));
+    }
+
+
+    private static int fold(long hash) {
+        return (int) (hash ^ (hash >>> 32)) & HASHCODE_MASK;
+    }
+}
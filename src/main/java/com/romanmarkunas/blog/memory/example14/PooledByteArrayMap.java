@@ -15,15 +15,14 @@ public class PooledByteArrayMap {
             1
     };
     private static final int CAPACITY_INCREMENT = 4096;
-    private static final int HASHCODE_MASK = 0x7FFF_FFFF;
 
     private static final byte[] REMOVED_VALUE = new byte[0];
     private static final byte[] FREE_VALUE = null; // avoid initializing arrays on creation
     //      static final int REMOVED_KEY = any negative value;
     private static final int FREE_KEY = Integer.MIN_VALUE;
     private static final int NO_REMOVED_KEY = Integer.MIN_VALUE + 1;
-//    private final LongHashFunction hashFunction = LongHashFunction.murmur_3();
 
+    private final HashStrategy hashing;
     private int keyGenerator = 0;
     private int[] valueIndexesByKey; // index = key, cell = 1) positive until MAX - 2: value index; 2) negative: free or removed; 2a) negative MIN: free init value; 2b) negative not min: negate - 1 gives next free key slot for reuse
     private int[] keysByValueIndex; // index = value slot, cell = key
@@ -35,6 +34,11 @@ public class PooledByteArrayMap {
 
 
     public PooledByteArrayMap(int initialCapacity) {
+        this(initialCapacity, HashStrategy.ARRAYS_HASH_CODE);
+    }
+
+    public PooledByteArrayMap(int initialCapacity, HashStrategy hashing) {
+        this.hashing = hashing;
         probingStep = probingStepFor(initialCapacity);
         int capacity = correctCapacityToAvoidLoopingOverSameSlots(probingStep, initialCapacity);
         createInternalArrays(capacity);
@@ -43,7 +47,7 @@ public class PooledByteArrayMap {
 
     public int put(byte[] value) {
         // TODO: fail on null cause it's a special value of FREE cell
-        int valueHashCode = calculateHashCode(value);
+        int valueHashCode = hashing.hash(value);
 
         ensureCapacity(size + 1);
 
@@ -139,7 +143,7 @@ public class PooledByteArrayMap {
             if (valueIndex >= 0) { // free or removed
                 byte[] value = oldValues[valueIndex];
 
-                int newValueIndex = findSlotFor(value, calculateHashCode(value));
+                int newValueIndex = findSlotFor(value, hashing.hash(value));
 
                 valueIndexesByKey[key] = newValueIndex;
                 keysByValueIndex[newValueIndex] = key;
@@ -187,12 +191,6 @@ public class PooledByteArrayMap {
         return valueIndexesByKey[index] < 0 && valueIndexesByKey[index] != FREE_KEY;
     }
 
-    private static int calculateHashCode(byte[] value) {
-        int hashCode = Arrays.hashCode(value);
-        hashCode = hashCode ^ (hashCode >>> 16);
-        return hashCode & HASHCODE_MASK;
-    }
-
     private static int probingStepFor(int capacity) {
         for (int i = 0; i < PROBING_STEPS.length; i++) {
             int step = PROBING_STEPS[i];
@@ -0,0 +1,99 @@
+package com.romanmarkunas.blog.memory.example15;
+
+import com.romanmarkunas.blog.memory.example14.checkers.ImmutableByteArray;
+
+final class ArenaValueSlots implements ValueSlots {
+
+    private static final long NO_VALUE = 0; // other slots hold arena address + 1, so zeroed pages need no initialization
+
+    private final long[][] pages;
+    private final int capacity;
+    private ValueArena arena;
+
+
+    ArenaValueSlots(int capacity, ValueArena arena) {
+        this.capacity = capacity;
+        this.pages = new long[(capacity + PAGE_SIZE - 1) / PAGE_SIZE][];
+        this.arena = arena;
+    }
+
+
+    @Override
+    public byte @ImmutableByteArray [] get(int index) {
+        return arena.copy(addressAt(index));
+    }
+
+    @Override
+    public boolean contentEquals(int index, ValueSlice value) {
+        return arena.contentEquals(addressAt(index), value);
+    }
+
+    @Override
+    public void set(int index, ValueSlice value) {
+        page(index)[index % PAGE_SIZE] = arena.append(value) + 1;
+    }
+
+    @Override
+    public void remove(int index) {
+        arena.free(addressAt(index));
+        page(index)[index % PAGE_SIZE] = NO_VALUE;
+    }
+
+    @Override
+    public void moveTo(ValueSlots target, int index, int targetIndex) {
+        ((ArenaValueSlots) target).page(targetIndex)[targetIndex % PAGE_SIZE] = slot(index);
+        page(index)[index % PAGE_SIZE] = NO_VALUE; // bytes are not freed, they belong to target now
+    }
+
+    @Override
+    public ValueSlots emptyCopy(int capacity) {
+        return new ArenaValueSlots(capacity, arena);
+    }
+
+    @Override
+    public long wastedBytes() {
+        return arena.wastedBytes();
+    }
+
+    /**
+     * Copies live values one after another into new arena and releases old one, so that holes
+     * of removed values are gone. Takes time proportional to bytes of all live values.
+     */
+    @Override
+    public void compact() {
+        if (arena.wastedBytes() == 0) {
+            return;
+        }
+        ValueArena compacted = arena.emptyCopy();
+        for (long[] page : pages) {
+            if (page == null) {
+                continue;
+            }
+            for (int i = 0; i < page.length; i++) {
+                if (page[i] != NO_VALUE) {
+                    page[i] = compacted.appendCopy(arena, page[i] - 1) + 1;
+                }
+            }
+        }
+        arena.release();
+        arena = compacted;
+    }
+
+
+    private long addressAt(int index) {
+        return slot(index) - 1;
+    }
+
+    private long slot(int index) {
+        long[] page = pages[index / PAGE_SIZE];
+        return page == null ? NO_VALUE : page[index % PAGE_SIZE];
+    }
+
+    private long[] page(int index) {
+        int pageIndex = index / PAGE_SIZE;
+        if (pages[pageIndex] == null) {
+            pages[pageIndex] = new long[Math.min(PAGE_SIZE, capacity - pageIndex * PAGE_SIZE)];
+        }
+        return pages[pageIndex];
+    }
+}
@@ -0,0 +1,61 @@
+package com.romanmarkunas.blog.memory.example15;
+
+import com.romanmarkunas.blog.memory.example14.checkers.ImmutableByteArray;
+
+final class ArrayValueSlots implements ValueSlots {
+
+    private final byte[][][] pages;
+    private final int capacity;
+
+
+    ArrayValueSlots(int capacity) {
+        this.capacity = capacity;
+        this.pages = new byte[(capacity + PAGE_SIZE - 1) / PAGE_SIZE][][];
+    }
+
+
+    @Override
+    public byte @ImmutableByteArray [] get(int index) {
+        return valueAt(index);
+    }
+
+    @Override
+    public boolean contentEquals(int index, ValueSlice value) {
+        return value.contentEquals(valueAt(index));
+    }
+
+    @Override
+    public void set(int index, ValueSlice value) {
+        page(index)[index % PAGE_SIZE] = value.copy();
+    }
+
+    @Override
+    public void remove(int index) {
+        page(index)[index % PAGE_SIZE] = null;
+    }
+
+    @Override
+    public void moveTo(ValueSlots target, int index, int targetIndex) {
+        ((ArrayValueSlots) target).page(targetIndex)[targetIndex % PAGE_SIZE] = valueAt(index);
+        page(index)[index % PAGE_SIZE] = null;
+    }
+
+    @Override
+    public ValueSlots emptyCopy(int capacity) {
+        return new ArrayValueSlots(capacity);
+    }
+
+
+    private byte[] valueAt(int index) {
+        byte[][] page = pages[index / PAGE_SIZE];
+        return page == null ? null : page[index % PAGE_SIZE];
+    }
+
+    private byte[][] page(int index) {
+        int pageIndex = index / PAGE_SIZE;
+        if (pages[pageIndex] == null) {
+            pages[pageIndex] = new byte[Math.min(PAGE_SIZE, capacity - pageIndex * PAGE_SIZE)][];
+        }
+        return pages[pageIndex];
+    }
+}
@@ -0,0 +1,57 @@
+package com.romanmarkunas.blog.memory.example15;
+
+import com.romanmarkunas.blog.memory.example14.checkers.ImmutableByteArray;
+
+/**
+ * Deduplicating store of byte arrays, which hands out int keys, so that off-heap records can
+ * reference variable length values. Equal arrays share a key, which is reference counted:
+ * each {@link #put(byte[])} must be paired with a {@link #free(int)}.
+ * <p>
+ * Implementations document whether they are safe for concurrent use.
+ */
+public interface ByteArrayPool {
+
+    int put(byte[] value);
+
+    /**
+     * Same as {@link #put(byte[])} of {@code length} bytes from {@code offset}, which are only
+     * copied if they are not pooled yet
+     */
+    int put(byte[] buffer, int offset, int length);
+
+    /**
+     * @return pooled value, which must not be modified, or null if key is not in pool
+     */
+    byte @ImmutableByteArray [] get(int key);
+
+    /**
+     * @return true if value of {@code key} is equal to {@code length} bytes of {@code buffer} from
+     * {@code offset}, without copying pooled value
+     */
+    boolean contentEquals(int key, byte[] buffer, int offset, int length);
+
+    void free(int key);
+
+    int size();
+
+    /**
+     * @return number of slots values can take before pool grows
+     */
+    int capacity();
+
+    /**
+     * @return slots of freed values, which still lengthen lookups until pool is resized
+     */
+    int tombstones();
+
+    /**
+     * @return number of slot lookups done by {@link #put(byte[])} since creation
+     */
+    long lookupCount();
+
+    /**
+     * @return number of slots inspected by all lookups since creation, so that average probe
+     * length over any period is difference of this divided by difference of {@link #lookupCount()}
+     */
+    long probeCount();
+}
@@ -0,0 +1,236 @@
+package com.romanmarkunas.blog.memory.example15;
+
+import com.romanmarkunas.blog.memory.example14.HashStrategy;
+import com.romanmarkunas.blog.memory.example14.checkers.ImmutableByteArray;
+
+import java.util.Objects;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.ToLongFunction;
+
+/**
+ * {@link PooledByteArrayMap} which can be shared by threads. Values are spread by hash code over
+ * segments, each of them is separate pool guarded by its own lock, so writers only contend when
+ * their values fall into same segment. Lowest bits of every key tell segment of its value.
+ * <p>
+ * {@link #get(int)} takes no lock, it reads segment optimistically and falls back to read lock
+ * only if some writer changed segment meanwhile. Usages are counted under segment lock, so value
+ * is removed once every put of it was matched by free, no matter which threads did them. Resize
+ * of a segment only blocks threads using that segment.
+ * <p>
+ * Values of a segment are compacted by {@link #compactValues()} under write lock. Optimistic read
+ * racing with compaction of heap arena either reads chunks it already holds or fails, either way
+ * stamp fails validation and value is read again under read lock.
+ * {@link ValueStorage#DIRECT_ARENA} is not supported, as compaction releases native memory, which
+ * racing read could still touch.
+ */
+public final class ConcurrentPooledByteArrayMap implements ByteArrayPool {
+
+    private static final int MAX_SEGMENTS = 256;
+
+    private final PooledByteArrayMap[] segments;
+    private final StampedLock[] locks;
+    private final int segmentBits;
+    private final int segmentMask;
+    private final int maxSegmentKey;
+
+
+    public ConcurrentPooledByteArrayMap(int initialCapacity, int concurrencyLevel) {
+        this(initialCapacity, concurrencyLevel, ValueStorage.ARRAYS);
+    }
+
+    /**
+     * @param concurrencyLevel expected number of writing threads, rounded up to power of 2 segments
+     */
+    public ConcurrentPooledByteArrayMap(int initialCapacity, int concurrencyLevel, ValueStorage storage) {
+        this(initialCapacity, concurrencyLevel, storage, HashStrategy.ARRAYS_HASH_CODE);
+    }
+
+    /**
+     * @param concurrencyLevel expected number of writing threads, rounded up to power of 2 segments
+     * @param hashing hash strategy of all segments, its highest bits also pick segment of value
+     */
+    public ConcurrentPooledByteArrayMap(int initialCapacity, int concurrencyLevel, ValueStorage storage, HashStrategy hashing) {
+        if (concurrencyLevel < 1 || concurrencyLevel > MAX_SEGMENTS) {
+            throw new IllegalArgumentException("Concurrency level must be between 1 and " + MAX_SEGMENTS + ", got " + concurrencyLevel);
+        }
+        if (storage == ValueStorage.DIRECT_ARENA) {
+            throw new IllegalArgumentException("Values in native memory cannot be read without lock");
+        }
+        segmentBits = 32 - Integer.numberOfLeadingZeros(concurrencyLevel - 1);
+        segmentMask = (1 << segmentBits) - 1;
+        maxSegmentKey = Integer.MAX_VALUE >>> segmentBits;
+
+        int segmentCount = 1 << segmentBits;
+        segments = new PooledByteArrayMap[segmentCount];
+        locks = new StampedLock[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new PooledByteArrayMap(Math.max(1, initialCapacity / segmentCount), storage, hashing);
+            locks[i] = new StampedLock();
+        }
+    }
+
+
+    @Override
+    public int put(byte[] value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Cannot put null into pool");
+        }
+        return put(value, 0, value.length);
+    }
+
+    @Override
+    public int put(byte[] buffer, int offset, int length) {
+        Objects.checkFromIndexSize(offset, length, buffer.length);
+        int valueHashCode = segments[0].hash(buffer, offset, length);
+        int segment = segmentFor(valueHashCode);
+        PooledByteArrayMap pool = segments[segment];
+        StampedLock lock = locks[segment];
+
+        long stamp = lock.writeLock();
+        try {
+            int segmentKey = pool.put(buffer, offset, length, valueHashCode);
+            if (segmentKey > maxSegmentKey) {
+                pool.free(segmentKey);
+                throw new IllegalStateException("Too many objects submitted for pooling into segment " + segment);
+            }
+            return (segmentKey << segmentBits) | segment;
+        }
+        finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public byte @ImmutableByteArray [] get(int key) {
+        int segment = key & segmentMask;
+        int segmentKey = key >>> segmentBits;
+        PooledByteArrayMap pool = segments[segment];
+        StampedLock lock = locks[segment];
+
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                byte @ImmutableByteArray [] value = pool.get(segmentKey);
+                if (lock.validate(stamp)) {
+                    return value;
+                }
+            }
+            catch (RuntimeException inconsistentRead) {
+                // writer changed segment while reading it, so read below under lock
+            }
+        }
+
+        stamp = lock.readLock();
+        try {
+            return pool.get(segmentKey);
+        }
+        finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // under write lock, as segment points its single slice at compared bytes
+    @Override
+    public boolean contentEquals(int key, byte[] buffer, int offset, int length) {
+        int segment = key & segmentMask;
+        StampedLock lock = locks[segment];
+
+        long stamp = lock.writeLock();
+        try {
+            return segments[segment].contentEquals(key >>> segmentBits, buffer, offset, length);
+        }
+        finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void free(int key) {
+        int segment = key & segmentMask;
+        StampedLock lock = locks[segment];
+
+        long stamp = lock.writeLock();
+        try {
+            segments[segment].free(key >>> segmentBits);
+        }
+        finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return sum of segment sizes, each of them read at slightly different time
+     */
+    @Override
+    public int size() {
+        return (int) sumOverSegments(PooledByteArrayMap::size);
+    }
+
+    @Override
+    public int capacity() {
+        return (int) sumOverSegments(PooledByteArrayMap::capacity);
+    }
+
+    @Override
+    public int tombstones() {
+        return (int) sumOverSegments(PooledByteArrayMap::tombstones);
+    }
+
+    @Override
+    public long lookupCount() {
+        return sumOverSegments(PooledByteArrayMap::lookupCount);
+    }
+
+    @Override
+    public long probeCount() {
+        return sumOverSegments(PooledByteArrayMap::probeCount);
+    }
+
+    /**
+     * @see PooledByteArrayMap#wastedValueBytes()
+     */
+    public long wastedValueBytes() {
+        return sumOverSegments(PooledByteArrayMap::wastedValueBytes);
+    }
+
+    /**
+     * Compacts values of one segment at a time, so that only threads using that segment wait
+     *
+     * @see PooledByteArrayMap#compactValues()
+     */
+    public void compactValues() {
+        for (int i = 0; i < segments.length; i++) {
+            long stamp = locks[i].writeLock();
+            try {
+                segments[i].compactValues();
+            }
+            finally {
+                locks[i].unlockWrite(stamp);
+            }
+        }
+    }
+
+    int segmentCount() {
+        return segments.length;
+    }
+
+
+    private long sumOverSegments(ToLongFunction<PooledByteArrayMap> statistic) {
+        long sum = 0;
+        for (int i = 0; i < segments.length; i++) {
+            long stamp = locks[i].readLock();
+            try {
+                sum += statistic.applyAsLong(segments[i]);
+            }
+            finally {
+                locks[i].unlockRead(stamp);
+            }
+        }
+        return sum;
+    }
+
+    // highest bits, as lowest ones pick slot within segment
+    private int segmentFor(int valueHashCode) {
+        return segmentBits == 0 ? 0 : valueHashCode >>> (31 - segmentBits);
+    }
+}
@@ -1,10 +1,20 @@
 package com.romanmarkunas.blog.memory.example15;
 
+import com.romanmarkunas.blog.memory.example14.HashStrategy;
 import com.romanmarkunas.blog.memory.example14.checkers.ImmutableByteArray;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
-public class PooledByteArrayMap {
+public class PooledByteArrayMap implements ByteArrayPool {
+
+    /**
+     * Returned by {@code find} methods for values which are not pooled, keys are never negative
+     */
+    public static final int NOT_POOLED = -1;
 
     private static final int[] PROBING_STEPS = new int[] {
             99991,
@@ -15,91 +25,341 @@ public class PooledByteArrayMap {
             1
     };
     private static final int CAPACITY_INCREMENT = 4096;
-    private static final int HASHCODE_MASK = 0x7FFF_FFFF;
+    private static final int KEYS_MOVED_PER_OPERATION = 8; // rehash is done before capacity grows again
+    private static final double DEFAULT_MAX_LOAD = 2 / 3d; // taken slots at most, so that probes of missing values end at free slot soon
 
-    private static final byte[] REMOVED_VALUE = new byte[0];
-    private static final byte[] FREE_VALUE = null; // avoid initializing arrays on creation
     //      static final int REMOVED_KEY = any negative value;
     private static final int FREE_KEY = Integer.MIN_VALUE;
     private static final int NO_REMOVED_KEY = Integer.MIN_VALUE + 1;
-//    private final LongHashFunction hashFunction = LongHashFunction.murmur_3();
+    // hash codes are never negative, so slots without value are marked by negative ones
+    private static final int FREE_SLOT = -1;
+    private static final int REMOVED_SLOT = -2;
 
+    private final HashStrategy hashing;
+    private final double maxLoad;
     private int keyGenerator = 0;
     private PagedArrays arrays;
+    private ValueSlots values;
     private int size = 0; // max size should be MAX - 2
+    private int capacity; // values which fit before resize, arrays have more slots to keep probes short
     private int probingStep;
     private int lastRemovedKey = NO_REMOVED_KEY;
+    private int tombstones; // removed values still occupying slots, gone on resize
+    // previous arrays while their keys are moved to current ones few at a time, null if not resizing
+    private PagedArrays drainedArrays;
+    private ValueSlots drainedValues;
+    private int drainedProbingStep;
+    private int drainedKeys;
+    private int nextDrainedKey;
+    private int lastProbeLength;
+    private long lookupCount;
+    private long probeCount;
+    private final ValueSlice slice = new ValueSlice(); // argument of current call
 
 
     public PooledByteArrayMap(int initialCapacity) {
-        probingStep = probingStepFor(initialCapacity);
-        int capacity = correctCapacityToAvoidLoopingOverSameSlots(probingStep, initialCapacity);
-        createInternalArrays(capacity);
+        this(initialCapacity, ValueStorage.ARRAYS);
+    }
+
+    public PooledByteArrayMap(int initialCapacity, ValueStorage storage) {
+        this(initialCapacity, storage, HashStrategy.ARRAYS_HASH_CODE);
+    }
+
+    public PooledByteArrayMap(int initialCapacity, ValueStorage storage, HashStrategy hashing) {
+        this(initialCapacity, storage, hashing, DEFAULT_MAX_LOAD);
+    }
+
+    // for comparing probe lengths at any load, see RobinHoodPooledByteArrayMapLatencyTest
+    PooledByteArrayMap(int initialCapacity, ValueStorage storage, HashStrategy hashing, double maxLoad) {
+        this.hashing = hashing;
+        this.maxLoad = maxLoad;
+        capacity = initialCapacity;
+        int slots = slotsFor(capacity);
+        probingStep = probingStepFor(slots);
+        slots = correctCapacityToAvoidLoopingOverSameSlots(probingStep, slots);
+        createInternalArrays(slots);
+        values = storage.create(slots);
     }
 
 
+    @Override
     public int put(byte[] value) {
-        if (value == FREE_VALUE) {
+        if (value == null) {
             throw new IllegalArgumentException("Cannot put null into pool");
         }
+        return put(value, 0, value.length);
+    }
 
-        int valueHashCode = calculateHashCode(value);
+    @Override
+    public int put(byte[] buffer, int offset, int length) {
+        return put(slice.of(buffer, offset, length));
+    }
 
-        ensureCapacity(size + 1);
+    /**
+     * Same as {@link #put(byte[])} of {@code length} bytes from absolute {@code offset}, position
+     * and limit of buffer are not changed
+     */
+    public int put(ByteBuffer buffer, int offset, int length) {
+        return put(slice.of(buffer, offset, length));
+    }
 
-        int index = findSlotFor(value, valueHashCode);
+    // for callers which need hash code of value before putting it, see ConcurrentPooledByteArrayMap
+    int put(byte[] buffer, int offset, int length, int valueHashCode) {
+        return put(slice.of(buffer, offset, length), valueHashCode);
+    }
 
-        if (index < 0) {
-            int indexOfExistingItem = -(index + 1);
-            int key = arrays.getKeyByValueIndex(indexOfExistingItem);
-            if (arrays.getUsagesByKey(key) >= Integer.MAX_VALUE) {
-                throw new IllegalStateException("Too many reuses of same byte[] - " + Arrays.toString(value));
-            }
-            arrays.incrementUsagesByKey(key);
-            return key;
-        }
-        else {
-            int key = lastRemovedKey == NO_REMOVED_KEY ? getAndIncrementNewKey() : getLastRemovedKey();
+    /**
+     * @return key of value equal to {@code length} bytes from {@code offset} without changing its
+     * usages, or {@link #NOT_POOLED}
+     */
+    public int find(byte[] buffer, int offset, int length) {
+        return find(slice.of(buffer, offset, length));
+    }
 
-            arrays.setValueIndexByKey(key, index);
-            arrays.setKeyByValueIndex(index, key);
-            arrays.setValueByValueIndex(index, Arrays.copyOf(value, value.length));
-            arrays.setUsagesByKey(key, 1);
-            size++;
-            return key;
-        }
+    /**
+     * @return key of value equal to {@code length} bytes from absolute {@code offset} without
+     * changing its usages, or {@link #NOT_POOLED}
+     */
+    public int find(ByteBuffer buffer, int offset, int length) {
+        return find(slice.of(buffer, offset, length));
     }
 
+    @Override
     public byte @ImmutableByteArray [] get(int key) {
-        if (isFree(key) || isRemoved(key)) {
-            return null;
+        int valueIndex = arrays.getValueIndexByKey(key);
+        if (valueIndex == FREE_KEY && isDrained(key)) { // only reads, so that readers never write
+            int drainedIndex = drainedArrays.getValueIndexByKey(key);
+            return drainedIndex < 0 ? null : drainedValues.get(drainedIndex);
         }
-        else {
+        return valueIndex < 0 ? null : values.get(valueIndex);
+    }
+
+    @Override
+    public boolean contentEquals(int key, byte[] buffer, int offset, int length) {
+        ValueSlice value = slice.of(buffer, offset, length);
+        try {
             int valueIndex = arrays.getValueIndexByKey(key);
-            return arrays.getValueByValueIndex(valueIndex);
+            if (valueIndex == FREE_KEY && isDrained(key)) {
+                int drainedIndex = drainedArrays.getValueIndexByKey(key);
+                return drainedIndex >= 0 && drainedValues.contentEquals(drainedIndex, value);
+            }
+            return valueIndex >= 0 && values.contentEquals(valueIndex, value);
+        }
+        finally {
+            value.clear();
         }
     }
 
+    @Override
     public void free(int key) {
+        if (isDrained(key)) {
+            drainKey(key);
+        }
+        drainSomeKeys();
         if (!(isFree(key) || isRemoved(key))) {
             arrays.decrementUsagesByKey(key);
             if (arrays.getUsagesByKey(key) <= 0) {
                 int valueIndex = arrays.getValueIndexByKey(key);
-                arrays.setValueByValueIndex(valueIndex, REMOVED_VALUE);
+                arrays.setHashCodeByValueIndex(valueIndex, REMOVED_SLOT);
+                values.remove(valueIndex);
                 arrays.setValueIndexByKey(key, lastRemovedKey);
                 lastRemovedKey = -key - 1;
                 size--;
+                tombstones++;
             }
         }
     }
 
+    @Override
     public int size() {
         return size;
     }
 
+    @Override
+    public int capacity() {
+        return capacity;
+    }
+
+    @Override
+    public int tombstones() {
+        return tombstones;
+    }
+
+    @Override
+    public long lookupCount() {
+        return lookupCount;
+    }
+
+    @Override
+    public long probeCount() {
+        return probeCount;
+    }
+
+    /**
+     * @return bytes of freed values still taken in arena, see {@link ValueStorage}
+     */
+    public long wastedValueBytes() {
+        return values.wastedBytes();
+    }
+
+    /**
+     * Packs arena values together, so that bytes of freed ones are given back. Takes time
+     * proportional to size of all values, so it is never done implicitly.
+     */
+    public void compactValues() {
+        drainAllKeys();
+        values.compact();
+    }
+
+    /**
+     * Writes all keys with their values and usages, so that restored pool gives same keys for
+     * same values and references to pooled values stay valid
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        drainAllKeys();
+        out.writeInt(capacity);
+        out.writeInt(keyGenerator);
+        out.writeInt(lastRemovedKey);
+        out.writeInt(size);
+        for (int key = 0; key < keyGenerator; key++) {
+            int valueIndex = arrays.getValueIndexByKey(key);
+            out.writeInt(valueIndex); // negative values of removed keys link them into reuse chain
+            if (valueIndex >= 0) {
+                out.writeInt(arrays.getUsagesByKey(key));
+                writeValue(out, values.get(valueIndex));
+            }
+        }
+    }
+
+    public static PooledByteArrayMap readFrom(DataInput in) throws IOException {
+        return readFrom(in, ValueStorage.ARRAYS);
+    }
+
+    public static PooledByteArrayMap readFrom(DataInput in, ValueStorage storage) throws IOException {
+        return readFrom(in, storage, HashStrategy.ARRAYS_HASH_CODE);
+    }
+
+    /**
+     * Values are hashed again while reading, so snapshot can be restored with other hash strategy
+     * than it was written with
+     */
+    public static PooledByteArrayMap readFrom(DataInput in, ValueStorage storage, HashStrategy hashing) throws IOException {
+        PooledByteArrayMap map = new PooledByteArrayMap(in.readInt(), storage, hashing);
+        map.keyGenerator = in.readInt();
+        map.lastRemovedKey = in.readInt();
+        map.size = in.readInt();
+        for (int key = 0; key < map.keyGenerator; key++) {
+            int valueIndex = in.readInt();
+            if (valueIndex >= 0) {
+                int usages = in.readInt();
+                byte[] value = new byte[in.readInt()];
+                in.readFully(value);
+                int valueHashCode = map.hashing.hash(value);
+                valueIndex = map.findVacantSlotFor(valueHashCode);
+                map.arrays.setKeyByValueIndex(valueIndex, key);
+                map.arrays.setHashCodeByValueIndex(valueIndex, valueHashCode);
+                map.values.set(valueIndex, map.slice.of(value, 0, value.length));
+                map.arrays.setUsagesByKey(key, usages);
+            }
+            map.arrays.setValueIndexByKey(key, valueIndex);
+        }
+        return map;
+    }
+
+
+    /**
+     * @return true while keys are moved from previous arrays after resize
+     */
+    boolean isResizing() {
+        return drainedArrays != null;
+    }
+
+
+    private int put(ValueSlice value) {
+        return put(value, value.hash(hashing));
+    }
+
+    // looks up value before making room for it, so that put of pooled value never resizes
+    private int put(ValueSlice value, int valueHashCode) {
+        try {
+            drainSomeKeys();
+            int index = findSlotFor(value, valueHashCode);
+            if (index >= 0 && drainedArrays != null) {
+                int drainedIndex = findInDrainedArrays(value, valueHashCode);
+                if (drainedIndex >= 0) {
+                    int key = drainedArrays.getKeyByValueIndex(drainedIndex);
+                    drainKey(key);
+                    index = -arrays.getValueIndexByKey(key) - 1;
+                }
+            }
+            lookupCount++;
+            probeCount += lastProbeLength;
+
+            if (index < 0) {
+                int indexOfExistingItem = -(index + 1);
+                int key = arrays.getKeyByValueIndex(indexOfExistingItem);
+                if (arrays.getUsagesByKey(key) >= Integer.MAX_VALUE) {
+                    throw new IllegalStateException("Too many reuses of same byte[] - " + Arrays.toString(value.copy()));
+                }
+                arrays.incrementUsagesByKey(key);
+                return key;
+            }
+            else {
+                if (ensureCapacity(size + 1)) {
+                    drainSomeKeys();
+                    index = findVacantSlotFor(valueHashCode); // value is missing from replaced arrays too
+                }
+                int key = lastRemovedKey == NO_REMOVED_KEY ? getAndIncrementNewKey() : getLastRemovedKey();
+
+                if (arrays.getHashCodeByValueIndex(index) == REMOVED_SLOT) {
+                    tombstones--;
+                }
+                arrays.setValueIndexByKey(key, index);
+                arrays.setKeyByValueIndex(index, key);
+                arrays.setHashCodeByValueIndex(index, valueHashCode);
+                values.set(index, value);
+                arrays.setUsagesByKey(key, 1);
+                size++;
+                return key;
+            }
+        }
+        finally {
+            value.clear();
+        }
+    }
+
+    private int find(ValueSlice value) {
+        try {
+            int valueHashCode = value.hash(hashing);
+            int index = findSlotFor(value, valueHashCode);
+            if (index < 0) {
+                return arrays.getKeyByValueIndex(-index - 1);
+            }
+            if (drainedArrays != null) {
+                int drainedIndex = findInDrainedArrays(value, valueHashCode);
+                if (drainedIndex >= 0) {
+                    return drainedArrays.getKeyByValueIndex(drainedIndex);
+                }
+            }
+            return NOT_POOLED;
+        }
+        finally {
+            value.clear();
+        }
+    }
+
+    // output only reads value
+    @SuppressWarnings("byte.array.weakening")
+    private static void writeValue(DataOutput out, byte @ImmutableByteArray [] value) throws IOException {
+        out.writeInt(value.length);
+        out.write(value);
+    }
 
     private int getLastRemovedKey() {
         int freeKey = -lastRemovedKey - 1;
+        if (isDrained(freeKey)) {
+            drainKey(freeKey);
+        }
         lastRemovedKey = arrays.getValueIndexByKey(freeKey);
         return freeKey;
     }
@@ -108,58 +368,161 @@ public class PooledByteArrayMap {
         arrays = new PagedArrays(capacity);
     }
 
-    private void ensureCapacity(int desiredCapacity) {
-        int currentCapacity = arrays.capacity;
+    /**
+     * @return true if arrays were replaced to make room
+     */
+    private boolean ensureCapacity(int desiredCapacity) {
+        int currentCapacity = capacity;
         if (desiredCapacity <= 0) {
             throw new IllegalStateException("Bad desired capacity, check overflow. Desired: " + desiredCapacity + ", current:" + currentCapacity);
         }
 
-        if (currentCapacity >= desiredCapacity) {
-            return;
+        // removed slots do not end probes, so arrays are also rebuilt without them once they take
+        // slots of free capacity, but not more often than every capacity / 4 frees
+        boolean growing = currentCapacity < desiredCapacity;
+        if (!growing && (desiredCapacity + tombstones <= currentCapacity || tombstones <= currentCapacity / 4)) {
+            return false;
         }
+        drainAllKeys(); // only if growing faster than keys are moved, which increased capacity avoids
 
-        int newCapacity = increasedCapacity(currentCapacity);
-        probingStep = probingStepFor(newCapacity);
-        newCapacity = correctCapacityToAvoidLoopingOverSameSlots(probingStep, newCapacity);
+        if (growing) {
+            capacity = increasedCapacity(currentCapacity);
+        }
+        int slots = slotsFor(capacity);
+        drainedProbingStep = probingStep;
+        probingStep = probingStepFor(slots);
+        slots = correctCapacityToAvoidLoopingOverSameSlots(probingStep, slots);
+
+        drainedArrays = arrays;
+        drainedValues = values;
+        drainedKeys = keyGenerator;
+        nextDrainedKey = 0;
+
+        createInternalArrays(slots);
+        values = drainedValues.emptyCopy(slots);
+        tombstones = 0;
+        return true;
+    }
 
-        PagedArrays oldArrays = arrays;
+    // Resize does not rehash everything at once, instead every put and free moves few keys from
+    // drained arrays, and any key which is used before its turn is moved right away. So key with
+    // FREE_KEY in current arrays, but below drainedKeys, is either not moved yet or was never used.
 
-        createInternalArrays(newCapacity);
+    private boolean isDrained(int key) {
+        return drainedArrays != null && key < drainedKeys && arrays.getValueIndexByKey(key) == FREE_KEY;
+    }
 
-        for (int key = 0; key < oldArrays.capacity; key++) {
-            int valueIndex = oldArrays.getValueIndexByKey(key);
-            if (valueIndex >= 0) { // not free or removed
-                byte[] value = oldArrays.getValueByValueIndex(valueIndex);
+    private void drainSomeKeys() {
+        for (int i = 0; i < KEYS_MOVED_PER_OPERATION && drainedArrays != null; i++) {
+            drainNextKey();
+        }
+    }
 
-                int newValueIndex = findSlotFor(value, calculateHashCode(value));
+    private void drainAllKeys() {
+        while (drainedArrays != null) {
+            drainNextKey();
+        }
+    }
 
-                arrays.setValueIndexByKey(key, newValueIndex);
-                arrays.setKeyByValueIndex(newValueIndex, key);
-                arrays.setValueByValueIndex(newValueIndex, value);
-                arrays.setUsagesByKey(key, oldArrays.getUsagesByKey(key));
-            }
+    private void drainNextKey() {
+        if (isDrained(nextDrainedKey)) {
+            drainKey(nextDrainedKey);
+        }
+        nextDrainedKey++;
+        if (nextDrainedKey >= drainedKeys) {
+            drainedArrays = null;
+            drainedValues = null;
+        }
+    }
+
+    private void drainKey(int key) {
+        int drainedIndex = drainedArrays.getValueIndexByKey(key);
+        if (drainedIndex >= 0) { // not free or removed
+            int valueHashCode = drainedArrays.getHashCodeByValueIndex(drainedIndex);
+            int valueIndex = findVacantSlotFor(valueHashCode);
+
+            arrays.setValueIndexByKey(key, valueIndex);
+            arrays.setKeyByValueIndex(valueIndex, key);
+            arrays.setHashCodeByValueIndex(valueIndex, valueHashCode);
+            drainedArrays.setHashCodeByValueIndex(drainedIndex, REMOVED_SLOT);
+            drainedValues.moveTo(values, drainedIndex, valueIndex);
+            arrays.setUsagesByKey(key, drainedArrays.getUsagesByKey(key));
+        }
+        else {
+            arrays.setValueIndexByKey(key, drainedIndex); // removed keys keep their link in reuse chain
         }
     }
 
-    private int findSlotFor(byte[] value, int valueHashCode) { // TODO: should have separate version of this for rehash without removed and full && equals stuff
+    // Probes compare stored hash codes first and only look at values which have same one. Removed
+    // slots do not end the search, as value may be further along, but first of them is reused.
+
+    private int findSlotFor(ValueSlice value, int valueHashCode) {
         int startingIndex = valueHashCode % arrays.capacity;
+        int firstRemovedIndex = -1;
 
         int i = startingIndex;
+        lastProbeLength = 0;
         do {
-            byte[] existingValue = arrays.getValueByValueIndex(i);
-            if (existingValue == null || existingValue == REMOVED_VALUE) {
-                return i;
+            lastProbeLength++;
+            int slotHashCode = arrays.getHashCodeByValueIndex(i);
+            if (slotHashCode == FREE_SLOT) {
+                return firstRemovedIndex < 0 ? i : firstRemovedIndex;
+            }
+            if (slotHashCode == REMOVED_SLOT) {
+                firstRemovedIndex = firstRemovedIndex < 0 ? i : firstRemovedIndex;
             }
-            if (Arrays.equals(existingValue, value)) {
+            else if (slotHashCode == valueHashCode && values.contentEquals(i, value)) {
                 return -i - 1; // encode existing value as negative number, -1 is necessary because 0 is valid index
             }
             i = incrementIndex(i);
         }
         while (i != startingIndex);
 
+        if (firstRemovedIndex >= 0) {
+            return firstRemovedIndex;
+        }
         throw new IllegalStateException("linear probing should always succeed given enough capacity!");
     }
 
+    // for rehashing values, which are known to be distinct and not in current arrays yet
+    private int findVacantSlotFor(int valueHashCode) {
+        int startingIndex = valueHashCode % arrays.capacity;
+
+        int i = startingIndex;
+        do {
+            if (arrays.getHashCodeByValueIndex(i) < 0) {
+                return i;
+            }
+            i = incrementIndex(i);
+        }
+        while (i != startingIndex);
+
+        throw new IllegalStateException("linear probing should always succeed given enough capacity!");
+    }
+
+    // values moved to current arrays are removed from drained ones
+    private int findInDrainedArrays(ValueSlice value, int valueHashCode) {
+        int capacity = drainedArrays.capacity;
+        int startingIndex = valueHashCode % capacity;
+
+        int i = startingIndex;
+        do {
+            lastProbeLength++;
+            int slotHashCode = drainedArrays.getHashCodeByValueIndex(i);
+            if (slotHashCode == FREE_SLOT) {
+                return -1;
+            }
+            if (slotHashCode == valueHashCode && drainedValues.contentEquals(i, value)) {
+                return i;
+            }
+            i += drainedProbingStep;
+            i = i >= capacity ? i - capacity : i;
+        }
+        while (i != startingIndex);
+
+        return -1;
+    }
+
     private int incrementIndex(int index) {
         index += probingStep;
         return index >= arrays.capacity ? index - arrays.capacity : index;
@@ -180,10 +543,9 @@ public class PooledByteArrayMap {
         return arrays.getValueIndexByKey(index) < 0 && arrays.getValueIndexByKey(index) != FREE_KEY;
     }
 
-    private static int calculateHashCode(byte[] value) {
-        int hashCode = Arrays.hashCode(value);
-        hashCode = hashCode ^ (hashCode >>> 16);
-        return hashCode & HASHCODE_MASK;
+    // hash code to pass into put(byte[], int, int, int), so that it is only calculated once
+    int hash(byte[] buffer, int offset, int length) {
+        return hashing.hash(buffer, offset, length);
     }
 
     private static int probingStepFor(int capacity) {
@@ -196,6 +558,12 @@ public class PooledByteArrayMap {
         return 1; // never executed as last of PROBING_STEPS is 1 and capacity must be at least 1
     }
 
+    // free slots also bound searches in drained arrays while resizing, and there is at least one
+    // more slot than capacity, so that lookup done before resize of full map ends too
+    private int slotsFor(int capacity) {
+        return (int) Math.min(Math.max((long) (capacity / maxLoad), capacity + 1L), Integer.MAX_VALUE - 2);
+    }
+
     private static int increasedCapacity(int currentCapacity) {
         // double until chunk (4096 ¬ 16K) worth of references
         if (currentCapacity < CAPACITY_INCREMENT) {
@@ -205,13 +573,14 @@ public class PooledByteArrayMap {
         if (currentCapacity > Integer.MAX_VALUE - 2 - CAPACITY_INCREMENT) {
             return Integer.MAX_VALUE - 2;
         }
-        // round up until whole increment of a chunk
-        int mod = currentCapacity % CAPACITY_INCREMENT;
+        // grow by half, so that keys are moved few at a time before it is used up, rounded up
+        // until whole increment of a chunk
+        long increasedCapacity = (long) currentCapacity + currentCapacity / 2;
+        long mod = increasedCapacity % CAPACITY_INCREMENT;
         if (mod != 0) {
-            return currentCapacity + CAPACITY_INCREMENT - mod;
+            increasedCapacity += CAPACITY_INCREMENT - mod;
         }
-        // add another chunk on top
-        return currentCapacity + CAPACITY_INCREMENT;
+        return (int) Math.min(increasedCapacity, Integer.MAX_VALUE - 2);
     }
 
     private static int correctCapacityToAvoidLoopingOverSameSlots(final int probingStep, final int capacity) {
@@ -223,7 +592,7 @@ public class PooledByteArrayMap {
 
     private static final class PagedArrays {
 
-        private static final int PAGE_SIZE = 8192;
+        private static final int PAGE_SIZE = ValueSlots.PAGE_SIZE;
         private final int[] pageSizes;
         private final Page[] pages;
         private final int capacity;
@@ -248,7 +617,8 @@ public class PooledByteArrayMap {
 
 
         int getValueIndexByKey(int key) {
-            return pageForIndex(key).valueIndexesByKey[indexWithinPage(key)];
+            Page page = existingPageForIndex(key);
+            return page == null ? FREE_KEY : page.valueIndexesByKey[indexWithinPage(key)];
         }
 
         public void setValueIndexByKey(int key, int valueIndex) {
@@ -263,16 +633,18 @@ public class PooledByteArrayMap {
             pageForIndex(valueIndex).keysByValueIndex[indexWithinPage(valueIndex)] = key;
         }
 
-        byte[] getValueByValueIndex(int valueIndex) {
-            return pageForIndex(valueIndex).values[indexWithinPage(valueIndex)];
+        int getHashCodeByValueIndex(int valueIndex) {
+            Page page = existingPageForIndex(valueIndex);
+            return page == null ? FREE_SLOT : page.hashCodesByValueIndex[indexWithinPage(valueIndex)];
         }
 
-        public void setValueByValueIndex(int valueIndex, byte[] value) {
-            pageForIndex(valueIndex).values[indexWithinPage(valueIndex)] = value;
+        void setHashCodeByValueIndex(int valueIndex, int hashCode) {
+            pageForIndex(valueIndex).hashCodesByValueIndex[indexWithinPage(valueIndex)] = hashCode;
         }
 
         public int getUsagesByKey(int key) {
-            return pageForIndex(key).usages[indexWithinPage(key)];
+            Page page = existingPageForIndex(key);
+            return page == null ? 0 : page.usages[indexWithinPage(key)];
         }
 
         public void setUsagesByKey(int key, int usages) {
@@ -288,6 +660,12 @@ public class PooledByteArrayMap {
         }
 
 
+        // lookups never create pages, so that readers never write, see ConcurrentPooledByteArrayMap,
+        // and lookups of missing values do not allocate
+        private Page existingPageForIndex(int index) {
+            return pages[index / PAGE_SIZE];
+        }
+
         private Page pageForIndex(int index) {
             int pageIndex = index / PAGE_SIZE;
             if (pages[pageIndex] == null) {
@@ -310,15 +688,17 @@ public class PooledByteArrayMap {
             private final int[] valueIndexesByKey;
             // index = value slot, cell = key
             private final int[] keysByValueIndex;
-            private final byte[][] values;
+            // index = value slot, cell = hash code of value, or FREE_SLOT or REMOVED_SLOT
+            private final int[] hashCodesByValueIndex;
             private final int[] usages;
 
             Page(int capacity) {
                 valueIndexesByKey = new int[capacity];
                 keysByValueIndex = new int[capacity];
-                values = new byte[capacity][];
                 usages = new int[capacity];
+                hashCodesByValueIndex = new int[capacity];
                 Arrays.fill(valueIndexesByKey, FREE_KEY);
+                Arrays.fill(hashCodesByValueIndex, FREE_SLOT);
             }
         }
     }
@@ -0,0 +1,309 @@
+package com.romanmarkunas.blog.memory.example15;
+
+import com.romanmarkunas.blog.memory.example14.HashStrategy;
+import com.romanmarkunas.blog.memory.example14.checkers.ImmutableByteArray;
+
+import java.util.Arrays;
+
+/**
+ * Same pool as {@link PooledByteArrayMap}, but values are kept in Robin Hood hash table. Value is
+ * probed linearly from slot picked by lowest bits of its hash code, and it takes place of first
+ * value which is closer to its own starting slot, moving rest of run one slot forward. So every run
+ * of taken slots is ordered by starting slots of values, and probe stops as soon as it reaches
+ * value which starts after probed one. Probes only walk neighbouring slots, so they touch few cache
+ * lines of stored hash codes, and they stay short up to high load.
+ * <p>
+ * Free moves following values of run one slot back instead of marking slot as removed, so there
+ * are no tombstones. Resize moves all values at once, using stored hash codes.
+ */
+public class RobinHoodPooledByteArrayMap implements ByteArrayPool {
+
+    private static final double DEFAULT_MAX_LOAD = 0.875;
+    private static final int MIN_SLOTS = 8;
+    private static final int MAX_SLOTS = 1 << 30;
+
+    private static final int NO_REMOVED_KEY = Integer.MIN_VALUE + 1;
+    // hash codes are never negative
+    private static final int FREE_SLOT = -1;
+
+    private final HashStrategy hashing;
+    private final double maxLoad;
+    private int[] hashCodesBySlot; // index = slot, cell = hash code of value or FREE_SLOT
+    private int[] keysBySlot;
+    private ValueSlots values;
+    private int slotMask;
+    private int[] slotsByKey; // index = key, cell = slot, or negative link into removed key reuse chain same as in PooledByteArrayMap
+    private int[] usagesByKey;
+    private int keyGenerator = 0;
+    private int lastRemovedKey = NO_REMOVED_KEY;
+    private int size = 0;
+    private int capacity; // values which fit before resize
+    private int lastProbeLength;
+    private long lookupCount;
+    private long probeCount;
+    private final ValueSlice slice = new ValueSlice(); // argument of current call
+
+
+    public RobinHoodPooledByteArrayMap(int initialCapacity) {
+        this(initialCapacity, ValueStorage.ARRAYS, HashStrategy.ARRAYS_HASH_CODE);
+    }
+
+    public RobinHoodPooledByteArrayMap(int initialCapacity, ValueStorage storage, HashStrategy hashing) {
+        this(initialCapacity, storage, hashing, DEFAULT_MAX_LOAD);
+    }
+
+    // for comparing probe lengths at any load, see RobinHoodPooledByteArrayMapLatencyTest
+    RobinHoodPooledByteArrayMap(int initialCapacity, ValueStorage storage, HashStrategy hashing, double maxLoad) {
+        if (maxLoad <= 0 || maxLoad >= 1) {
+            throw new IllegalArgumentException("Max load must be between 0 and 1, got " + maxLoad);
+        }
+        this.hashing = hashing;
+        this.maxLoad = maxLoad;
+        int slots = slotsFor(initialCapacity);
+        createInternalArrays(slots);
+        values = storage.create(slots);
+        slotsByKey = new int[capacity];
+        usagesByKey = new int[capacity];
+    }
+
+
+    @Override
+    public int put(byte[] value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Cannot put null into pool");
+        }
+        return put(value, 0, value.length);
+    }
+
+    @Override
+    public int put(byte[] buffer, int offset, int length) {
+        ValueSlice value = slice.of(buffer, offset, length);
+        int valueHashCode = value.hash(hashing);
+        int slot = findSlotFor(value, valueHashCode);
+        slice.clear();
+        lookupCount++;
+        probeCount += lastProbeLength;
+
+        if (slot < 0) {
+            int key = keysBySlot[-slot - 1];
+            if (usagesByKey[key] >= Integer.MAX_VALUE) {
+                throw new IllegalStateException("Too many reuses of same byte[] - " + Arrays.toString(Arrays.copyOfRange(buffer, offset, offset + length)));
+            }
+            usagesByKey[key]++;
+            return key;
+        }
+        else {
+            if (ensureCapacity(size + 1)) {
+                slot = findVacantSlotFor(valueHashCode); // value is missing from replaced arrays too
+            }
+            int key = lastRemovedKey == NO_REMOVED_KEY ? getAndIncrementNewKey() : getLastRemovedKey();
+
+            moveRunForward(slot);
+            hashCodesBySlot[slot] = valueHashCode;
+            keysBySlot[slot] = key;
+            values.set(slot, slice.of(buffer, offset, length));
+            slice.clear();
+            slotsByKey[key] = slot;
+            usagesByKey[key] = 1;
+            size++;
+            return key;
+        }
+    }
+
+    @Override
+    public byte @ImmutableByteArray [] get(int key) {
+        if (!isUsed(key)) {
+            return null;
+        }
+        return values.get(slotsByKey[key]);
+    }
+
+    @Override
+    public boolean contentEquals(int key, byte[] buffer, int offset, int length) {
+        if (!isUsed(key)) {
+            return false;
+        }
+        boolean equal = values.contentEquals(slotsByKey[key], slice.of(buffer, offset, length));
+        slice.clear();
+        return equal;
+    }
+
+    @Override
+    public void free(int key) {
+        if (!isUsed(key)) {
+            return;
+        }
+        usagesByKey[key]--;
+        if (usagesByKey[key] > 0) {
+            return;
+        }
+
+        int slot = slotsByKey[key];
+        values.remove(slot);
+        hashCodesBySlot[slot] = FREE_SLOT;
+        // values which are not in their starting slot move back, run ends at free slot or at value in its starting slot
+        int nextSlot = (slot + 1) & slotMask;
+        while (hashCodesBySlot[nextSlot] != FREE_SLOT && distanceFromStartingSlot(nextSlot) > 0) {
+            moveSlot(nextSlot, slot);
+            slot = nextSlot;
+            nextSlot = (nextSlot + 1) & slotMask;
+        }
+
+        slotsByKey[key] = lastRemovedKey;
+        lastRemovedKey = -key - 1;
+        size--;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return always 0, as free moves values back instead of leaving tombstones
+     */
+    @Override
+    public int tombstones() {
+        return 0;
+    }
+
+    @Override
+    public long lookupCount() {
+        return lookupCount;
+    }
+
+    @Override
+    public long probeCount() {
+        return probeCount;
+    }
+
+
+    private boolean isUsed(int key) {
+        return key >= 0 && key < keyGenerator && slotsByKey[key] >= 0;
+    }
+
+    private int getAndIncrementNewKey() {
+        if (keyGenerator >= Integer.MAX_VALUE - 2) {
+            throw new IllegalArgumentException("Too many objects submitted for pooling - cannot guarantee operation");
+        }
+        return keyGenerator++;
+    }
+
+    private int getLastRemovedKey() {
+        int freeKey = -lastRemovedKey - 1;
+        lastRemovedKey = slotsByKey[freeKey];
+        return freeKey;
+    }
+
+    private void createInternalArrays(int slots) {
+        hashCodesBySlot = new int[slots];
+        keysBySlot = new int[slots];
+        Arrays.fill(hashCodesBySlot, FREE_SLOT);
+        slotMask = slots - 1;
+        capacity = Math.min((int) (slots * maxLoad), slots - 1); // at least one free slot ends every probe
+    }
+
+    /**
+     * @return true if arrays were replaced to make room
+     */
+    private boolean ensureCapacity(int desiredCapacity) {
+        if (desiredCapacity <= capacity) {
+            return false;
+        }
+        int slots = hashCodesBySlot.length;
+        if (slots >= MAX_SLOTS) {
+            throw new IllegalStateException("Cannot grow beyond " + MAX_SLOTS + " slots, desired capacity: " + desiredCapacity);
+        }
+
+        int[] oldHashCodesBySlot = hashCodesBySlot;
+        int[] oldKeysBySlot = keysBySlot;
+        ValueSlots oldValues = values;
+
+        createInternalArrays(slots * 2);
+        values = oldValues.emptyCopy(slots * 2);
+        slotsByKey = Arrays.copyOf(slotsByKey, capacity); // keys are reused before new ones, so there are never more than capacity
+        usagesByKey = Arrays.copyOf(usagesByKey, capacity);
+
+        for (int oldSlot = 0; oldSlot < slots; oldSlot++) {
+            int valueHashCode = oldHashCodesBySlot[oldSlot];
+            if (valueHashCode != FREE_SLOT) {
+                int key = oldKeysBySlot[oldSlot];
+                int slot = findVacantSlotFor(valueHashCode);
+                moveRunForward(slot);
+                hashCodesBySlot[slot] = valueHashCode;
+                keysBySlot[slot] = key;
+                oldValues.moveTo(values, oldSlot, slot);
+                slotsByKey[key] = slot;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return slot of equal value encoded as {@code -slot - 1}, or slot to put value into
+     */
+    private int findSlotFor(ValueSlice value, int valueHashCode) {
+        int slot = valueHashCode & slotMask;
+        for (int distance = 0; ; distance++) {
+            lastProbeLength = distance + 1;
+            int slotHashCode = hashCodesBySlot[slot];
+            if (slotHashCode == FREE_SLOT || distanceFromStartingSlot(slot) < distance) {
+                return slot;
+            }
+            if (slotHashCode == valueHashCode && values.contentEquals(slot, value)) {
+                return -slot - 1;
+            }
+            slot = (slot + 1) & slotMask;
+        }
+    }
+
+    // for rehashing values, which are known to be distinct
+    private int findVacantSlotFor(int valueHashCode) {
+        int slot = valueHashCode & slotMask;
+        for (int distance = 0; ; distance++) {
+            if (hashCodesBySlot[slot] == FREE_SLOT || distanceFromStartingSlot(slot) < distance) {
+                return slot;
+            }
+            slot = (slot + 1) & slotMask;
+        }
+    }
+
+    // frees slot for new value by moving it and following values of run one slot forward
+    private void moveRunForward(int slot) {
+        int freeSlot = slot;
+        while (hashCodesBySlot[freeSlot] != FREE_SLOT) {
+            freeSlot = (freeSlot + 1) & slotMask;
+        }
+        while (freeSlot != slot) {
+            int previousSlot = (freeSlot - 1) & slotMask;
+            moveSlot(previousSlot, freeSlot);
+            freeSlot = previousSlot;
+        }
+    }
+
+    private void moveSlot(int slot, int targetSlot) {
+        int key = keysBySlot[slot];
+        hashCodesBySlot[targetSlot] = hashCodesBySlot[slot];
+        keysBySlot[targetSlot] = key;
+        values.moveTo(values, slot, targetSlot);
+        slotsByKey[key] = targetSlot;
+        hashCodesBySlot[slot] = FREE_SLOT;
+    }
+
+    private int distanceFromStartingSlot(int slot) {
+        return (slot - (hashCodesBySlot[slot] & slotMask)) & slotMask;
+    }
+
+    private int slotsFor(int capacity) {
+        long slots = MIN_SLOTS;
+        while (slots < MAX_SLOTS && (long) (slots * maxLoad) < capacity) {
+            slots *= 2;
+        }
+        return (int) slots;
+    }
+}
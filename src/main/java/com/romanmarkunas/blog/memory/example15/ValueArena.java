@@ -0,0 +1,157 @@
+package com.romanmarkunas.blog.memory.example15;
+
+import org.agrona.UnsafeAccess;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Append only memory for pooled values. Every value is written as its length in 7 bit groups,
+ * low ones first and high bit set if more follow, and then its bytes. Value is addressed by
+ * chunk number in upper and position within chunk in lower 32 bits of a long.
+ * <p>
+ * Freed values are only accounted for, their bytes are reused by copying live values into new
+ * arena, see {@link ArenaValueSlots#compact()}.
+ */
+final class ValueArena {
+
+    static final int CHUNK_SIZE = 1 << 20;
+
+    private final boolean direct;
+
+    private ByteBuffer[] chunks = new ByteBuffer[4];
+    private int chunkCount;
+    private long freedBytes;
+
+
+    ValueArena(boolean direct) {
+        this.direct = direct;
+    }
+
+
+    long append(ValueSlice value) {
+        ByteBuffer chunk = chunkFor(lengthSize(value.length()) + value.length());
+        long address = address(chunkCount - 1, chunk.position());
+        writeLength(chunk, value.length());
+        value.copyTo(chunk);
+        return address;
+    }
+
+    long appendCopy(ValueArena source, long address) {
+        ByteBuffer sourceChunk = source.chunkOf(address);
+        int position = positionOf(address);
+        int size = source.recordSize(sourceChunk, position);
+
+        ByteBuffer chunk = chunkFor(size);
+        long copyAddress = address(chunkCount - 1, chunk.position());
+        for (int i = 0; i < size; i++) {
+            chunk.put(sourceChunk.get(position + i));
+        }
+        return copyAddress;
+    }
+
+    byte[] copy(long address) {
+        ByteBuffer chunk = chunkOf(address);
+        int position = positionOf(address);
+        byte[] value = new byte[readLength(chunk, position)];
+        int start = position + lengthSize(value.length);
+        for (int i = 0; i < value.length; i++) {
+            value[i] = chunk.get(start + i);
+        }
+        return value;
+    }
+
+    boolean contentEquals(long address, ValueSlice value) {
+        ByteBuffer chunk = chunkOf(address);
+        int position = positionOf(address);
+        if (readLength(chunk, position) != value.length()) {
+            return false;
+        }
+        return value.contentEquals(chunk, position + lengthSize(value.length()));
+    }
+
+    void free(long address) {
+        freedBytes += recordSize(chunkOf(address), positionOf(address));
+    }
+
+    long wastedBytes() {
+        return freedBytes;
+    }
+
+    ValueArena emptyCopy() {
+        return new ValueArena(direct);
+    }
+
+    /**
+     * Gives native memory back without waiting for GC, arena must not be used afterwards
+     */
+    void release() {
+        if (direct) {
+            for (int i = 0; i < chunkCount; i++) {
+                UnsafeAccess.UNSAFE.invokeCleaner(chunks[i]);
+            }
+        }
+        Arrays.fill(chunks, null);
+        chunkCount = 0;
+    }
+
+
+    private ByteBuffer chunkFor(int size) {
+        ByteBuffer chunk = chunkCount == 0 ? null : chunks[chunkCount - 1];
+        if (chunk == null || chunk.remaining() < size) {
+            int capacity = Math.max(CHUNK_SIZE, size); // values bigger than chunk get chunk of their own
+            chunk = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+            if (chunkCount == chunks.length) {
+                chunks = Arrays.copyOf(chunks, chunks.length * 2);
+            }
+            chunks[chunkCount++] = chunk;
+        }
+        return chunk;
+    }
+
+    private ByteBuffer chunkOf(long address) {
+        return chunks[(int) (address >>> 32)];
+    }
+
+    private int recordSize(ByteBuffer chunk, int position) {
+        int length = readLength(chunk, position);
+        return lengthSize(length) + length;
+    }
+
+    private static long address(int chunk, int position) {
+        return ((long) chunk << 32) | position;
+    }
+
+    private static int positionOf(long address) {
+        return (int) address;
+    }
+
+    private static int lengthSize(int length) {
+        int size = 1;
+        while ((length >>>= 7) != 0) {
+            size++;
+        }
+        return size;
+    }
+
+    private static void writeLength(ByteBuffer chunk, int length) {
+        while ((length & ~0x7F) != 0) {
+            chunk.put((byte) ((length & 0x7F) | 0x80));
+            length >>>= 7;
+        }
+        chunk.put((byte) length);
+    }
+
+    private static int readLength(ByteBuffer chunk, int position) {
+        int length = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = chunk.get(position++);
+            length |= (b & 0x7F) << shift;
+            shift += 7;
+        }
+        while (b < 0);
+        return length;
+    }
+}
@@ -0,0 +1,113 @@
+package com.romanmarkunas.blog.memory.example15;
+
+import com.romanmarkunas.blog.memory.example14.HashStrategy;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Value which is looked up or put into pool, given as part of array or of byte buffer, so that
+ * callers need no array of exact size. Pool keeps one slice and points it to argument of every
+ * call, so lookups do not allocate, and bytes are only copied once value is stored.
+ * <p>
+ * Heap buffers are read through their array, others by absolute gets up to limit, position and
+ * limit of buffer are never changed.
+ */
+final class ValueSlice {
+
+    private byte[] array;
+    private ByteBuffer buffer;
+    private int offset;
+    private int length;
+
+
+    ValueSlice of(byte[] array, int offset, int length) {
+        Objects.checkFromIndexSize(offset, length, array.length);
+        this.array = array;
+        this.buffer = null;
+        this.offset = offset;
+        this.length = length;
+        return this;
+    }
+
+    ValueSlice of(ByteBuffer buffer, int offset, int length) {
+        Objects.checkFromIndexSize(offset, length, buffer.limit());
+        if (buffer.hasArray()) {
+            return of(buffer.array(), buffer.arrayOffset() + offset, length);
+        }
+        this.array = null;
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+        return this;
+    }
+
+    /**
+     * Drops reference to array or buffer of last call, so that pool does not keep it reachable
+     */
+    void clear() {
+        array = null;
+        buffer = null;
+    }
+
+    int length() {
+        return length;
+    }
+
+    int hash(HashStrategy hashing) {
+        return array != null ? hashing.hash(array, offset, length) : hashing.hash(buffer, offset, length);
+    }
+
+    boolean contentEquals(byte[] value) {
+        if (array != null) {
+            return Arrays.equals(array, offset, offset + length, value, 0, value.length);
+        }
+        if (value.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(offset + i) != value[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if {@link #length()} bytes of {@code other} from absolute {@code start} are same
+     */
+    boolean contentEquals(ByteBuffer other, int start) {
+        for (int i = 0; i < length; i++) {
+            byte b = array != null ? array[offset + i] : buffer.get(offset + i);
+            if (other.get(start + i) != b) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    byte[] copy() {
+        if (array != null) {
+            return Arrays.copyOfRange(array, offset, offset + length);
+        }
+        byte[] copy = new byte[length];
+        for (int i = 0; i < length; i++) {
+            copy[i] = buffer.get(offset + i);
+        }
+        return copy;
+    }
+
+    /**
+     * Puts bytes at position of {@code target}, moving it past them
+     */
+    void copyTo(ByteBuffer target) {
+        if (array != null) {
+            target.put(array, offset, length);
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            target.put(buffer.get(offset + i));
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.romanmarkunas.blog.memory.example15;
+
+import com.romanmarkunas.blog.memory.example14.checkers.ImmutableByteArray;
+
+/**
+ * Values of {@link PooledByteArrayMap} and {@link RobinHoodPooledByteArrayMap} by slot, which
+ * slots hold a value is tracked by map itself. Slots are split into pages, which are only created
+ * once something is written to them, reads never create them.
+ */
+interface ValueSlots {
+
+    int PAGE_SIZE = 8192;
+
+
+    byte @ImmutableByteArray [] get(int index);
+
+    boolean contentEquals(int index, ValueSlice value);
+
+    /**
+     * Puts copy of {@code value} into slot without value
+     */
+    void set(int index, ValueSlice value);
+
+    void remove(int index);
+
+    /**
+     * Moves value without copying it into {@code target}, which must be these slots or created by
+     * {@link #emptyCopy(int)} of them. Slot it is moved from is left without value.
+     */
+    void moveTo(ValueSlots target, int index, int targetIndex);
+
+    /**
+     * @return free slots of same storage, sharing its memory for values
+     */
+    ValueSlots emptyCopy(int capacity);
+
+    /**
+     * @return bytes taken by removed values, which are given back only by {@link #compact()}
+     */
+    default long wastedBytes() {
+        return 0;
+    }
+
+    default void compact() {
+        // nothing to do if every value is separate object
+    }
+}
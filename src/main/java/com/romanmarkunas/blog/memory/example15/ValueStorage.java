@@ -0,0 +1,39 @@
+package com.romanmarkunas.blog.memory.example15;
+
+/**
+ * Where {@link PooledByteArrayMap} keeps pooled values:
+ * <ul>
+ *     <li>{@link #ARRAYS} - every value is its own byte[], which costs object header and reference on top of payload</li>
+ *     <li>{@link #HEAP_ARENA} - values are packed one after another with length prefix into large heap buffers</li>
+ *     <li>{@link #DIRECT_ARENA} - same as above, but in native memory outside of heap</li>
+ * </ul>
+ * Arena values are addressed by offset, so GC only sees a few large buffers no matter how many
+ * values are pooled, but {@link PooledByteArrayMap#get(int)} has to return copies of them. Freed
+ * values leave holes in arena until {@link PooledByteArrayMap#compactValues()}.
+ */
+public enum ValueStorage {
+
+    ARRAYS {
+        @Override
+        ValueSlots create(int capacity) {
+            return new ArrayValueSlots(capacity);
+        }
+    },
+
+    HEAP_ARENA {
+        @Override
+        ValueSlots create(int capacity) {
+            return new ArenaValueSlots(capacity, new ValueArena(false));
+        }
+    },
+
+    DIRECT_ARENA {
+        @Override
+        ValueSlots create(int capacity) {
+            return new ArenaValueSlots(capacity, new ValueArena(true));
+        }
+    };
+
+
+    abstract ValueSlots create(int capacity);
+}
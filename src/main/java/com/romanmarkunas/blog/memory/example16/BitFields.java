@@ -0,0 +1,58 @@
+package com.romanmarkunas.blog.memory.example16;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads and writes bit packed fields of records generated from layouts with
+ * {@link com.romanmarkunas.blog.memory.example16.records.Bits} declarations. Each field is accessed
+ * through a window of 1, 2, 4 or 8 bytes that fully contains it, so every access is a single
+ * buffer read, plus a write for setters. Window bytes are big endian, same as rest of the buffer,
+ * and field sits {@code shift} bits above the lowest bit of the window. Windows are read and written
+ * through {@link SlabAccess#SELECTED}, same as aligned fields, whose plain access modes all allow
+ * unaligned windows.
+ * <p>
+ * All arguments except buffer and index are constants in generated code, so JIT folds the switch.
+ */
+public final class BitFields {
+
+    private static final SlabAccess ACCESS = SlabAccess.SELECTED;
+
+
+    private BitFields() {}
+
+
+    public static long read(ByteBuffer buffer, int index, int windowBytes, int shift, long mask) {
+        return (readWindow(buffer, index, windowBytes) >>> shift) & mask;
+    }
+
+    public static void write(ByteBuffer buffer, int index, int windowBytes, int shift, long mask, long value) {
+        long window = readWindow(buffer, index, windowBytes) & ~(mask << shift) | (value & mask) << shift;
+        switch (windowBytes) {
+            case Long.BYTES:
+                ACCESS.putLong(buffer, index, window);
+                break;
+            case Integer.BYTES:
+                ACCESS.putInt(buffer, index, (int) window);
+                break;
+            case Short.BYTES:
+                ACCESS.putShort(buffer, index, (short) window);
+                break;
+            default:
+                ACCESS.putByte(buffer, index, (byte) window);
+        }
+    }
+
+
+    private static long readWindow(ByteBuffer buffer, int index, int windowBytes) {
+        switch (windowBytes) {
+            case Long.BYTES:
+                return ACCESS.getLong(buffer, index);
+            case Integer.BYTES:
+                return Integer.toUnsignedLong(ACCESS.getInt(buffer, index));
+            case Short.BYTES:
+                return Short.toUnsignedLong(ACCESS.getShort(buffer, index));
+            default:
+                return Byte.toUnsignedLong(ACCESS.getByte(buffer, index));
+        }
+    }
+}
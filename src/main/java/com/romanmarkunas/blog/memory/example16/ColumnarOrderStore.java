@@ -0,0 +1,163 @@
+package com.romanmarkunas.blog.memory.example16;
+
+import com.romanmarkunas.blog.memory.example15.ByteArrayPool;
+
+import java.util.Arrays;
+
+/**
+ * Column oriented alternative to {@link OrderSlabAllocator}: each order field lives in its own
+ * primitive array, so a scan over one or two fields, e.g. summing {@code pricePence * count},
+ * only pulls those columns through the cache instead of whole 48 byte records.
+ * <p>
+ * Columns are split into fixed size pages, so growing the store never copies existing data.
+ * Free slots are tracked in a bitmap per page and lowest free key is always allocated first,
+ * keeping live orders dense at the start of each column. Emptied pages are kept for reuse.
+ * <p>
+ * Key of an order is its index in columns, so scans can walk keys from 0 to {@link #keyLimit()}
+ * and read only needed columns with {@code xxxOf(key)} accessors, skipping free keys with
+ * {@link #isLive(int)}.
+ */
+public class ColumnarOrderStore {
+
+    static final int PAGE_SIZE = 8192;
+    private static final int PAGE_SHIFT = Integer.numberOfTrailingZeros(PAGE_SIZE);
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private final ColumnarOrderView view;
+
+    private Page[] pages = new Page[16];
+    private int pageCount;
+    private int firstPageWithFreeSlots; // all pages before this one are known to be full
+    private int size;
+
+
+    public ColumnarOrderStore(ByteArrayPool pool) {
+        this.view = new ColumnarOrderView(pool);
+    }
+
+
+    public int allocate() {
+        int pageIndex = firstPageWithFreeSlots;
+        while (pageIndex < pageCount && pages[pageIndex].freeSlotCount == 0) {
+            pageIndex++;
+        }
+        if (pageIndex == pageCount) {
+            addPage();
+        }
+        firstPageWithFreeSlots = pageIndex;
+        size++;
+        return (pageIndex << PAGE_SHIFT) + pages[pageIndex].putIntoFirstFree();
+    }
+
+    public ColumnarOrderView get(int key) {
+        return view.wrap(pages[key >>> PAGE_SHIFT], key & PAGE_MASK);
+    }
+
+    public void free(int key) {
+        int pageIndex = key >>> PAGE_SHIFT;
+        if (pageIndex >= pageCount || !isLive(key)) {
+            throw new IllegalStateException("Freeing again @ key [" + key + "]");
+        }
+        pages[pageIndex].free(key & PAGE_MASK);
+        size--;
+        if (pageIndex < firstPageWithFreeSlots) {
+            firstPageWithFreeSlots = pageIndex;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return upper bound (exclusive) of keys that were ever allocated
+     */
+    public int keyLimit() {
+        return pageCount << PAGE_SHIFT;
+    }
+
+    public boolean isLive(int key) {
+        return !pages[key >>> PAGE_SHIFT].isFree(key & PAGE_MASK);
+    }
+
+    public long idOf(int key) {
+        return pages[key >>> PAGE_SHIFT].ids[key & PAGE_MASK];
+    }
+
+    public int userPoolKeyOf(int key) {
+        return pages[key >>> PAGE_SHIFT].users[key & PAGE_MASK];
+    }
+
+    public int articleNrOf(int key) {
+        return pages[key >>> PAGE_SHIFT].articleNrs[key & PAGE_MASK];
+    }
+
+    public int countOf(int key) {
+        return pages[key >>> PAGE_SHIFT].counts[key & PAGE_MASK];
+    }
+
+    public int pricePenceOf(int key) {
+        return pages[key >>> PAGE_SHIFT].pricePences[key & PAGE_MASK];
+    }
+
+
+    private void addPage() {
+        if (pageCount == pages.length) {
+            pages = Arrays.copyOf(pages, pages.length * 2);
+        }
+        pages[pageCount++] = new Page();
+    }
+
+
+    static final class Page {
+
+        final long[] ids = new long[PAGE_SIZE];
+        final int[] users = new int[PAGE_SIZE];
+        final int[] articleNrs = new int[PAGE_SIZE];
+        final int[] counts = new int[PAGE_SIZE];
+        final int[] pricePences = new int[PAGE_SIZE];
+        final int[] addressNumbers = new int[PAGE_SIZE];
+        final int[] addressStreets = new int[PAGE_SIZE];
+        final int[] addressCities = new int[PAGE_SIZE];
+        final int[] addressRegions = new int[PAGE_SIZE];
+        final int[] addressPostCodes = new int[PAGE_SIZE];
+        // bit set = slot is free, same as in slabs
+        private final long[] freeSlots = new long[PAGE_SIZE / Long.SIZE];
+
+        private int freeSlotCount = PAGE_SIZE;
+        private int firstWordWithFreeSlots;
+
+
+        Page() {
+            Arrays.fill(freeSlots, -1L);
+        }
+
+
+        int putIntoFirstFree() {
+            int word = firstWordWithFreeSlots;
+            while (freeSlots[word] == 0) {
+                word++;
+            }
+            firstWordWithFreeSlots = word;
+
+            long bits = freeSlots[word];
+            freeSlots[word] = bits & (bits - 1); // clear lowest set bit
+            freeSlotCount--;
+
+            return (word << 6) + Long.numberOfTrailingZeros(bits);
+        }
+
+        void free(int index) {
+            int word = index >>> 6;
+            freeSlots[word] |= 1L << index;
+            freeSlotCount++;
+            if (word < firstWordWithFreeSlots) {
+                firstWordWithFreeSlots = word;
+            }
+        }
+
+        boolean isFree(int index) {
+            return (freeSlots[index >>> 6] & (1L << index)) != 0;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.romanmarkunas.blog.memory.example16;
+
+import com.romanmarkunas.blog.memory.example15.ByteArrayPool;
+import com.romanmarkunas.blog.memory.example14.checkers.ImmutableByteArray;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Same as {@link OrderView}, but reads and writes order fields in columns of {@link ColumnarOrderStore}
+ */
+public final class ColumnarOrderView {
+
+    private final ByteArrayPool byteArrayPool;
+
+    private ColumnarOrderStore.Page page;
+    private int index;
+
+
+    ColumnarOrderView(ByteArrayPool byteArrayPool) {
+        this.byteArrayPool = byteArrayPool;
+    }
+
+    ColumnarOrderView wrap(ColumnarOrderStore.Page page, int index) {
+        this.page = page;
+        this.index = index;
+        return this;
+    }
+
+    public ColumnarOrderView set(
+            long id,
+            byte[] user,
+            int articleNr,
+            int count,
+            int pricePence,
+            String addressNumber,
+            String addressStreet,
+            String addressCity,
+            String addressRegion,
+            String addressPostCode
+    ) {
+        page.ids[index] = id;
+        page.users[index] = byteArrayPool.put(user);
+        page.articleNrs[index] = articleNr;
+        page.counts[index] = count;
+        page.pricePences[index] = pricePence;
+        page.addressNumbers[index] = internString(addressNumber);
+        page.addressStreets[index] = internString(addressStreet);
+        page.addressCities[index] = internString(addressCity);
+        page.addressRegions[index] = internString(addressRegion);
+        page.addressPostCodes[index] = internString(addressPostCode);
+        return this;
+    }
+
+
+    public long getId() {
+        return page.ids[index];
+    }
+
+    public byte @ImmutableByteArray [] getUser() {
+        return byteArrayPool.get(getUserPoolKey());
+    }
+
+    public int getUserPoolKey() {
+        return page.users[index];
+    }
+
+    public int getArticleNr() {
+        return page.articleNrs[index];
+    }
+
+    public int getCount() {
+        return page.counts[index];
+    }
+
+    public int getPricePence() {
+        return page.pricePences[index];
+    }
+
+    public String getAddressNumber() {
+        return restoreString(page.addressNumbers[index]);
+    }
+
+    public ColumnarOrderView changeAddressNumber(String addressNumber) {
+        page.addressNumbers[index] = replaceString(addressNumber, page.addressNumbers[index]);
+        return this;
+    }
+
+    public String getAddressStreet() {
+        return restoreString(page.addressStreets[index]);
+    }
+
+    public ColumnarOrderView changeAddressStreet(String addressStreet) {
+        page.addressStreets[index] = replaceString(addressStreet, page.addressStreets[index]);
+        return this;
+    }
+
+    public String getAddressCity() {
+        return restoreString(page.addressCities[index]);
+    }
+
+    public ColumnarOrderView changeAddressCity(String addressCity) {
+        page.addressCities[index] = replaceString(addressCity, page.addressCities[index]);
+        return this;
+    }
+
+    public String getAddressRegion() {
+        return restoreString(page.addressRegions[index]);
+    }
+
+    public ColumnarOrderView changeAddressRegion(String addressRegion) {
+        page.addressRegions[index] = replaceString(addressRegion, page.addressRegions[index]);
+        return this;
+    }
+
+    public String getAddressPostCode() {
+        return restoreString(page.addressPostCodes[index]);
+    }
+
+    public ColumnarOrderView changeAddressPostCode(String addressPostCode) {
+        page.addressPostCodes[index] = replaceString(addressPostCode, page.addressPostCodes[index]);
+        return this;
+    }
+
+    public String getAddress() {
+        return getAddressNumber() + " "
+                + getAddressStreet() + ", "
+                + getAddressCity() + ", "
+                + getAddressRegion() + ", "
+                + getAddressPostCode();
+    }
+
+
+    private int internString(String str) {
+        return byteArrayPool.put(str.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private int replaceString(String str, int oldKey) {
+        int newKey = internString(str);
+        byteArrayPool.free(oldKey);
+        return newKey;
+    }
+
+    @SuppressWarnings("byte.array.weakening")
+    private String restoreString(int key) {
+        return new String(byteArrayPool.get(key), StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,44 @@
+package com.romanmarkunas.blog.memory.example16;
+
+import com.romanmarkunas.blog.memory.example16.records.Bits;
+import com.romanmarkunas.blog.memory.example16.records.SlabRecord;
+
+/**
+ * Same fields as {@link OrderView}, but bit packed into 28 bytes instead of 44, using ranges of
+ * generated orders: ids are sequential, article numbers are below 1000, counts below 10 and
+ * prices below 10000 pence. Pool keys are limited to 26 bits, i.e. 67M distinct pooled values.
+ * {@code CompactOrderView} and {@code CompactOrderSlabAllocator} are generated from this declaration.
+ */
+@SlabRecord
+public interface CompactOrder {
+
+    @Bits(40)
+    long id();
+
+    @Bits(26)
+    byte[] user();
+
+    @Bits(10)
+    int articleNr();
+
+    @Bits(4)
+    int count();
+
+    @Bits(14)
+    int pricePence();
+
+    @Bits(26)
+    String addressNumber();
+
+    @Bits(26)
+    String addressStreet();
+
+    @Bits(26)
+    String addressCity();
+
+    @Bits(26)
+    String addressRegion();
+
+    @Bits(26)
+    String addressPostCode();
+}
@@ -0,0 +1,239 @@
+package com.romanmarkunas.blog.memory.example16;
+
+import com.romanmarkunas.blog.memory.example15.ByteArrayPool;
+
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Allocator for multiple writer threads. Similar to TLABs in JVM, each thread owns a slab which
+ * it allocates from without any synchronization. Once owned slab is full, thread gives it up and
+ * takes a slab with free slots from shared pool, or creates a new one.
+ * <p>
+ * Any thread can free any key. Owner frees slot in place, other threads mark slot in a remote free
+ * bitmap of the slab, which owner merges into its own bitmap when it runs out of space. Slab that has
+ * no owner is put back to shared pool as soon as it gets a remote free. Double free is always detected
+ * by owner, but only on best effort basis by other threads.
+ * <p>
+ * Each thread gets its own {@link OrderView}, so views are safe to use concurrently, but values written
+ * by one thread are visible to another only if key is passed between them with happens-before, e.g.
+ * through a concurrent collection. Pool given to this allocator is shared by all views and must be
+ * safe for concurrent use.
+ * <p>
+ * Empty slabs are not released and compaction is not supported in this mode. Keys are plain ints
+ * of slab index and slot, so at most {@link #MAX_SLABS} slabs can be created.
+ */
+public class ConcurrentOrderSlabAllocator {
+
+    static final int MAX_OBJECTS_IN_SINGLE_SLAB = Slab.maxObjects(SlabAllocator.DEFAULT_SLAB_SIZE_BYTES, OrderView.TOTAL_SIZE);
+    private static final int SLOT_BITS = SlabAllocator.slotBits(MAX_OBJECTS_IN_SINGLE_SLAB);
+    private static final int SLOT_MASK = (1 << SLOT_BITS) - 1;
+    static final int MAX_SLABS = 1 << (Integer.SIZE - 1 - SLOT_BITS); // keys must stay positive
+
+    private final Queue<SharedSlab> slabsWithFreeSlots = new ConcurrentLinkedQueue<>();
+    private final Object slabCreationLock = new Object();
+    private final ThreadLocal<Writer> writers;
+    private final SlabStorage storage;
+
+    // array is re-assigned after each new slab is stored, so volatile read makes slab visible
+    private volatile SharedSlab[] slabs = new SharedSlab[16];
+    private int slabCount; // guarded by slabCreationLock
+
+
+    public ConcurrentOrderSlabAllocator(ByteArrayPool pool) {
+        this(pool, SlabStorage.HEAP);
+    }
+
+    public ConcurrentOrderSlabAllocator(ByteArrayPool pool, SlabStorage storage) {
+        this.writers = ThreadLocal.withInitial(() -> new Writer(new OrderView(pool)));
+        this.storage = storage;
+    }
+
+
+    public int allocate() {
+        Writer writer = writers.get();
+        SharedSlab slab = writer.slab;
+        if (slab == null || !slab.hasSpaceForOwner()) {
+            if (slab != null) {
+                giveUp(slab);
+            }
+            slab = takeSlabWithFreeSlots();
+            writer.slab = slab;
+        }
+        return keyOf(slab.slab, slab.slab.putIntoFirstFree());
+    }
+
+    public OrderView get(int key) {
+        Slab slab = slabs[slabIndex(key)].slab;
+        return writers.get().view.wrap(slab.buffer, slab.byteOffsetOf(indexWithinSlab(key)));
+    }
+
+    public void free(int key) {
+        SharedSlab slab = slabs[slabIndex(key)];
+        int position = indexWithinSlab(key);
+        if (slab.owner.get() == Thread.currentThread()) {
+            slab.slab.free(position);
+        }
+        else {
+            slab.freeRemotely(position);
+            offerIfNotOwned(slab);
+        }
+    }
+
+    /**
+     * Gives up slab owned by calling thread, so that its free slots can be used by other threads.
+     * Should be called by writer threads before they finish.
+     */
+    public void releaseThreadSlab() {
+        Writer writer = writers.get();
+        if (writer.slab != null) {
+            giveUp(writer.slab);
+            writer.slab = null;
+        }
+    }
+
+    public int slabCount() {
+        synchronized (slabCreationLock) {
+            return slabCount;
+        }
+    }
+
+
+    private int keyOf(Slab slab, int indexWithinSlab) {
+        return (slab.index << SLOT_BITS) | indexWithinSlab;
+    }
+
+    private int slabIndex(int key) {
+        return key >>> SLOT_BITS;
+    }
+
+    private int indexWithinSlab(int key) {
+        return key & SLOT_MASK;
+    }
+
+    private void giveUp(SharedSlab slab) {
+        // slab is read before giving it up, as another thread may take it right after
+        boolean hasSpace = slab.slab.hasSpace();
+        slab.owner.set(null);
+        // slots freed by owner before giving up need to be offered as well as remote frees
+        if (hasSpace || slab.remoteFreeCount.get() > 0) {
+            offer(slab);
+        }
+    }
+
+    private void offerIfNotOwned(SharedSlab slab) {
+        // owner checks remote frees after giving up, so either this or owner will offer the slab,
+        // slab may be taken by another thread in between, then it is dropped when polled
+        if (slab.owner.get() == null) {
+            offer(slab);
+        }
+    }
+
+    private void offer(SharedSlab slab) {
+        if (slab.queued.compareAndSet(false, true)) {
+            slabsWithFreeSlots.offer(slab);
+        }
+    }
+
+    private SharedSlab takeSlabWithFreeSlots() {
+        Thread currentThread = Thread.currentThread();
+        SharedSlab slab;
+        while ((slab = slabsWithFreeSlots.poll()) != null) {
+            // cleared before taking slab, so if it is owned by another thread and dropped here,
+            // that thread offers it again once it gives slab up
+            slab.queued.set(false);
+            if (slab.owner.compareAndSet(null, currentThread)) {
+                if (slab.hasSpaceForOwner()) {
+                    return slab;
+                }
+                giveUp(slab);
+            }
+        }
+        return createSlab(currentThread);
+    }
+
+    private SharedSlab createSlab(Thread owner) {
+        SharedSlab slab = new SharedSlab(new Slab(
+                storage.allocate(SlabAllocator.DEFAULT_SLAB_SIZE_BYTES),
+                SlabAllocator.DEFAULT_SLAB_SIZE_BYTES,
+                OrderView.TOTAL_SIZE
+        ), owner);
+        synchronized (slabCreationLock) {
+            if (slabCount == MAX_SLABS) {
+                throw new IllegalStateException("Ran out of keys, cannot create more than " + MAX_SLABS + " slabs");
+            }
+            SharedSlab[] currentSlabs = this.slabs;
+            if (slabCount == currentSlabs.length) {
+                currentSlabs = Arrays.copyOf(currentSlabs, currentSlabs.length * 2);
+            }
+            slab.slab.index = slabCount;
+            currentSlabs[slabCount++] = slab;
+            this.slabs = currentSlabs;
+        }
+        return slab;
+    }
+
+
+    private static final class Writer {
+
+        private final OrderView view;
+        private SharedSlab slab;
+
+
+        private Writer(OrderView view) {
+            this.view = view;
+        }
+    }
+
+    private static final class SharedSlab {
+
+        private final Slab slab; // only accessed by owner thread
+        private final AtomicReference<Thread> owner;
+        private final AtomicLongArray remoteFreeSlots = new AtomicLongArray(Slab.bitmapWords(MAX_OBJECTS_IN_SINGLE_SLAB));
+        private final AtomicInteger remoteFreeCount = new AtomicInteger();
+        private final AtomicBoolean queued = new AtomicBoolean();
+
+
+        private SharedSlab(Slab slab, Thread owner) {
+            this.slab = slab;
+            this.owner = new AtomicReference<>(owner);
+        }
+
+
+        boolean hasSpaceForOwner() {
+            if (slab.hasSpace()) {
+                return true;
+            }
+            if (remoteFreeCount.get() > 0) {
+                mergeRemoteFrees();
+            }
+            return slab.hasSpace();
+        }
+
+        void freeRemotely(int position) {
+            int word = position >>> 6;
+            long bit = 1L << position;
+            long previous = remoteFreeSlots.getAndAccumulate(word, bit, (slots, freed) -> slots | freed);
+            if ((previous & bit) != 0) {
+                throw new IllegalStateException("Freeing again @ index [" + position + "]");
+            }
+            remoteFreeCount.incrementAndGet();
+        }
+
+        private void mergeRemoteFrees() {
+            for (int word = 0; word < remoteFreeSlots.length(); word++) {
+                long freed = remoteFreeSlots.getAndSet(word, 0L);
+                if (freed != 0) {
+                    // slots that are already free locally were freed twice, they are simply ignored
+                    slab.freeAll(word, freed);
+                    remoteFreeCount.addAndGet(-Long.bitCount(freed));
+                }
+            }
+        }
+    }
+}
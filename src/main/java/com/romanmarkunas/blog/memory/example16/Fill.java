@@ -0,0 +1,25 @@
+package com.romanmarkunas.blog.memory.example16;
+
+import com.romanmarkunas.blog.memory.example16.records.SlabRecord;
+
+/**
+ * Layout of a single order fill. {@code FillView} and {@code FillSlabAllocator}
+ * are generated from this declaration at compile time.
+ */
+@SlabRecord
+public interface Fill {
+
+    long id();
+
+    long orderId();
+
+    int quantity();
+
+    int pricePence();
+
+    boolean aggressor();
+
+    String venue();
+
+    byte[] counterparty();
+}
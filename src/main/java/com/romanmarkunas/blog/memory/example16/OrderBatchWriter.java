@@ -0,0 +1,91 @@
+package com.romanmarkunas.blog.memory.example16;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Writes a known number of orders one after another, e.g. when replaying order log on
+ * startup. Orders are allocated in runs of up to a whole slab, so within a run next order
+ * is just next slot in the same buffer and no per-order slab search is done.
+ * <p>
+ * Uses its own {@link OrderView}, so views obtained from allocator can be used in between.
+ * <p>
+ * Whole run is reserved when its first order is written, so writer must be closed, e.g. with
+ * try-with-resources, to free reserved orders that were never written if batch is abandoned or
+ * fails half way.
+ */
+public final class OrderBatchWriter implements AutoCloseable {
+
+    private final SlabAllocator slabs;
+    private final OrderView view;
+    private final int count;
+
+    private int written;
+    private int leftInRun;
+    private long handle = -1;
+    private ByteBuffer buffer;
+    private int offset;
+    private boolean closed;
+
+
+    OrderBatchWriter(SlabAllocator slabs, OrderView view, int count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("Batch must contain at least one order, got " + count);
+        }
+        this.slabs = slabs;
+        this.view = view;
+        this.count = count;
+    }
+
+
+    /**
+     * @return view of next order in batch, its handle is available from {@link #handle()}
+     */
+    public OrderView next() {
+        if (closed) {
+            throw new IllegalStateException("Batch is already closed");
+        }
+        if (written == count) {
+            throw new IllegalStateException("All " + count + " orders of the batch are already written");
+        }
+        if (leftInRun == 0) {
+            leftInRun = Math.min(count - written, slabs.maxObjectsInSlab());
+            handle = slabs.allocate(leftInRun);
+            buffer = slabs.bufferOf(handle);
+            offset = slabs.byteOffsetOf(handle);
+        }
+        else {
+            handle = slabs.nextInRun(handle);
+            offset += OrderView.TOTAL_SIZE;
+        }
+        leftInRun--;
+        written++;
+        return view.wrap(buffer, offset);
+    }
+
+    /**
+     * @return handle of order last returned by {@link #next()}
+     */
+    public long handle() {
+        return handle;
+    }
+
+    public int remaining() {
+        return count - written;
+    }
+
+    /**
+     * Frees orders reserved for current run that were not written yet. Orders already written
+     * stay allocated.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (; leftInRun > 0; leftInRun--) {
+            handle = slabs.nextInRun(handle);
+            slabs.free(handle);
+        }
+    }
+}
@@ -1,166 +1,192 @@
 package com.romanmarkunas.blog.memory.example16;
 
+import com.romanmarkunas.blog.memory.example15.ByteArrayPool;
 import com.romanmarkunas.blog.memory.example15.PooledByteArrayMap;
 
-import java.nio.ByteBuffer;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Consumer;
 
 /**
- * Similar to Linux SLOB implementation
+ * Stores orders in slabs of {@link SlabAllocator} and gives access to them through a single
+ * reusable {@link OrderView}, so no objects are created per order.
+ * <p>
+ * Callers that need to hold several orders at once or read from several threads create own
+ * cursors with {@link #newCursor()}, and single fields can be read by handle with
+ * {@code xxxOf(handle)} accessors without binding any view at all.
  */
 public class OrderSlabAllocator {
 
-    static final int MAX_OBJECTS_IN_SINGLE_SLAB = Slab.MAX_OBJECTS_IN_SLAB;
+    // for slabs of default size
+    static final int MAX_OBJECTS_IN_SINGLE_SLAB = Slab.maxObjects(SlabAllocator.DEFAULT_SLAB_SIZE_BYTES, OrderView.TOTAL_SIZE);
+    static final int HANDLES_PER_SLAB = 1 << SlabAllocator.slotBits(MAX_OBJECTS_IN_SINGLE_SLAB);
 
-    private final List<Slab> slabs = new ArrayList<>();
+    private static final String POOL_FILE = "pool.bin";
+
+    private final SlabAllocator slabs;
     private final OrderView view;
+    private final ByteArrayPool pool;
 
 
-    public OrderSlabAllocator(PooledByteArrayMap pool) {
-        view = new OrderView(pool);
+    public OrderSlabAllocator(ByteArrayPool pool) {
+        this(pool, SlabStorage.HEAP);
     }
 
-
-    public int allocate() {
-        int vacantSlabIndex = findOrCreateVacantSlab();
-        int indexWithinSlab = slabs.get(vacantSlabIndex).putIntoFirstFree();
-        return vacantSlabIndex * Slab.MAX_OBJECTS_IN_SLAB + indexWithinSlab;
+    public OrderSlabAllocator(ByteArrayPool pool, SlabStorage storage) {
+        this(pool, storage, SlabAllocator.DEFAULT_MAX_CACHED_SLABS);
     }
 
-    public OrderView get(int key) {
-        Slab slab = slabs.get(slabIndex(key));
-        return view.wrap(slab.buffer, slab.byteOffsetOf(indexWithinSlab(key)));
+    public OrderSlabAllocator(ByteArrayPool pool, SlabStorage storage, int maxCachedSlabs) {
+        this(pool, storage, SlabAllocator.DEFAULT_SLAB_SIZE_BYTES, maxCachedSlabs);
     }
 
-    public void free(int key) {
-        slabs.get(slabIndex(key)).free(indexWithinSlab(key));
+    public OrderSlabAllocator(ByteArrayPool pool, SlabStorage storage, int slabSizeBytes, int maxCachedSlabs) {
+        this(pool, new SlabAllocator(OrderView.TOTAL_SIZE, slabSizeBytes, storage, maxCachedSlabs));
     }
 
-
-    private int slabIndex(int key) {
-        return key / Slab.MAX_OBJECTS_IN_SLAB;
+    private OrderSlabAllocator(ByteArrayPool pool, SlabAllocator slabs) {
+        this.slabs = slabs;
+        this.view = new OrderView(pool);
+        this.pool = pool;
     }
 
-    private int indexWithinSlab(int key) {
-        return key % Slab.MAX_OBJECTS_IN_SLAB;
-    }
 
-    private int findOrCreateVacantSlab() {
-        for (int i = 0, size = slabs.size(); i < size; i++) {
-            Slab slab = slabs.get(i);
-            if (slab.hasSpace()) {
-                return i;
-            }
+    /**
+     * Restores orders and their pooled values from snapshot written by {@link #snapshot(Path)},
+     * restored pool is available from {@link #pool()}
+     *
+     * @see SlabAllocator#restore(Path, int, SlabStorage, int)
+     */
+    public static OrderSlabAllocator restore(Path directory, SlabStorage storage) throws IOException {
+        PooledByteArrayMap pool;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(directory.resolve(POOL_FILE))))) {
+            pool = PooledByteArrayMap.readFrom(in);
         }
+        SlabAllocator slabs = SlabAllocator.restore(directory, OrderView.TOTAL_SIZE, storage, SlabAllocator.DEFAULT_MAX_CACHED_SLABS);
+        return new OrderSlabAllocator(pool, slabs);
+    }
 
-        slabs.add(new Slab());
 
-        return slabs.size() - 1;
+    /**
+     * @return handle of new order, see {@link SlabAllocator} for its validity guarantees
+     */
+    public long allocate() {
+        return slabs.allocate();
     }
 
+    /**
+     * @see SlabAllocator#allocate(int)
+     */
+    public long allocate(int count) {
+        return slabs.allocate(count);
+    }
 
-    private static class Slab {
-
-        private static final int SLAB_SIZE_BYTES = 16 * 1024;
-        private static final int OBJECT_SIZE_BYTES = OrderView.TOTAL_SIZE;
-        private static final int MAX_OBJECTS_IN_SLAB = SLAB_SIZE_BYTES / OBJECT_SIZE_BYTES;
-        private static final int LEFT_OUTSIDE_SLAB = -1;
-        private static final int RIGHT_OUTSIDE_SLAB = MAX_OBJECTS_IN_SLAB;
+    /**
+     * Starts batch of {@code count} orders that are allocated lazily as they are written
+     */
+    public OrderBatchWriter batchWriter(int count) {
+        return new OrderBatchWriter(slabs, new OrderView(pool), count);
+    }
 
-        private final ByteBuffer buffer;
+    /**
+     * @throws IllegalStateException if handle is stale
+     */
+    public OrderView get(long handle) {
+        return view.wrap(slabs.bufferOf(handle), slabs.byteOffsetOf(handle));
+    }
 
-        private int firstFreeSpacePosition;
+    /**
+     * @return new cursor with its own view, which is not affected by {@link #get(long)}
+     */
+    public SlabCursor<OrderView> newCursor() {
+        return new SlabCursor<>(slabs, new OrderView(pool), OrderView::wrap);
+    }
 
+    public void free(long handle) {
+        slabs.free(handle);
+    }
 
-        private Slab() {
-            buffer = ByteBuffer.allocate(SLAB_SIZE_BYTES);
-            firstFreeSpacePosition = 0;
-            setSizeOfFreeSpace(firstFreeSpacePosition, MAX_OBJECTS_IN_SLAB);
-            setNextFreeSpacePosition(firstFreeSpacePosition, RIGHT_OUTSIDE_SLAB);
+    /**
+     * Passes every live order to {@code consumer} in physical order, so full scans read slabs
+     * sequentially, see {@link SlabCursor#next()}. View passed to consumer is not affected by
+     * {@link #get(long)} and is only valid until consumer returns.
+     */
+    public void forEach(Consumer<OrderView> consumer) {
+        SlabCursor<OrderView> cursor = newCursor();
+        while (cursor.next()) {
+            consumer.accept(cursor.view());
         }
+    }
 
+    public long idOf(long handle) {
+        return OrderView.getId(slabs.bufferOf(handle), slabs.byteOffsetOf(handle));
+    }
 
-        int putIntoFirstFree() {
-            int allocatedPosition = this.firstFreeSpacePosition;
+    public int userPoolKeyOf(long handle) {
+        return OrderView.getUserPoolKey(slabs.bufferOf(handle), slabs.byteOffsetOf(handle));
+    }
 
-            int freeSpaceSize = geSizeOfFreeSpaceInObjects(firstFreeSpacePosition);
-            int nextFreeSpacePosition = getNextFreeSpacePosition(firstFreeSpacePosition);
+    public int articleNrOf(long handle) {
+        return OrderView.getArticleNr(slabs.bufferOf(handle), slabs.byteOffsetOf(handle));
+    }
 
-            if (freeSpaceSize == 1) {
-                this.firstFreeSpacePosition = nextFreeSpacePosition;
-            }
-            else {
-                this.firstFreeSpacePosition++;
-                setSizeOfFreeSpace(firstFreeSpacePosition, freeSpaceSize - 1);
-                setNextFreeSpacePosition(firstFreeSpacePosition, nextFreeSpacePosition);
-            }
+    public int countOf(long handle) {
+        return OrderView.getCount(slabs.bufferOf(handle), slabs.byteOffsetOf(handle));
+    }
 
-            return allocatedPosition;
-        }
+    public int pricePenceOf(long handle) {
+        return OrderView.getPricePence(slabs.bufferOf(handle), slabs.byteOffsetOf(handle));
+    }
 
-        void free(int index) {
-            // find between which pair of free spaces new free slot will appear
-            // for full slab, firstFreeSpacePosition == RIGHT_OUTSIDE_SLAB
-            int left = LEFT_OUTSIDE_SLAB;
-            int right = firstFreeSpacePosition;
-
-            while (!(index > left && index < right)) {
-                if (index == right || (right + geSizeOfFreeSpaceInObjects(right) > index)) {
-                    throw new IllegalStateException("Freeing again @ index [" + index + "]");
-                }
-                left = right;
-                right = getNextFreeSpacePosition(right);
-            }
-
-            // for simplicity do not handle merging free spaces into one, which is &&'ed 2 clauses below
-            if (index == right - 1) { // freeing prepends to right free space
-                if (left != LEFT_OUTSIDE_SLAB) {
-                    setNextFreeSpacePosition(left, index);
-                }
-                setSizeOfFreeSpace(index, geSizeOfFreeSpaceInObjects(right) + 1);
-                setNextFreeSpacePosition(index, getNextFreeSpacePosition(right));
-            }
-            else if (left != LEFT_OUTSIDE_SLAB && index == left + geSizeOfFreeSpaceInObjects(left)) { // freeing appends to left free space
-                setSizeOfFreeSpace(left, geSizeOfFreeSpaceInObjects(left) + 1);
-            }
-            else { // freeing is somewhere between left and right without touching them
-                if (left != LEFT_OUTSIDE_SLAB) {
-                    setNextFreeSpacePosition(left, index);
-                }
-                setSizeOfFreeSpace(index, 1);
-                setNextFreeSpacePosition(index, right);
-            }
-
-            // set first free space to leftmost free space
-            if (index < firstFreeSpacePosition) {
-                firstFreeSpacePosition = index;
-            }
-        }
+    /**
+     * @see SlabAllocator#compact(int, RelocationListener)
+     */
+    public boolean compact(int maxWork, RelocationListener listener) {
+        return slabs.compact(maxWork, listener);
+    }
 
-        boolean hasSpace() {
-            return firstFreeSpacePosition < MAX_OBJECTS_IN_SLAB;
+    /**
+     * Writes orders and pool into {@code directory}. Pool must not be shared with other
+     * structures that are not snapshotted at the same time, otherwise their keys are lost.
+     * Only {@link PooledByteArrayMap} can be written, as it is what {@link #restore(Path, SlabStorage)}
+     * reads back.
+     *
+     * @see SlabAllocator#writeSnapshot(Path)
+     */
+    public void snapshot(Path directory) throws IOException {
+        if (!(pool instanceof PooledByteArrayMap)) {
+            throw new IllegalStateException("Cannot snapshot pool of type " + pool.getClass().getSimpleName());
         }
-
-        int byteOffsetOf(int position) {
-            return position * OBJECT_SIZE_BYTES;
+        slabs.writeSnapshot(directory);
+        Path poolTemp = SlabAllocator.temporaryFileFor(directory.resolve(POOL_FILE));
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(poolTemp)))) {
+            ((PooledByteArrayMap) pool).writeTo(out);
         }
+        SlabAllocator.replace(directory.resolve(POOL_FILE), poolTemp);
+    }
 
+    public ByteArrayPool pool() {
+        return pool;
+    }
 
-        private int geSizeOfFreeSpaceInObjects(int positionOfFreeSpace) {
-            return buffer.getInt(byteOffsetOf(positionOfFreeSpace));
-        }
+    SlabAllocator slabs() {
+        return slabs;
+    }
 
-        private void setSizeOfFreeSpace(int positionOfFreeSpace, int sizeOfFreeSpaceInObjects) {
-            buffer.putInt(byteOffsetOf(positionOfFreeSpace), sizeOfFreeSpaceInObjects);
-        }
+    public int slabCount() {
+        return slabs.slabCount();
+    }
 
-        private int getNextFreeSpacePosition(int positionOfFreeSpace) {
-            return buffer.getInt(byteOffsetOf(positionOfFreeSpace) + Integer.BYTES);
-        }
+    public int cachedSlabCount() {
+        return slabs.cachedSlabCount();
+    }
 
-        private void setNextFreeSpacePosition(int positionOfFreeSpace, int nextFreeSpacePosition) {
-            buffer.putInt(byteOffsetOf(positionOfFreeSpace) + Integer.BYTES, nextFreeSpacePosition);
-        }
+    long inspectedSlabCount() {
+        return slabs.inspectedSlabCount();
     }
 }
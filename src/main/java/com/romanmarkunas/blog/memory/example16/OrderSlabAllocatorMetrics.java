@@ -0,0 +1,143 @@
+package com.romanmarkunas.blog.memory.example16;
+
+import com.romanmarkunas.blog.memory.example15.ByteArrayPool;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Publishes occupancy of {@link OrderSlabAllocator} and its pool over JMX, so degrading memory
+ * efficiency is visible long before {@link OutOfMemoryError}.
+ * <p>
+ * Neither allocator nor pool is thread safe, so JMX threads never touch them. Instead thread that
+ * owns the allocator calls {@link #update()} every now and then, e.g. from idle loop, which takes
+ * a snapshot of all values into volatile fields that JMX reads. Allocation path itself only pays
+ * for a couple of counter increments.
+ */
+public final class OrderSlabAllocatorMetrics implements OrderSlabAllocatorMetricsMBean {
+
+    static final String DOMAIN = "com.romanmarkunas.blog.memory";
+
+    private final OrderSlabAllocator allocator;
+
+    private volatile int slabCount;
+    private volatile int cachedSlabCount;
+    private volatile int liveOrders;
+    private volatile long slabCapacity;
+    private volatile double freeRunsPerSlab;
+    private volatile double freeSlotRatio;
+    private volatile int poolSize;
+    private volatile int poolCapacity;
+    private volatile int poolTombstones;
+    private volatile double poolAverageProbeLength;
+    private volatile long updateTimeMs;
+    private long lastLookupCount; // only accessed by owner thread
+    private long lastProbeCount;
+
+
+    public OrderSlabAllocatorMetrics(OrderSlabAllocator allocator) {
+        this.allocator = allocator;
+    }
+
+
+    /**
+     * Registers in platform MBean server under {@value #DOMAIN}:type=OrderSlabAllocator,name={@code name}
+     */
+    public OrderSlabAllocatorMetrics register(String name) {
+        try {
+            ObjectName objectName = new ObjectName(DOMAIN + ":type=OrderSlabAllocator,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            return this;
+        }
+        catch (JMException e) {
+            throw new IllegalStateException("Unable to register metrics of order allocator [" + name + "]", e);
+        }
+    }
+
+    /**
+     * Must be called by the thread that uses allocator, walks bitmaps of all slabs
+     */
+    public void update() {
+        SlabAllocator slabs = allocator.slabs();
+        ByteArrayPool pool = allocator.pool();
+
+        int slabCount = slabs.slabCount();
+        long slabCapacity = (long) slabCount * slabs.maxObjectsInSlab();
+        int liveOrders = slabs.liveObjects();
+        this.slabCount = slabCount;
+        this.cachedSlabCount = slabs.cachedSlabCount();
+        this.liveOrders = liveOrders;
+        this.slabCapacity = slabCapacity;
+        this.freeRunsPerSlab = slabCount == 0 ? 0 : (double) slabs.freeRunCount() / slabCount;
+        this.freeSlotRatio = slabCapacity == 0 ? 0 : 1 - (double) liveOrders / slabCapacity;
+
+        long lookups = pool.lookupCount() - lastLookupCount;
+        long probes = pool.probeCount() - lastProbeCount;
+        lastLookupCount = pool.lookupCount();
+        lastProbeCount = pool.probeCount();
+        this.poolSize = pool.size();
+        this.poolCapacity = pool.capacity();
+        this.poolTombstones = pool.tombstones();
+        if (lookups > 0) { // keep previous average while nothing is pooled
+            this.poolAverageProbeLength = (double) probes / lookups;
+        }
+        this.updateTimeMs = System.currentTimeMillis();
+    }
+
+
+    @Override
+    public int getSlabCount() {
+        return slabCount;
+    }
+
+    @Override
+    public int getCachedSlabCount() {
+        return cachedSlabCount;
+    }
+
+    @Override
+    public int getLiveOrders() {
+        return liveOrders;
+    }
+
+    @Override
+    public long getSlabCapacity() {
+        return slabCapacity;
+    }
+
+    @Override
+    public double getFreeRunsPerSlab() {
+        return freeRunsPerSlab;
+    }
+
+    @Override
+    public double getFreeSlotRatio() {
+        return freeSlotRatio;
+    }
+
+    @Override
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    @Override
+    public int getPoolCapacity() {
+        return poolCapacity;
+    }
+
+    @Override
+    public int getPoolTombstones() {
+        return poolTombstones;
+    }
+
+    @Override
+    public double getPoolAverageProbeLength() {
+        return poolAverageProbeLength;
+    }
+
+    @Override
+    public long getUpdateTimeMs() {
+        return updateTimeMs;
+    }
+}
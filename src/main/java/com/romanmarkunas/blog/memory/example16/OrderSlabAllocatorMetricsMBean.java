@@ -0,0 +1,38 @@
+package com.romanmarkunas.blog.memory.example16;
+
+/**
+ * Occupancy of {@link OrderSlabAllocator} and its pool as seen over JMX, values are as of last
+ * {@link OrderSlabAllocatorMetrics#update()}
+ */
+public interface OrderSlabAllocatorMetricsMBean {
+
+    int getSlabCount();
+
+    int getCachedSlabCount();
+
+    int getLiveOrders();
+
+    long getSlabCapacity();
+
+    double getFreeRunsPerSlab();
+
+    /**
+     * @return share of slots in allocated slabs that hold no order, 0 when slabs are full. This is
+     * inverse of occupancy, not fragmentation: how scattered free slots are shows in
+     * {@link #getFreeRunsPerSlab()}
+     */
+    double getFreeSlotRatio();
+
+    int getPoolSize();
+
+    int getPoolCapacity();
+
+    int getPoolTombstones();
+
+    /**
+     * @return average number of slots inspected per pool lookup since previous update
+     */
+    double getPoolAverageProbeLength();
+
+    long getUpdateTimeMs();
+}
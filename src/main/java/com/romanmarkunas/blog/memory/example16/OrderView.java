@@ -1,10 +1,11 @@
 package com.romanmarkunas.blog.memory.example16;
 
-import com.romanmarkunas.blog.memory.example15.PooledByteArrayMap;
+import com.romanmarkunas.blog.memory.example15.ByteArrayPool;
 import com.romanmarkunas.blog.memory.example14.checkers.ImmutableByteArray;
 
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 public final class OrderView {
 
@@ -21,13 +22,16 @@ public final class OrderView {
 
     final static int TOTAL_SIZE = ADDRESSPOSTCODE_OFFSET + Integer.BYTES;
 
-    private final PooledByteArrayMap byteArrayPool;
+    private final static SlabAccess ACCESS = SlabAccess.SELECTED;
+
+    private final ByteArrayPool byteArrayPool;
 
     private ByteBuffer buffer;
     private int startPosition;
+    private byte[] encoded = new byte[64]; // strings being changed, so that only ones new to pool are copied
 
 
-    OrderView(PooledByteArrayMap byteArrayPool) {
+    OrderView(ByteArrayPool byteArrayPool) {
         this.byteArrayPool = byteArrayPool;
     }
 
@@ -49,22 +53,22 @@ public final class OrderView {
             String addressRegion,
             String addressPostCode
     ) {
-        buffer.putLong(startPosition + ID_OFFSET, id);
-        buffer.putInt(startPosition + USER_OFFSET, byteArrayPool.put(user));
-        buffer.putInt(startPosition + ARTICLENR_OFFSET, articleNr);
-        buffer.putInt(startPosition + COUNT_OFFSET, count);
-        buffer.putInt(startPosition + PRICEPENCE_OFFSET, pricePence);
-        buffer.putInt(startPosition + ADDRESSNUMBER_OFFSET, internString(addressNumber));
-        buffer.putInt(startPosition + ADDRESSSTREET_OFFSET, internString(addressStreet));
-        buffer.putInt(startPosition + ADDRESSCITY_OFFSET, internString(addressCity));
-        buffer.putInt(startPosition + ADDRESSREGION_OFFSET, internString(addressRegion));
-        buffer.putInt(startPosition + ADDRESSPOSTCODE_OFFSET, internString(addressPostCode));
+        ACCESS.putLong(buffer, startPosition + ID_OFFSET, id);
+        ACCESS.putInt(buffer, startPosition + USER_OFFSET, byteArrayPool.put(user));
+        ACCESS.putInt(buffer, startPosition + ARTICLENR_OFFSET, articleNr);
+        ACCESS.putInt(buffer, startPosition + COUNT_OFFSET, count);
+        ACCESS.putInt(buffer, startPosition + PRICEPENCE_OFFSET, pricePence);
+        ACCESS.putInt(buffer, startPosition + ADDRESSNUMBER_OFFSET, internString(addressNumber));
+        ACCESS.putInt(buffer, startPosition + ADDRESSSTREET_OFFSET, internString(addressStreet));
+        ACCESS.putInt(buffer, startPosition + ADDRESSCITY_OFFSET, internString(addressCity));
+        ACCESS.putInt(buffer, startPosition + ADDRESSREGION_OFFSET, internString(addressRegion));
+        ACCESS.putInt(buffer, startPosition + ADDRESSPOSTCODE_OFFSET, internString(addressPostCode));
         return this;
     }
 
 
     public long getId() {
-        return buffer.getLong(startPosition + ID_OFFSET);
+        return getId(buffer, startPosition);
     }
 
     public byte @ImmutableByteArray [] getUser() {
@@ -72,78 +76,93 @@ public final class OrderView {
     }
 
     public int getUserPoolKey() {
-        return buffer.getInt(startPosition + USER_OFFSET);
+        return getUserPoolKey(buffer, startPosition);
     }
 
     public int getArticleNr() {
-        return buffer.getInt(startPosition + ARTICLENR_OFFSET);
+        return getArticleNr(buffer, startPosition);
     }
 
     public int getCount() {
-        return buffer.getInt(startPosition + COUNT_OFFSET);
+        return getCount(buffer, startPosition);
     }
 
     public int getPricePence() {
-        return buffer.getInt(startPosition + PRICEPENCE_OFFSET);
+        return getPricePence(buffer, startPosition);
     }
 
     public String getAddressNumber() {
-        int addressNumber = buffer.getInt(startPosition + ADDRESSNUMBER_OFFSET);
+        int addressNumber = ACCESS.getInt(buffer, startPosition + ADDRESSNUMBER_OFFSET);
         return restoreString(addressNumber);
     }
 
     public OrderView changeAddressNumber(String addressNumber) {
-        int oldAddressNumber = buffer.getInt(startPosition + ADDRESSNUMBER_OFFSET);
-        int newAddressNumber = replaceString(addressNumber, oldAddressNumber);
-        buffer.putInt(startPosition + ADDRESSNUMBER_OFFSET, newAddressNumber);
+        changeString(ADDRESSNUMBER_OFFSET, addressNumber);
         return this;
     }
 
     public String getAddressStreet() {
-        int addressStreet = buffer.getInt(startPosition + ADDRESSSTREET_OFFSET);
+        int addressStreet = ACCESS.getInt(buffer, startPosition + ADDRESSSTREET_OFFSET);
         return restoreString(addressStreet);
     }
 
     public OrderView changeAddressStreet(String addressStreet) {
-        int oldAddressStreet = buffer.getInt(startPosition + ADDRESSSTREET_OFFSET);
-        int newAddressStreet = replaceString(addressStreet, oldAddressStreet);
-        buffer.putInt(startPosition + ADDRESSSTREET_OFFSET, newAddressStreet);
+        changeString(ADDRESSSTREET_OFFSET, addressStreet);
         return this;
     }
 
     public String getAddressCity() {
-        int addressCity = buffer.getInt(startPosition + ADDRESSCITY_OFFSET);
+        int addressCity = ACCESS.getInt(buffer, startPosition + ADDRESSCITY_OFFSET);
         return restoreString(addressCity);
     }
 
     public OrderView changeAddressCity(String addressCity) {
-        int oldAddressCity = buffer.getInt(startPosition + ADDRESSCITY_OFFSET);
-        int newAddressCity = replaceString(addressCity, oldAddressCity);
-        buffer.putInt(startPosition + ADDRESSCITY_OFFSET, newAddressCity);
+        changeString(ADDRESSCITY_OFFSET, addressCity);
         return this;
     }
 
     public String getAddressRegion() {
-        int addressRegion = buffer.getInt(startPosition + ADDRESSREGION_OFFSET);
+        int addressRegion = ACCESS.getInt(buffer, startPosition + ADDRESSREGION_OFFSET);
         return restoreString(addressRegion);
     }
 
     public OrderView changeAddressRegion(String addressRegion) {
-        int oldAddressRegion = buffer.getInt(startPosition + ADDRESSREGION_OFFSET);
-        int newAddressRegion = replaceString(addressRegion, oldAddressRegion);
-        buffer.putInt(startPosition + ADDRESSREGION_OFFSET, newAddressRegion);
+        changeString(ADDRESSREGION_OFFSET, addressRegion);
         return this;
     }
 
     public String getAddressPostCode() {
-        int addressPostCode = buffer.getInt(startPosition + ADDRESSPOSTCODE_OFFSET);
+        int addressPostCode = ACCESS.getInt(buffer, startPosition + ADDRESSPOSTCODE_OFFSET);
         return restoreString(addressPostCode);
     }
 
     public OrderView changeAddressPostCode(String addressPostCode) {
-        int oldAddressPostCode = buffer.getInt(startPosition + ADDRESSPOSTCODE_OFFSET);
-        int newAddressPostCode = replaceString(addressPostCode, oldAddressPostCode);
-        buffer.putInt(startPosition + ADDRESSPOSTCODE_OFFSET, newAddressPostCode);
+        changeString(ADDRESSPOSTCODE_OFFSET, addressPostCode);
+        return this;
+    }
+
+    /**
+     * Changes all address parts at once. Parts are encoded one after another into a buffer reused by
+     * all calls, then parts which are same as current ones are compared with pooled bytes in place
+     * and left as they are, so only changed parts are looked up in pool and copied into it.
+     */
+    public OrderView changeAddress(
+            String addressNumber,
+            String addressStreet,
+            String addressCity,
+            String addressRegion,
+            String addressPostCode
+    ) {
+        int numberEnd = encode(addressNumber, 0);
+        int streetEnd = encode(addressStreet, numberEnd);
+        int cityEnd = encode(addressCity, streetEnd);
+        int regionEnd = encode(addressRegion, cityEnd);
+        int postCodeEnd = encode(addressPostCode, regionEnd);
+        changeEncoded(ADDRESSNUMBER_OFFSET, 0, numberEnd);
+        changeEncoded(ADDRESSSTREET_OFFSET, numberEnd, streetEnd);
+        changeEncoded(ADDRESSCITY_OFFSET, streetEnd, cityEnd);
+        changeEncoded(ADDRESSREGION_OFFSET, cityEnd, regionEnd);
+        changeEncoded(ADDRESSPOSTCODE_OFFSET, regionEnd, postCodeEnd);
         return this;
     }
 
@@ -156,14 +175,66 @@ public final class OrderView {
     }
 
 
+    // for reading single fields by handle without binding any view
+
+    static long getId(ByteBuffer buffer, int startPosition) {
+        return ACCESS.getLong(buffer, startPosition + ID_OFFSET);
+    }
+
+    static int getUserPoolKey(ByteBuffer buffer, int startPosition) {
+        return ACCESS.getInt(buffer, startPosition + USER_OFFSET);
+    }
+
+    static int getArticleNr(ByteBuffer buffer, int startPosition) {
+        return ACCESS.getInt(buffer, startPosition + ARTICLENR_OFFSET);
+    }
+
+    static int getCount(ByteBuffer buffer, int startPosition) {
+        return ACCESS.getInt(buffer, startPosition + COUNT_OFFSET);
+    }
+
+    static int getPricePence(ByteBuffer buffer, int startPosition) {
+        return ACCESS.getInt(buffer, startPosition + PRICEPENCE_OFFSET);
+    }
+
+
     private int internString(String str) {
         return byteArrayPool.put(str.getBytes(StandardCharsets.US_ASCII));
     }
 
-    private int replaceString(String str, int oldKey) {
-        int newKey = internString(str);
+    private void changeString(int offset, String str) {
+        changeEncoded(offset, 0, encode(str, 0));
+    }
+
+    private void changeEncoded(int offset, int start, int end) {
+        int oldKey = ACCESS.getInt(buffer, startPosition + offset);
+        if (byteArrayPool.contentEquals(oldKey, encoded, start, end - start)) {
+            return;
+        }
+        int newKey = byteArrayPool.put(encoded, start, end - start);
+        ACCESS.putInt(buffer, startPosition + offset, newKey);
         byteArrayPool.free(oldKey);
-        return newKey;
+    }
+
+    /**
+     * Same bytes as US_ASCII encoding of {@code str}, which replaces every char or surrogate pair
+     * outside of ASCII with '?'
+     *
+     * @return position in {@link #encoded} after last byte of {@code str}
+     */
+    private int encode(String str, int start) {
+        if (encoded.length < start + str.length()) {
+            encoded = Arrays.copyOf(encoded, Math.max(encoded.length * 2, start + str.length()));
+        }
+        int position = start;
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (Character.isHighSurrogate(c) && i + 1 < str.length() && Character.isLowSurrogate(str.charAt(i + 1))) {
+                i++;
+            }
+            encoded[position++] = c < 0x80 ? (byte) c : (byte) '?';
+        }
+        return position;
     }
 
     @SuppressWarnings("byte.array.weakening")
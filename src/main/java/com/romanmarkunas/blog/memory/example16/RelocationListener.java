@@ -0,0 +1,11 @@
+package com.romanmarkunas.blog.memory.example16;
+
+@FunctionalInterface
+public interface RelocationListener {
+
+    /**
+     * Called after object is copied to new location and old location is freed,
+     * so {@code fromHandle} is stale after this call
+     */
+    void relocated(long fromHandle, long toHandle);
+}
@@ -0,0 +1,225 @@
+package com.romanmarkunas.blog.memory.example16;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed size chunk of memory split into equal slots for objects, free slots are tracked
+ * in a bitmap. Not thread safe, allocators are responsible for coordinating access.
+ */
+final class Slab {
+
+    final ByteBuffer buffer;
+    final int sizeBytes;
+    final int objectSizeBytes;
+    final int maxObjects;
+    // bit set = slot is free, so adjacent free slots are always "merged" and freeing is a single bit flip
+    private final long[] freeSlots;
+    private final long lastWordSlotsMask;
+
+    int index; // changes when slab is reused from cache
+    short[] generations; // of slots, belong to slab index and change with it
+    private int freeSlotCount;
+    private int firstWordWithFreeSlots; // all words before this one are known to be full
+    Slab previousPartial;
+    Slab nextPartial;
+
+
+    Slab(ByteBuffer buffer, int sizeBytes, int objectSizeBytes) {
+        if (buffer.capacity() < sizeBytes) {
+            throw new IllegalArgumentException("Slab storage returned buffer smaller than " + sizeBytes + " bytes");
+        }
+        this.buffer = buffer;
+        this.sizeBytes = sizeBytes;
+        this.objectSizeBytes = objectSizeBytes;
+        this.maxObjects = maxObjects(sizeBytes, objectSizeBytes);
+        this.freeSlots = new long[bitmapWords(maxObjects)];
+        this.lastWordSlotsMask = -1L >>> (freeSlots.length * Long.SIZE - maxObjects);
+        for (int position = 0; position < maxObjects; position++) {
+            freeSlots[position >>> 6] |= 1L << position;
+        }
+        freeSlotCount = maxObjects;
+        firstWordWithFreeSlots = 0;
+    }
+
+
+    static int maxObjects(int slabSizeBytes, int objectSizeBytes) {
+        return slabSizeBytes / objectSizeBytes;
+    }
+
+    static int bitmapWords(int maxObjects) {
+        return (maxObjects + Long.SIZE - 1) / Long.SIZE;
+    }
+
+
+    int putIntoFirstFree() {
+        int word = firstWordWithFreeSlots;
+        while (freeSlots[word] == 0) {
+            word++;
+        }
+        firstWordWithFreeSlots = word;
+
+        long bits = freeSlots[word];
+        freeSlots[word] = bits & (bits - 1); // clear lowest set bit
+        freeSlotCount--;
+
+        return (word << 6) + Long.numberOfTrailingZeros(bits);
+    }
+
+    /**
+     * Takes lowest run of {@code count} adjacent free slots
+     *
+     * @return position of first slot in the run or -1 if slab has no such run
+     */
+    int putIntoFreeRun(int count) {
+        if (count > freeSlotCount) {
+            return -1;
+        }
+        int runStart = -1;
+        int runLength = 0;
+        int position = firstWordWithFreeSlots << 6;
+        while (position < maxObjects) {
+            long bits = freeSlots[position >>> 6] >>> position; // shift uses only lowest 6 bits of position
+            if (bits == 0) {
+                runLength = 0;
+                position = ((position >>> 6) + 1) << 6;
+            }
+            else if ((bits & 1) == 0) {
+                runLength = 0;
+                position += Long.numberOfTrailingZeros(bits);
+            }
+            else {
+                int freeInWord = Long.numberOfTrailingZeros(~bits); // unsigned shift fills ~bits with ones on the left
+                if (runLength == 0) {
+                    runStart = position;
+                }
+                runLength += freeInWord;
+                position += freeInWord;
+                if (runLength >= count) {
+                    occupyRun(runStart, count);
+                    return runStart;
+                }
+            }
+        }
+        return -1;
+    }
+
+    void free(int position) {
+        int word = position >>> 6;
+        long bit = 1L << position;
+        if (isFree(position)) {
+            throw new IllegalStateException("Freeing again @ index [" + position + "]");
+        }
+
+        freeSlots[word] |= bit;
+        freeSlotCount++;
+        if (word < firstWordWithFreeSlots) {
+            firstWordWithFreeSlots = word;
+        }
+    }
+
+    /**
+     * Marks as free all slots in given bitmap word, which are not yet free
+     *
+     * @return number of slots that became free
+     */
+    int freeAll(int word, long slots) {
+        long newlyFree = slots & ~freeSlots[word];
+        freeSlots[word] |= newlyFree;
+        int newlyFreeCount = Long.bitCount(newlyFree);
+        freeSlotCount += newlyFreeCount;
+        if (newlyFreeCount > 0 && word < firstWordWithFreeSlots) {
+            firstWordWithFreeSlots = word;
+        }
+        return newlyFreeCount;
+    }
+
+    private void occupyRun(int runStart, int count) {
+        int position = runStart;
+        int end = runStart + count;
+        while (position < end) {
+            int bitsInWord = Math.min(end - position, Long.SIZE - (position & 63));
+            long mask = (-1L >>> (Long.SIZE - bitsInWord)) << position;
+            freeSlots[position >>> 6] &= ~mask;
+            position += bitsInWord;
+        }
+        freeSlotCount -= count;
+    }
+
+    int firstOccupied() {
+        return nextOccupied(0);
+    }
+
+    /**
+     * Skips free slots a whole bitmap word at a time
+     *
+     * @return position of first occupied slot at or after {@code position} or -1 if there is none
+     */
+    int nextOccupied(int position) {
+        int word = position >>> 6;
+        long occupied = ~freeSlots[word] & (-1L << position); // shift uses only lowest 6 bits of position
+        while (true) {
+            if (word == freeSlots.length - 1) {
+                occupied &= lastWordSlotsMask;
+            }
+            if (occupied != 0) {
+                return (word << 6) + Long.numberOfTrailingZeros(occupied);
+            }
+            if (++word == freeSlots.length) {
+                return -1;
+            }
+            occupied = ~freeSlots[word];
+        }
+    }
+
+    boolean isFree(int position) {
+        return (freeSlots[position >>> 6] & (1L << position)) != 0;
+    }
+
+    boolean hasSpace() {
+        return freeSlotCount > 0;
+    }
+
+    int freeSlotCount() {
+        return freeSlotCount;
+    }
+
+    int liveCount() {
+        return maxObjects - freeSlotCount;
+    }
+
+    /**
+     * @return number of runs of adjacent free slots, each free slot preceded by occupied one or
+     * by slab start begins a run
+     */
+    int freeRunCount() {
+        int runs = 0;
+        long previousWordLastBit = 0;
+        for (long bits : freeSlots) {
+            runs += Long.bitCount(bits & ~((bits << 1) | previousWordLastBit));
+            previousWordLastBit = bits >>> 63;
+        }
+        return runs;
+    }
+
+    void writeFreeSlotsTo(DataOutput out) throws IOException {
+        for (long word : freeSlots) {
+            out.writeLong(word);
+        }
+    }
+
+    void readFreeSlotsFrom(DataInput in) throws IOException {
+        freeSlotCount = 0;
+        for (int word = 0; word < freeSlots.length; word++) {
+            freeSlots[word] = in.readLong();
+            freeSlotCount += Long.bitCount(freeSlots[word]);
+        }
+        firstWordWithFreeSlots = 0;
+    }
+
+    int byteOffsetOf(int position) {
+        return position * objectSizeBytes;
+    }
+}
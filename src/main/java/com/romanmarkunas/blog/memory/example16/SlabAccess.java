@@ -0,0 +1,188 @@
+package com.romanmarkunas.blog.memory.example16;
+
+import org.agrona.BufferUtil;
+import org.agrona.UnsafeAccess;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Ways to read and write fields of objects inside slab buffers. All of them use big endian
+ * order, same as {@link ByteBuffer} by default, so slabs and snapshots written with one can be
+ * read with another:
+ * <ul>
+ *     <li>{@link #BYTE_BUFFER} - absolute get/put of buffer, which checks bounds and byte order on every call</li>
+ *     <li>{@link #VAR_HANDLE} - byte buffer view var handles, also bounds checked, but inlined by JIT into plain memory access</li>
+ *     <li>{@link #UNSAFE} - raw access to heap array or native memory of buffer without any checks</li>
+ * </ul>
+ * Implementation is selected once per JVM with {@value #PROPERTY} system property, so JIT
+ * only ever sees one of them and can inline it.
+ */
+public enum SlabAccess {
+
+    BYTE_BUFFER {
+        @Override
+        public long getLong(ByteBuffer buffer, int index) {
+            return buffer.getLong(index);
+        }
+
+        @Override
+        public int getInt(ByteBuffer buffer, int index) {
+            return buffer.getInt(index);
+        }
+
+        @Override
+        public void putLong(ByteBuffer buffer, int index, long value) {
+            buffer.putLong(index, value);
+        }
+
+        @Override
+        public void putInt(ByteBuffer buffer, int index, int value) {
+            buffer.putInt(index, value);
+        }
+
+        @Override
+        public short getShort(ByteBuffer buffer, int index) {
+            return buffer.getShort(index);
+        }
+
+        @Override
+        public void putShort(ByteBuffer buffer, int index, short value) {
+            buffer.putShort(index, value);
+        }
+    },
+
+    VAR_HANDLE {
+        @Override
+        public long getLong(ByteBuffer buffer, int index) {
+            return (long) VarHandles.LONGS.get(buffer, index);
+        }
+
+        @Override
+        public int getInt(ByteBuffer buffer, int index) {
+            return (int) VarHandles.INTS.get(buffer, index);
+        }
+
+        @Override
+        public void putLong(ByteBuffer buffer, int index, long value) {
+            VarHandles.LONGS.set(buffer, index, value);
+        }
+
+        @Override
+        public void putInt(ByteBuffer buffer, int index, int value) {
+            VarHandles.INTS.set(buffer, index, value);
+        }
+
+        @Override
+        public short getShort(ByteBuffer buffer, int index) {
+            return (short) VarHandles.SHORTS.get(buffer, index);
+        }
+
+        @Override
+        public void putShort(ByteBuffer buffer, int index, short value) {
+            VarHandles.SHORTS.set(buffer, index, value);
+        }
+    },
+
+    /**
+     * Offsets are not checked against buffer bounds, so they must come from validated handles,
+     * as {@link SlabAllocator} does, and released native buffers must never be accessed
+     */
+    UNSAFE {
+        @Override
+        public long getLong(ByteBuffer buffer, int index) {
+            long value = UnsafeAccess.UNSAFE.getLong(arrayOf(buffer), addressOf(buffer) + index);
+            return NATIVE_BIG_ENDIAN ? value : Long.reverseBytes(value);
+        }
+
+        @Override
+        public int getInt(ByteBuffer buffer, int index) {
+            int value = UnsafeAccess.UNSAFE.getInt(arrayOf(buffer), addressOf(buffer) + index);
+            return NATIVE_BIG_ENDIAN ? value : Integer.reverseBytes(value);
+        }
+
+        @Override
+        public void putLong(ByteBuffer buffer, int index, long value) {
+            UnsafeAccess.UNSAFE.putLong(arrayOf(buffer), addressOf(buffer) + index, NATIVE_BIG_ENDIAN ? value : Long.reverseBytes(value));
+        }
+
+        @Override
+        public void putInt(ByteBuffer buffer, int index, int value) {
+            UnsafeAccess.UNSAFE.putInt(arrayOf(buffer), addressOf(buffer) + index, NATIVE_BIG_ENDIAN ? value : Integer.reverseBytes(value));
+        }
+
+        @Override
+        public short getShort(ByteBuffer buffer, int index) {
+            short value = UnsafeAccess.UNSAFE.getShort(arrayOf(buffer), addressOf(buffer) + index);
+            return NATIVE_BIG_ENDIAN ? value : Short.reverseBytes(value);
+        }
+
+        @Override
+        public void putShort(ByteBuffer buffer, int index, short value) {
+            UnsafeAccess.UNSAFE.putShort(arrayOf(buffer), addressOf(buffer) + index, NATIVE_BIG_ENDIAN ? value : Short.reverseBytes(value));
+        }
+
+        @Override
+        public byte getByte(ByteBuffer buffer, int index) {
+            return UnsafeAccess.UNSAFE.getByte(arrayOf(buffer), addressOf(buffer) + index);
+        }
+
+        @Override
+        public void putByte(ByteBuffer buffer, int index, byte value) {
+            UnsafeAccess.UNSAFE.putByte(arrayOf(buffer), addressOf(buffer) + index, value);
+        }
+    };
+
+    static final String PROPERTY = "slab.access";
+    // public, so that views generated into other packages use the same implementation
+    public static final SlabAccess SELECTED = valueOf(System.getProperty(PROPERTY, BYTE_BUFFER.name()));
+
+    private static final boolean NATIVE_BIG_ENDIAN = ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN;
+    private static final long ARRAY_BYTE_BASE_OFFSET = UnsafeAccess.UNSAFE.arrayBaseOffset(byte[].class);
+
+
+    public abstract long getLong(ByteBuffer buffer, int index);
+
+    public abstract int getInt(ByteBuffer buffer, int index);
+
+    public abstract short getShort(ByteBuffer buffer, int index);
+
+    public abstract void putLong(ByteBuffer buffer, int index, long value);
+
+    public abstract void putInt(ByteBuffer buffer, int index, int value);
+
+    public abstract void putShort(ByteBuffer buffer, int index, short value);
+
+    // single bytes have no byte order or alignment, so only unsafe differs from buffer access
+    public byte getByte(ByteBuffer buffer, int index) {
+        return buffer.get(index);
+    }
+
+    public void putByte(ByteBuffer buffer, int index, byte value) {
+        buffer.put(index, value);
+    }
+
+
+    // heap buffers are addressed relative to their array, native ones by absolute address
+    private static byte[] arrayOf(ByteBuffer buffer) {
+        return buffer.isDirect() ? null : buffer.array();
+    }
+
+    private static long addressOf(ByteBuffer buffer) {
+        return buffer.isDirect()
+                ? BufferUtil.address(buffer)
+                : ARRAY_BYTE_BASE_OFFSET + buffer.arrayOffset();
+    }
+
+
+    // holder, so handles are only created if they are used
+
+    private static final class VarHandles {
+
+        static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+        static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+        static final VarHandle SHORTS = MethodHandles.byteBufferViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
+    }
+}
@@ -0,0 +1,582 @@
+package com.romanmarkunas.blog.memory.example16;
+
+import org.agrona.collections.IntArrayList;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Similar to Linux SLUB implementation: slabs with free space are kept on a partial list,
+ * so finding a vacant slab does not depend on slab count, and each slab tracks its free
+ * slots in a bitmap, so freeing does not depend on how fragmented the slab is.
+ * <p>
+ * Slabs that become empty are released into a bounded cache of slabs, which new slabs are
+ * taken from first. Once cache grows over its limit it is trimmed to half of the limit, so memory
+ * follows live object count without thrashing when it hovers around slab boundary. Trimmed slabs
+ * are just dropped: views bound to them before may still read them, so memory of direct and mapped
+ * slabs is given back to OS only once GC finds their buffers unreachable and runs their cleaners.
+ * Until then off-heap footprint does not shrink.
+ * <p>
+ * Free slots scattered over many slabs can be given back by {@link #compact(int, RelocationListener)},
+ * which moves live objects out of sparse slabs, so they become empty and are released as well.
+ * <p>
+ * Objects are addressed by 64 bit handles, which pack slab index, slot within slab and generation of the
+ * slot. Generation is bumped every time slot is freed, so stale handle of freed or relocated object is
+ * detected by single comparison instead of silently reading another object. Generations belong to slab
+ * index rather than to slab, so they survive slab release and reuse. Generation has 15 bits, so handle is
+ * never negative, and a handle that is kept after its slot was reused 32768 times is not detected.
+ * <p>
+ * Slab size is set per allocator. Slot numbers are padded to a power of two in handles, so decoding a
+ * handle is a shift and a mask, at the cost of leaving unused gaps in handle space. Big slabs, e.g.
+ * {@link #HUGE_PAGE_SLAB_SIZE_BYTES}, cut slab count and, on heap with transparent huge pages enabled
+ * ({@code -XX:+UseTransparentHugePages}), let the whole slab be covered by a single TLB entry.
+ * <p>
+ * Snapshot of all slabs and their free slot bitmaps can be written into a directory and later restored by
+ * mapping slab file straight back as slab buffers, see {@link #writeSnapshot(Path)}.
+ * <p>
+ * Allocator only deals with handles and raw memory, typed access is provided by flyweight views,
+ * e.g. {@link OrderSlabAllocator} with {@link OrderView}.
+ */
+public class SlabAllocator {
+
+    public static final int DEFAULT_MAX_CACHED_SLABS = 16;
+    public static final int DEFAULT_SLAB_SIZE_BYTES = 16 * 1024;
+    public static final int HUGE_PAGE_SLAB_SIZE_BYTES = 2 * 1024 * 1024;
+    private static final int MAX_SLAB_SIZE_BYTES = 1 << 30; // so that snapshot mapping can hold at least one slab
+
+    private static final String SLABS_FILE = "slabs.bin";
+    private static final String STATE_FILE = "slabs.state";
+    private static final long MAPPING_SIZE_BYTES = 1L << 30; // well below 2GB limit of single mapping
+
+    private static final int ADDRESS_BITS = 48; // slab index and slot, generation takes bits above
+    private static final long ADDRESS_MASK = (1L << ADDRESS_BITS) - 1;
+    private static final int GENERATION_MASK = 0x7FFF;
+
+    private final List<Slab> slabs = new ArrayList<>(); // released slabs leave null behind
+    private final List<short[]> generationsBySlabIndex = new ArrayList<>();
+    private final IntArrayList releasedSlabIndexes = new IntArrayList();
+    private final Deque<Slab> cachedSlabs = new ArrayDeque<>();
+    private final SlabStorage storage;
+    private final int objectSizeBytes;
+    private final int slabSizeBytes;
+    private final int maxObjectsInSlab;
+    private final int slotBits;
+    private final int slotMask;
+    private final int maxSlabs;
+    private final int sparseSlabMaxObjects;
+    private final int maxCachedSlabs;
+
+    private Slab partialSlabs; // head of doubly linked list of slabs that have space
+    private long inspectedSlabCount;
+    private int slabCount;
+    private int liveObjects;
+    private Slab evacuatedSlab; // sparse slab that compaction is moving objects out of
+    private int compactionScanPosition;
+    private int slabsScannedWithoutCandidate;
+
+
+    public SlabAllocator(int objectSizeBytes, SlabStorage storage, int maxCachedSlabs) {
+        this(objectSizeBytes, DEFAULT_SLAB_SIZE_BYTES, storage, maxCachedSlabs);
+    }
+
+    public SlabAllocator(int objectSizeBytes, int slabSizeBytes, SlabStorage storage, int maxCachedSlabs) {
+        if (slabSizeBytes <= 0 || slabSizeBytes > MAX_SLAB_SIZE_BYTES) {
+            throw new IllegalArgumentException("Slab size must be between 1 and " + MAX_SLAB_SIZE_BYTES + " bytes, got " + slabSizeBytes);
+        }
+        if (objectSizeBytes <= 0 || objectSizeBytes > slabSizeBytes) {
+            throw new IllegalArgumentException("Object size must be between 1 and " + slabSizeBytes + " bytes, got " + objectSizeBytes);
+        }
+        if (maxCachedSlabs < 0) {
+            throw new IllegalArgumentException("Slab cache size cannot be negative, got " + maxCachedSlabs);
+        }
+        this.storage = storage;
+        this.objectSizeBytes = objectSizeBytes;
+        this.slabSizeBytes = slabSizeBytes;
+        this.maxObjectsInSlab = Slab.maxObjects(slabSizeBytes, objectSizeBytes);
+        this.slotBits = slotBits(maxObjectsInSlab);
+        this.slotMask = (1 << slotBits) - 1;
+        this.maxSlabs = (int) Math.min(Integer.MAX_VALUE - 8, 1L << (ADDRESS_BITS - slotBits)); // max array list size
+        this.sparseSlabMaxObjects = maxObjectsInSlab / 2;
+        this.maxCachedSlabs = maxCachedSlabs;
+    }
+
+
+    public long allocate() {
+        Slab slab = findOrCreateVacantSlab();
+        inspectedSlabCount++;
+        int indexWithinSlab = slab.putIntoFirstFree();
+        if (!slab.hasSpace()) {
+            removeFromPartialSlabs(slab);
+        }
+        liveObjects++;
+        return handleOf(slab, indexWithinSlab);
+    }
+
+    /**
+     * Allocates a run of {@code count} objects in single slab, so their memory is contiguous
+     * and run can be written sequentially without searching for each slot.
+     * <p>
+     * Only the most recently used partial slab is checked for a free run, otherwise new slab
+     * is taken, so this never walks whole partial list.
+     *
+     * @return handle of first object in the run, next ones are given by {@link #nextInRun(long)}
+     */
+    public long allocate(int count) {
+        if (count <= 0 || count > maxObjectsInSlab) {
+            throw new IllegalArgumentException("Can allocate between 1 and " + maxObjectsInSlab + " objects at once, got " + count);
+        }
+        Slab slab = findOrCreateVacantSlab();
+        int indexWithinSlab = slab.putIntoFreeRun(count);
+        if (indexWithinSlab < 0) {
+            slab = createSlab();
+            addToPartialSlabs(slab);
+            indexWithinSlab = slab.putIntoFreeRun(count);
+        }
+        if (!slab.hasSpace()) {
+            removeFromPartialSlabs(slab);
+        }
+        liveObjects += count;
+        return handleOf(slab, indexWithinSlab);
+    }
+
+    /**
+     * @return handle of the object following given one in a run from {@link #allocate(int)}
+     */
+    public long nextInRun(long handle) {
+        return handleOf(slabs.get(slabIndex(handle)), indexWithinSlab(handle) + 1);
+    }
+
+    /**
+     * Gives live objects in physical order, i.e. by slab index and by slot within slab, so walking
+     * all of them reads memory sequentially. Handle does not need to be valid, so object under it
+     * can be freed while walking.
+     *
+     * @return handle of first live object after {@code handle}, of first live object at all if
+     * handle is negative or -1 if there are no more live objects
+     */
+    public long nextLive(long handle) {
+        int slabIndex = 0;
+        int position = 0;
+        if (handle >= 0) {
+            slabIndex = slabIndex(handle);
+            position = indexWithinSlab(handle) + 1;
+        }
+        for (; slabIndex < slabs.size(); slabIndex++, position = 0) {
+            Slab slab = slabs.get(slabIndex);
+            if (slab != null && position < maxObjectsInSlab) {
+                int next = slab.nextOccupied(position);
+                if (next >= 0) {
+                    return handleOf(slab, next);
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Checks that handle is not stale, so byte offset can be taken without another check
+     */
+    public ByteBuffer bufferOf(long handle) {
+        return validSlabOf(handle).buffer;
+    }
+
+    public int byteOffsetOf(long handle) {
+        return indexWithinSlab(handle) * objectSizeBytes;
+    }
+
+    public boolean isValid(long handle) {
+        int slabIndex = slabIndex(handle);
+        int indexWithinSlab = indexWithinSlab(handle);
+        Slab slab = slabIndex < slabs.size() ? slabs.get(slabIndex) : null;
+        return slab != null
+                && indexWithinSlab < maxObjectsInSlab
+                && (slab.generations[indexWithinSlab] & GENERATION_MASK) == generationOf(handle);
+    }
+
+    /**
+     * @return handle without generation, so it can be compared to other handles of same slot
+     */
+    static long addressOf(long handle) {
+        return handle & ADDRESS_MASK;
+    }
+
+    /**
+     * @return number of bits that slot within slab takes in a handle
+     */
+    static int slotBits(int maxObjectsInSlab) {
+        return Integer.SIZE - Integer.numberOfLeadingZeros(maxObjectsInSlab - 1);
+    }
+
+    public void free(long handle) {
+        Slab slab = validSlabOf(handle);
+        boolean wasFull = !slab.hasSpace();
+        int indexWithinSlab = indexWithinSlab(handle);
+        slab.free(indexWithinSlab);
+        slab.generations[indexWithinSlab]++;
+        liveObjects--;
+        slabsScannedWithoutCandidate = 0; // freed slab may have become worth evacuating
+
+        if (slab == evacuatedSlab) {
+            if (slab.liveCount() == 0) {
+                evacuatedSlab = null;
+                release(slab);
+            }
+        }
+        else if (slab.liveCount() == 0) {
+            if (!wasFull) {
+                removeFromPartialSlabs(slab);
+            }
+            release(slab);
+        }
+        else if (wasFull) {
+            addToPartialSlabs(slab);
+        }
+    }
+
+    /**
+     * Does a bounded amount of compaction work, so it can be called from ingest loop without
+     * long pauses. Each relocated object and each inspected slab counts as a unit of work.
+     * <p>
+     * Relocated objects are copied as is, so pooled values they reference stay valid, but
+     * their handles change and every holder of old handle must be updated by {@code listener}.
+     * <p>
+     * Once a full pass over slabs finds nothing worth evacuating, calls return false without any
+     * work until next free, so callers that compact while idle do not rescan slabs forever.
+     *
+     * @return true if there may be more compaction work to do
+     */
+    public boolean compact(int maxWork, RelocationListener listener) {
+        int work = 0;
+        while (work < maxWork) {
+            if (evacuatedSlab == null) {
+                if (freeSlots() < maxObjectsInSlab || slabsScannedWithoutCandidate >= slabs.size()) {
+                    return false; // until next free
+                }
+                Slab slab = slabs.get(compactionScanPosition);
+                compactionScanPosition = compactionScanPosition + 1 < slabs.size() ? compactionScanPosition + 1 : 0;
+                work++;
+                if (isWorthEvacuating(slab)) {
+                    startEvacuating(slab);
+                }
+                else {
+                    slabsScannedWithoutCandidate++;
+                }
+            }
+            else {
+                int position = evacuatedSlab.firstOccupied();
+                long fromHandle = handleOf(evacuatedSlab, position);
+                long toHandle = allocate();
+                copy(fromHandle, toHandle);
+                free(fromHandle); // releases evacuated slab once last object is moved out
+                listener.relocated(fromHandle, toHandle);
+                work++;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes slab contents into a file, where each slab is at offset of its index times slab
+     * size, so it can be mapped back without any parsing, and free slot bitmaps with slot
+     * generations into separate state file, so handles stay valid after restore. Cached slabs
+     * are empty and compaction progress can be restarted, so neither is saved.
+     * <p>
+     * Files are written next to the old ones and then moved over them, because allocator restored
+     * from the same directory still maps old slab file, and truncating it would crash JVM with
+     * SIGBUS on next access. Replaced file stays on disk until its last mapping is gone.
+     */
+    public void writeSnapshot(Path directory) throws IOException {
+        Path slabsTemp = temporaryFileFor(directory.resolve(SLABS_FILE));
+        Path stateTemp = temporaryFileFor(directory.resolve(STATE_FILE));
+        try (
+                FileChannel slabsFile = FileChannel.open(
+                        slabsTemp,
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING
+                );
+                DataOutputStream state = new DataOutputStream(new BufferedOutputStream(
+                        Files.newOutputStream(stateTemp)
+                ))
+        ) {
+            state.writeInt(objectSizeBytes);
+            state.writeInt(slabSizeBytes);
+            state.writeInt(slabs.size());
+            for (int index = 0; index < slabs.size(); index++) {
+                Slab slab = slabs.get(index);
+                state.writeBoolean(slab != null);
+                for (short generation : generationsBySlabIndex.get(index)) {
+                    state.writeShort(generation);
+                }
+                if (slab != null) {
+                    slab.writeFreeSlotsTo(state);
+                    ByteBuffer contents = slab.buffer.duplicate();
+                    contents.clear().limit(slabSizeBytes);
+                    long position = (long) index * slabSizeBytes;
+                    while (contents.hasRemaining()) {
+                        position += slabsFile.write(contents, position);
+                    }
+                }
+            }
+            slabsFile.force(false);
+        }
+        replace(directory.resolve(SLABS_FILE), slabsTemp);
+        replace(directory.resolve(STATE_FILE), stateTemp);
+    }
+
+    static Path temporaryFileFor(Path file) {
+        return file.resolveSibling(file.getFileName() + ".tmp");
+    }
+
+    /**
+     * Renames {@code temporaryFile} over {@code file}, so readers see either old or new file and
+     * mappings of old file stay valid.
+     */
+    static void replace(Path file, Path temporaryFile) throws IOException {
+        Files.move(temporaryFile, file, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Restores allocator from snapshot written by {@link #writeSnapshot(Path)}. Slabs are mapped
+     * privately (copy on write), so pages are loaded lazily on first access and changes made after
+     * restore never modify snapshot. Slabs allocated after restore come from {@code storage}.
+     */
+    public static SlabAllocator restore(
+            Path directory,
+            int objectSizeBytes,
+            SlabStorage storage,
+            int maxCachedSlabs
+    ) throws IOException {
+        try (
+                FileChannel slabsFile = FileChannel.open(
+                        directory.resolve(SLABS_FILE),
+                        StandardOpenOption.READ,
+                        StandardOpenOption.WRITE // private mapping requires channel open for writing
+                );
+                DataInputStream state = new DataInputStream(new BufferedInputStream(
+                        Files.newInputStream(directory.resolve(STATE_FILE))
+                ))
+        ) {
+            int snapshotObjectSizeBytes = state.readInt();
+            if (snapshotObjectSizeBytes != objectSizeBytes) {
+                throw new IOException("Snapshot contains objects of " + snapshotObjectSizeBytes + " bytes, expected " + objectSizeBytes);
+            }
+            int slabSizeBytes = state.readInt();
+            int slabsPerMapping = (int) (MAPPING_SIZE_BYTES / slabSizeBytes);
+            SlabAllocator allocator = new SlabAllocator(objectSizeBytes, slabSizeBytes, storage, maxCachedSlabs);
+            int slabListSize = state.readInt();
+            MappedByteBuffer mapping = null;
+            int mappingIndex = -1;
+            for (int index = 0; index < slabListSize; index++) {
+                boolean present = state.readBoolean();
+                short[] generations = new short[allocator.maxObjectsInSlab];
+                for (int i = 0; i < generations.length; i++) {
+                    generations[i] = state.readShort();
+                }
+                allocator.generationsBySlabIndex.add(generations);
+                if (!present) {
+                    allocator.slabs.add(null);
+                    allocator.releasedSlabIndexes.pushInt(index);
+                    continue;
+                }
+                if (index / slabsPerMapping != mappingIndex) {
+                    mappingIndex = index / slabsPerMapping;
+                    long mappingStart = (long) mappingIndex * slabsPerMapping * slabSizeBytes;
+                    long mappingSize = Math.min(slabsFile.size() - mappingStart, (long) slabsPerMapping * slabSizeBytes);
+                    mapping = slabsFile.map(FileChannel.MapMode.PRIVATE, mappingStart, mappingSize);
+                }
+                int offset = (index % slabsPerMapping) * slabSizeBytes;
+                ByteBuffer buffer = mapping.duplicate().position(offset).limit(offset + slabSizeBytes).slice();
+
+                Slab slab = new Slab(buffer, slabSizeBytes, objectSizeBytes);
+                slab.readFreeSlotsFrom(state);
+                slab.index = index;
+                slab.generations = generations;
+                allocator.slabs.add(slab);
+                allocator.slabCount++;
+                allocator.liveObjects += slab.liveCount();
+                if (slab.hasSpace()) {
+                    allocator.addToPartialSlabs(slab);
+                }
+            }
+            return allocator;
+        }
+    }
+
+    public int maxObjectsInSlab() {
+        return maxObjectsInSlab;
+    }
+
+    public int slabCount() {
+        return slabCount;
+    }
+
+    public int liveObjects() {
+        return liveObjects;
+    }
+
+    /**
+     * Walks bitmaps of all slabs, so should be called periodically rather than per allocation
+     *
+     * @return total number of runs of adjacent free slots in all slabs
+     */
+    public long freeRunCount() {
+        long runs = 0;
+        for (Slab slab : slabs) {
+            if (slab != null) {
+                runs += slab.freeRunCount();
+            }
+        }
+        return runs;
+    }
+
+    public int cachedSlabCount() {
+        return cachedSlabs.size();
+    }
+
+    /**
+     * @return number of slabs whose free slot bitmap was searched by allocations since creation,
+     * so that tests can check that allocation never walks slabs
+     */
+    long inspectedSlabCount() {
+        return inspectedSlabCount;
+    }
+
+
+    private long handleOf(Slab slab, int indexWithinSlab) {
+        long generation = slab.generations[indexWithinSlab] & GENERATION_MASK;
+        return (generation << ADDRESS_BITS) | ((long) slab.index << slotBits) | indexWithinSlab;
+    }
+
+    private int slabIndex(long handle) {
+        return (int) ((handle & ADDRESS_MASK) >>> slotBits);
+    }
+
+    private int indexWithinSlab(long handle) {
+        return (int) handle & slotMask;
+    }
+
+    private static int generationOf(long handle) {
+        return (int) (handle >>> ADDRESS_BITS);
+    }
+
+    private Slab validSlabOf(long handle) {
+        if (!isValid(handle)) {
+            throw new IllegalStateException("Stale handle [" + handle + "], object was freed or relocated");
+        }
+        return slabs.get(slabIndex(handle));
+    }
+
+    private Slab findOrCreateVacantSlab() {
+        if (partialSlabs == null) {
+            addToPartialSlabs(createSlab());
+        }
+        return partialSlabs;
+    }
+
+    private Slab createSlab() {
+        Slab slab = cachedSlabs.isEmpty()
+                ? new Slab(storage.allocate(slabSizeBytes), slabSizeBytes, objectSizeBytes)
+                : cachedSlabs.pop();
+        if (releasedSlabIndexes.isEmpty()) {
+            if (slabs.size() == maxSlabs) {
+                cachedSlabs.push(slab);
+                throw new IllegalStateException("Ran out of handles, cannot create more than " + maxSlabs + " slabs");
+            }
+            slab.index = slabs.size();
+            slabs.add(slab);
+            generationsBySlabIndex.add(new short[maxObjectsInSlab]);
+        }
+        else {
+            slab.index = releasedSlabIndexes.popInt();
+            slabs.set(slab.index, slab);
+        }
+        slab.generations = generationsBySlabIndex.get(slab.index);
+        slabCount++;
+        return slab;
+    }
+
+    private void release(Slab slab) {
+        slabs.set(slab.index, null);
+        releasedSlabIndexes.pushInt(slab.index);
+        slabCount--;
+
+        cachedSlabs.push(slab);
+        if (cachedSlabs.size() > maxCachedSlabs) {
+            // trim to half, so that next releases are cached again instead of dropped one by one
+            while (cachedSlabs.size() > maxCachedSlabs / 2) {
+                cachedSlabs.removeLast(); // left to GC, see class doc
+            }
+        }
+    }
+
+    private int freeSlots() {
+        return slabCount * maxObjectsInSlab - liveObjects;
+    }
+
+    private boolean isWorthEvacuating(Slab slab) {
+        return slab != null
+                && slab.liveCount() <= sparseSlabMaxObjects
+                && freeSlots() - slab.freeSlotCount() >= slab.liveCount(); // otherwise it would need a new slab
+    }
+
+    private void startEvacuating(Slab slab) {
+        slabsScannedWithoutCandidate = 0;
+        // taking slab off partial list guarantees that relocated objects land in other slabs
+        if (slab.hasSpace()) {
+            removeFromPartialSlabs(slab);
+        }
+        evacuatedSlab = slab;
+    }
+
+    private void copy(long fromHandle, long toHandle) {
+        Slab from = slabs.get(slabIndex(fromHandle));
+        Slab to = slabs.get(slabIndex(toHandle));
+        int fromOffset = from.byteOffsetOf(indexWithinSlab(fromHandle));
+        int toOffset = to.byteOffsetOf(indexWithinSlab(toHandle));
+        int i = 0;
+        for (; i + Long.BYTES <= objectSizeBytes; i += Long.BYTES) {
+            to.buffer.putLong(toOffset + i, from.buffer.getLong(fromOffset + i));
+        }
+        for (; i < objectSizeBytes; i++) {
+            to.buffer.put(toOffset + i, from.buffer.get(fromOffset + i));
+        }
+    }
+
+    private void addToPartialSlabs(Slab slab) {
+        slab.previousPartial = null;
+        slab.nextPartial = partialSlabs;
+        if (partialSlabs != null) {
+            partialSlabs.previousPartial = slab;
+        }
+        partialSlabs = slab;
+    }
+
+    private void removeFromPartialSlabs(Slab slab) {
+        if (slab.previousPartial == null) {
+            partialSlabs = slab.nextPartial;
+        }
+        else {
+            slab.previousPartial.nextPartial = slab.nextPartial;
+        }
+        if (slab.nextPartial != null) {
+            slab.nextPartial.previousPartial = slab.previousPartial;
+        }
+        slab.previousPartial = null;
+        slab.nextPartial = null;
+    }
+}
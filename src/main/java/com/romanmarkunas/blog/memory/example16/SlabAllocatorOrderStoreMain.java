@@ -4,7 +4,7 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.exc.ValueInstantiationException;
 import com.romanmarkunas.blog.memory.example15.PooledByteArrayMap;
-import gnu.trove.map.hash.TLongIntHashMap;
+import gnu.trove.map.hash.TLongLongHashMap;
 import org.agrona.collections.Int2ObjectHashMap;
 
 import java.io.IOException;
@@ -14,22 +14,38 @@ import java.util.concurrent.locks.LockSupport;
 
 public class SlabAllocatorOrderStoreMain {
 
+    private static final int COMPACTION_WORK_PER_IDLE_LOOP = 64;
+    private static final int ORDERS_PER_METRICS_UPDATE = 100_000;
+
     public static void main(String[] args) throws IOException {
         long startTimeMs = System.currentTimeMillis();
 
         ObjectMapper mapper = new ObjectMapper();
         PooledByteArrayMap pool = new PooledByteArrayMap(80_000);
         OrderSlabAllocator orderAllocator = new OrderSlabAllocator(pool);
+        OrderSlabAllocatorMetrics metrics = new OrderSlabAllocatorMetrics(orderAllocator).register("orders");
+
+        TLongLongHashMap ordersById = new TLongLongHashMap(8, 0.99f, -1, -1);
+        Int2ObjectHashMap<long[]> ordersByUser = new Int2ObjectHashMap<>(8, 0.85f);
 
-        TLongIntHashMap ordersById = new TLongIntHashMap(8, 0.99f, -1, -1);
-        Int2ObjectHashMap<int[]> ordersByUser = new Int2ObjectHashMap<>(8, 0.85f);
+        RelocationListener updateIndexes = (fromHandle, toHandle) -> {
+            OrderView relocated = orderAllocator.get(toHandle);
+            ordersById.put(relocated.getId(), toHandle);
+            long[] orders = ordersByUser.get(relocated.getUserPoolKey());
+            for (int i = 0; i < orders.length; i++) {
+                if (orders[i] == fromHandle) {
+                    orders[i] = toHandle;
+                    break;
+                }
+            }
+        };
 
         try (Scanner scanner = new Scanner(System.in)) {
             while (true) {
                 if (scanner.hasNextLine()) {
                     String received = scanner.nextLine();
                     JsonNode orderFields = mapper.readTree(received);
-                    int orderRef = orderAllocator.allocate();
+                    long orderRef = orderAllocator.allocate();
                     OrderView orderView = orderAllocator.get(orderRef);
                     orderView.set(
                             orderFields.get("id").asLong(),
@@ -46,20 +62,25 @@ public class SlabAllocatorOrderStoreMain {
 
                     ordersById.put(orderView.getId(), orderRef);
 
-                    // cannot use IntArrayList as it has min capacity of 10
+                    // cannot use LongArrayList as it has min capacity of 10
                     int userPoolKey = orderView.getUserPoolKey();
-                    int[] orders = ordersByUser.get(userPoolKey);
+                    long[] orders = ordersByUser.get(userPoolKey);
                     if (orders == null) {
-                        ordersByUser.put(userPoolKey, new int[] {orderRef});
+                        ordersByUser.put(userPoolKey, new long[] {orderRef});
                     }
                     else {
-                        int[] newOrders = new int[orders.length + 1];
+                        long[] newOrders = new long[orders.length + 1];
                         System.arraycopy(orders, 0, newOrders, 0, orders.length);
                         newOrders[orders.length] = orderRef;
                         ordersByUser.put(userPoolKey, newOrders);
                     }
+
+                    if (ordersById.size() % ORDERS_PER_METRICS_UPDATE == 0) {
+                        metrics.update();
+                    }
                 }
-                else {
+                else if (!orderAllocator.compact(COMPACTION_WORK_PER_IDLE_LOOP, updateIndexes)) {
+                    metrics.update();
                     LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(5));
                 }
             }
@@ -0,0 +1,79 @@
+package com.romanmarkunas.blog.memory.example16;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Owns a view and moves it between objects of {@link SlabAllocator} by handle or in physical
+ * order of objects. Unlike {@code get(handle)} of typed allocators, which rebinds one view shared
+ * by all callers, every cursor has its own view, so several objects can be held at once, e.g. to
+ * compare or copy them, and each thread can read through its own cursor while allocator is not
+ * modified.
+ * <p>
+ * Cursor is meant to be created once and reused, moving it does not allocate.
+ */
+public final class SlabCursor<V> {
+
+    private static final long NO_HANDLE = -1; // handles are never negative, same as end of walk
+
+    private final SlabAllocator slabs;
+    private final V view;
+    private final Binder<V> binder;
+
+    private long handle = NO_HANDLE;
+
+
+    public SlabCursor(SlabAllocator slabs, V view, Binder<V> binder) {
+        this.slabs = slabs;
+        this.view = view;
+        this.binder = binder;
+    }
+
+
+    /**
+     * @return view of this cursor bound to object of {@code handle}
+     * @throws IllegalStateException if handle is stale
+     */
+    public V moveTo(long handle) {
+        V bound = binder.bind(view, slabs.bufferOf(handle), slabs.byteOffsetOf(handle));
+        this.handle = handle;
+        return bound;
+    }
+
+    /**
+     * Moves to next live object in physical order, see {@link SlabAllocator#nextLive(long)}, or to
+     * the first one if cursor was not moved yet. Object under cursor can be freed while walking,
+     * objects allocated while walking may or may not be visited, and objects must not be relocated
+     * by compaction until walk is over.
+     *
+     * @return false once all live objects were visited, cursor then starts over from the first one
+     */
+    public boolean next() {
+        handle = slabs.nextLive(handle);
+        if (handle == NO_HANDLE) {
+            return false;
+        }
+        binder.bind(view, slabs.bufferOf(handle), slabs.byteOffsetOf(handle));
+        return true;
+    }
+
+    /**
+     * @return view of this cursor, bound to object of last {@link #moveTo(long)} or {@link #next()}
+     */
+    public V view() {
+        if (handle == NO_HANDLE) {
+            throw new IllegalStateException("Cursor is not on any object");
+        }
+        return view;
+    }
+
+    public long handle() {
+        return handle;
+    }
+
+
+    @FunctionalInterface
+    public interface Binder<V> {
+
+        V bind(V view, ByteBuffer buffer, int startPosition);
+    }
+}
@@ -0,0 +1,54 @@
+package com.romanmarkunas.blog.memory.example16;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Source of memory for slabs. {@link OrderView} only needs a {@link ByteBuffer}, so any of below
+ * can be used interchangeably:
+ * <ul>
+ *     <li>{@link #HEAP} - plain byte[] backed buffers, scanned and copied by GC as any other object</li>
+ *     <li>{@link #DIRECT} - native memory outside of heap, not limited by -Xmx, but by -XX:MaxDirectMemorySize</li>
+ *     <li>{@link #mappedFiles(Path)} - native memory backed by files, can be paged out by OS</li>
+ * </ul>
+ */
+public interface SlabStorage {
+
+    SlabStorage HEAP = ByteBuffer::allocate;
+    SlabStorage DIRECT = ByteBuffer::allocateDirect;
+
+    static SlabStorage mappedFiles(Path directory) {
+        return sizeBytes -> map(directory, sizeBytes);
+    }
+
+
+    /**
+     * There is no counterpart to give memory back: views bound to slab objects may outlive the slab
+     * in allocator, and freeing native memory under them would crash JVM on next read. Direct and
+     * mapped buffers are freed by their cleaners once GC finds them unreachable.
+     */
+    ByteBuffer allocate(int sizeBytes);
+
+
+    private static ByteBuffer map(Path directory, int sizeBytes) {
+        try {
+            Path file = Files.createTempFile(directory, "slab-", ".bin");
+            try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+                raf.setLength(sizeBytes);
+                return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, sizeBytes);
+            }
+            finally {
+                // mapping stays valid after file is unlinked, OS reclaims it once buffer is unmapped
+                Files.deleteIfExists(file);
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Unable to map slab file in " + directory, e);
+        }
+    }
+}
@@ -2,6 +2,8 @@ package com.romanmarkunas.blog.memory.example14;
 
 import com.sun.management.ThreadMXBean;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
 
 import java.lang.management.ManagementFactory;
 import java.util.Arrays;
@@ -78,6 +80,20 @@ class PooledByteArrayMapTest {
         assertThat(poolUnderTest.size()).isEqualTo(2);
     }
 
+    @ParameterizedTest
+    @EnumSource(HashStrategy.class)
+    void putDifferentValuesReturnsDifferentKeysWithEveryHashStrategy(HashStrategy hashing) {
+        PooledByteArrayMap poolUnderTest = new PooledByteArrayMap(INITIAL_CAPACITY, hashing);
+
+        int key1 = poolUnderTest.put(new byte[] {1, 0});
+        int key2 = poolUnderTest.put(new byte[] {0, 31});
+        int key3 = poolUnderTest.put(new byte[] {1, 0});
+
+        assertThat(key1).isNotEqualTo(key2);
+        assertThat(key1).isEqualTo(key3);
+        assertThat(poolUnderTest.size()).isEqualTo(2);
+    }
+
     @Test
     void putOnNotFullMapDoesNotCauseResize() {
         // given
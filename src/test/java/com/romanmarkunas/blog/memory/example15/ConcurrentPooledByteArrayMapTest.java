@@ -0,0 +1,227 @@
+package com.romanmarkunas.blog.memory.example15;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ConcurrentPooledByteArrayMapTest {
+
+    private static final int THREADS = 4;
+    private static final int VALUES = 10_000;
+
+    private final ConcurrentPooledByteArrayMap poolUnderTest = new ConcurrentPooledByteArrayMap(8, THREADS);
+
+
+    @Test
+    void shouldRoundConcurrencyLevelUpToPowerOf2Segments() {
+        assertThat(new ConcurrentPooledByteArrayMap(8, 1).segmentCount()).isEqualTo(1);
+        assertThat(new ConcurrentPooledByteArrayMap(8, 5).segmentCount()).isEqualTo(8);
+        assertThat(new ConcurrentPooledByteArrayMap(8, 256).segmentCount()).isEqualTo(256);
+        assertThatThrownBy(() -> new ConcurrentPooledByteArrayMap(8, 257))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new ConcurrentPooledByteArrayMap(8, 4, ValueStorage.DIRECT_ARENA))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void shouldPutGetAndFreeSameWayAsSingleThreadedPool() {
+        // given
+        int key1 = poolUnderTest.put(new byte[] {1});
+        int key2 = poolUnderTest.put(new byte[] {2, 2});
+
+        // when
+        int key1Again = poolUnderTest.put(new byte[] {1});
+        poolUnderTest.free(key1);
+        poolUnderTest.free(key2);
+
+        // then
+        assertThat(key1Again).isEqualTo(key1);
+        assertThat(getForAssertion(poolUnderTest, key1)).isEqualTo(new byte[] {1});
+        assertThat(getForAssertion(poolUnderTest, key2)).isNull();
+        assertThat(poolUnderTest.size()).isEqualTo(1);
+        assertThat(poolUnderTest.contentEquals(key1, new byte[] {0, 1}, 1, 1)).isTrue();
+        assertThat(poolUnderTest.contentEquals(key2, new byte[] {2, 2}, 0, 2)).isFalse();
+    }
+
+    @Test
+    void putOfSliceShouldPoolSameValueAsWholeArray() {
+        // given
+        int key = poolUnderTest.put(new byte[] {1, 2, 3});
+
+        // when
+        int sliceKey = poolUnderTest.put(new byte[] {9, 1, 2, 3, 9}, 1, 3);
+        int newSliceKey = poolUnderTest.put(new byte[] {9, 4, 9}, 1, 1);
+
+        // then
+        assertThat(sliceKey).isEqualTo(key);
+        assertThat(getForAssertion(poolUnderTest, newSliceKey)).isEqualTo(new byte[] {4});
+        assertThat(poolUnderTest.put(new byte[] {4})).isEqualTo(newSliceKey);
+        assertThatThrownBy(() -> poolUnderTest.put(new byte[4], 2, 3)).isInstanceOf(IndexOutOfBoundsException.class);
+    }
+
+    @Test
+    void shouldSumStatisticsOverSegments() {
+        // given
+        for (int i = 0; i < VALUES; i++) {
+            poolUnderTest.put(valueOf(i));
+        }
+        poolUnderTest.free(poolUnderTest.put(valueOf(-1)));
+
+        // then
+        assertThat(poolUnderTest.capacity()).isGreaterThanOrEqualTo(VALUES);
+        assertThat(poolUnderTest.tombstones()).isEqualTo(1);
+        assertThat(poolUnderTest.lookupCount()).isEqualTo(VALUES + 1);
+        assertThat(poolUnderTest.probeCount()).isGreaterThanOrEqualTo(VALUES + 1);
+    }
+
+    @Test
+    void compactValuesShouldGiveBackBytesOfFreedValuesInEverySegment() {
+        // given
+        ConcurrentPooledByteArrayMap poolUnderTest = new ConcurrentPooledByteArrayMap(1_000, THREADS, ValueStorage.HEAP_ARENA);
+        int[] keys = new int[100];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = poolUnderTest.put(valueOf(i));
+        }
+        for (int i = 0; i < keys.length; i += 2) {
+            poolUnderTest.free(keys[i]);
+        }
+        assertThat(poolUnderTest.wastedValueBytes()).isGreaterThan(0);
+
+        // when
+        poolUnderTest.compactValues();
+
+        // then
+        assertThat(poolUnderTest.wastedValueBytes()).isEqualTo(0);
+        for (int i = 1; i < keys.length; i += 2) {
+            assertThat(getForAssertion(poolUnderTest, keys[i])).isEqualTo(valueOf(i));
+        }
+    }
+
+    @Test
+    void concurrentPutsOfSameValuesShouldGiveSameKeysAndCountEveryUsage() throws Exception {
+        // when every thread puts same values while segments resize
+        List<int[]> keysByThread = runConcurrently(() -> {
+            int[] keys = new int[VALUES];
+            for (int i = 0; i < VALUES; i++) {
+                keys[i] = poolUnderTest.put(valueOf(i));
+            }
+            return keys;
+        });
+
+        // then
+        for (int[] keys : keysByThread) {
+            assertThat(keys).isEqualTo(keysByThread.get(0));
+        }
+        assertThat(poolUnderTest.size()).isEqualTo(VALUES);
+
+        // when all but last put of every value is matched by free from other thread
+        int[] keys = keysByThread.get(0);
+        runConcurrently(() -> {
+            for (int i = 0; i < VALUES; i++) {
+                poolUnderTest.free(keys[i]);
+            }
+            return null;
+        }, THREADS - 1);
+
+        // then
+        assertThat(poolUnderTest.size()).isEqualTo(VALUES);
+        for (int i = 0; i < VALUES; i++) {
+            assertThat(getForAssertion(poolUnderTest, keys[i])).isEqualTo(valueOf(i));
+            poolUnderTest.free(keys[i]);
+        }
+        assertThat(poolUnderTest.size()).isEqualTo(0);
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = ValueStorage.class, names = "DIRECT_ARENA", mode = EnumSource.Mode.EXCLUDE)
+    void readersShouldAlwaysSeeValueOfKeyWhileWritersResizeSegments(ValueStorage storage) throws Exception {
+        // given
+        ConcurrentPooledByteArrayMap poolUnderTest = new ConcurrentPooledByteArrayMap(8, THREADS, storage);
+        int[] stableKeys = new int[100];
+        for (int i = 0; i < stableKeys.length; i++) {
+            stableKeys[i] = poolUnderTest.put(valueOf(-i - 1));
+        }
+        AtomicBoolean writing = new AtomicBoolean(true);
+
+        // when
+        List<Integer> mismatchesByThread = runConcurrently(new Callable<Integer>() {
+            private final AtomicBoolean writerTaken = new AtomicBoolean();
+
+            @Override
+            public Integer call() {
+                if (writerTaken.compareAndSet(false, true)) {
+                    for (int i = 0; i < VALUES; i++) {
+                        poolUnderTest.free(poolUnderTest.put(valueOf(i)));
+                        poolUnderTest.put(valueOf(i));
+                    }
+                    writing.set(false);
+                    return 0;
+                }
+                int mismatches = 0;
+                while (writing.get()) {
+                    for (int i = 0; i < stableKeys.length; i++) {
+                        if (!Arrays.equals(getForAssertion(poolUnderTest, stableKeys[i]), valueOf(-i - 1))) {
+                            mismatches++;
+                        }
+                    }
+                }
+                return mismatches;
+            }
+        });
+
+        // then
+        assertThat(mismatchesByThread).containsOnly(0);
+        assertThat(poolUnderTest.size()).isEqualTo(stableKeys.length + VALUES);
+    }
+
+
+    private <T> List<T> runConcurrently(Callable<T> task) throws Exception {
+        return runConcurrently(task, THREADS);
+    }
+
+    private static <T> List<T> runConcurrently(Callable<T> task, int threads) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<T>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return task.call();
+                }));
+            }
+            start.countDown();
+            List<T> results = new ArrayList<>();
+            for (Future<T> future : futures) {
+                results.add(future.get(30, TimeUnit.SECONDS));
+            }
+            return results;
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static byte[] valueOf(int i) {
+        return new byte[] {(byte) (i >>> 24), (byte) (i >>> 16), (byte) (i >>> 8), (byte) i};
+    }
+
+    @SuppressWarnings("byte.array.weakening")
+    private static byte [] getForAssertion(ConcurrentPooledByteArrayMap pool, int key) {
+        return pool.get(key);
+    }
+}
@@ -0,0 +1,114 @@
+package com.romanmarkunas.blog.memory.example15;
+
+import com.romanmarkunas.blog.memory.address.Address;
+import com.romanmarkunas.blog.memory.address.AlaskaAddressArchive;
+import com.romanmarkunas.blog.memory.example14.HashStrategy;
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Function;
+
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Benchmarks, numbers are printed to stdout. Synthetic addresses are generated, so they run with
+ * the build, Alaska addresses need address archive in src/main/resources, see {@link AlaskaAddressArchive}.
+ */
+class PooledByteArrayMapHashStrategyTest {
+
+    private static final int MEASURED_PASSES = 20;
+    private static final String[] STREET_TYPES = {"St", "Ave", "Rd", "Dr", "Ct"};
+
+
+    @Test
+    void collisionsAndProbeLengthsOfSyntheticStreetsAndHouseNumbers() {
+        // numbered streets and house numbers differ in last bytes only, worst case of ARRAYS_HASH_CODE
+        Random random = new Random(42);
+        List<byte[]> streets = new ArrayList<>();
+        List<byte[]> houseNumbers = new ArrayList<>();
+        for (int i = 0; i < 50_000; i++) {
+            int street = 1 + random.nextInt(999);
+            streets.add((ordinal(street) + " " + STREET_TYPES[random.nextInt(STREET_TYPES.length)])
+                    .getBytes(StandardCharsets.UTF_8));
+            houseNumbers.add(Integer.toString(1 + random.nextInt(9_999)).getBytes(StandardCharsets.UTF_8));
+        }
+        printCollisionsAndProbeLengths("streets", streets);
+        printCollisionsAndProbeLengths("house numbers", houseNumbers);
+    }
+
+    @Disabled
+    @Test
+    void collisionsAndProbeLengthsOfAlaskaStreetsAndCities() {
+        List<Address> addresses = AlaskaAddressArchive.read();
+        printCollisionsAndProbeLengths("streets", valuesOf(addresses, Address::getStreet));
+        printCollisionsAndProbeLengths("cities", valuesOf(addresses, Address::getCity));
+    }
+
+
+    private static void printCollisionsAndProbeLengths(String name, List<byte[]> values) {
+        Set<String> distinctValues = new HashSet<>();
+        for (byte[] value : values) {
+            distinctValues.add(new String(value, StandardCharsets.UTF_8));
+        }
+        System.out.printf("%,d %s, %,d distinct%n", values.size(), name, distinctValues.size());
+
+        for (HashStrategy hashing : HashStrategy.values()) {
+            Set<Integer> distinctHashCodes = new HashSet<>();
+            for (String value : distinctValues) {
+                distinctHashCodes.add(hashing.hash(value.getBytes(StandardCharsets.UTF_8)));
+            }
+
+            // sized to fit all values, so that probes are measured at highest load before resize
+            PooledByteArrayMap pool = new PooledByteArrayMap(distinctValues.size(), ValueStorage.ARRAYS, hashing);
+            for (byte[] value : values) {
+                pool.put(value);
+            }
+            long insertProbes = pool.probeCount();
+            long insertLookups = pool.lookupCount();
+            assertThat(pool.size()).isEqualTo(distinctValues.size());
+
+            long startNs = System.nanoTime();
+            for (int pass = 0; pass < MEASURED_PASSES; pass++) {
+                for (byte[] value : values) {
+                    pool.put(value);
+                }
+            }
+            long elapsedNs = System.nanoTime() - startNs;
+
+            System.out.printf(
+                    "%18s: %,6d hash collisions, %5.3f probes per first pass put, %5.3f probes per hit, %6.1f ns per hit%n",
+                    hashing,
+                    distinctValues.size() - distinctHashCodes.size(),
+                    (double) insertProbes / insertLookups,
+                    (double) (pool.probeCount() - insertProbes) / (pool.lookupCount() - insertLookups),
+                    (double) elapsedNs / MEASURED_PASSES / values.size()
+            );
+        }
+    }
+
+    private static String ordinal(int n) {
+        if (n % 100 >= 11 && n % 100 <= 13) {
+            return n + "th";
+        }
+        switch (n % 10) {
+            case 1: return n + "st";
+            case 2: return n + "nd";
+            case 3: return n + "rd";
+            default: return n + "th";
+        }
+    }
+
+    private static List<byte[]> valuesOf(List<Address> addresses, Function<Address, String> part) {
+        return addresses.stream()
+                .map(part)
+                .map(value -> value.getBytes(StandardCharsets.UTF_8))
+                .collect(toList());
+    }
+}
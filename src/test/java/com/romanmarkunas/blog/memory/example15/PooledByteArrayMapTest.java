@@ -1,10 +1,22 @@
 package com.romanmarkunas.blog.memory.example15;
 
+import com.romanmarkunas.blog.memory.example14.HashStrategy;
 import com.sun.management.ThreadMXBean;
 import org.junit.jupiter.api.Test;
-
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
@@ -228,6 +240,546 @@ class PooledByteArrayMapTest {
         assertThat(getForAssertion(key1)).isNotNull();
     }
 
+    @Test
+    void putShouldFindValueBehindRemovedSlotWithSameHashCode() {
+        // given
+        byte[] arr1 = {1, 0}; // 31* (31 + 1) + 0
+        byte[] arr2 = {0, 31}; // 31* (31 + 0) + 31
+        int key1 = poolUnderTest.put(arr1);
+        int key2 = poolUnderTest.put(arr2);
+        poolUnderTest.free(key1);
+
+        // when
+        int key = poolUnderTest.put(new byte[] {0, 31});
+
+        // then
+        assertThat(key).isEqualTo(key2);
+        assertThat(poolUnderTest.size()).isEqualTo(1);
+        assertThat(poolUnderTest.tombstones()).isEqualTo(1);
+    }
+
+    @Test
+    void tombstonesShouldNotFillSlotsOfMapWhichDoesNotGrow() {
+        // given
+        PooledByteArrayMap poolUnderTest = new PooledByteArrayMap(1_000);
+
+        // when
+        for (int i = 0; i < 100_000; i++) {
+            poolUnderTest.free(poolUnderTest.put(new byte[] {(byte) (i >>> 16), (byte) (i >>> 8), (byte) i}));
+        }
+
+        // then
+        assertThat(poolUnderTest.capacity()).isEqualTo(1_000);
+        assertThat(poolUnderTest.tombstones()).isLessThanOrEqualTo(1_000);
+        assertThat(poolUnderTest.probeCount()).isLessThan(poolUnderTest.lookupCount() * 3);
+    }
+
+
+    /**
+     * {@link PooledByteArrayMap#tombstones()}, {@link PooledByteArrayMap#probeCount()}
+     */
+
+    @Test
+    void freedValueLeavesTombstoneUntilSlotIsReused() {
+        // given
+        poolUnderTest.put(new byte[] {1});
+        int key = poolUnderTest.put(new byte[] {2});
+
+        // when
+        poolUnderTest.free(key);
+
+        // then
+        assertThat(poolUnderTest.tombstones()).isEqualTo(1);
+        poolUnderTest.put(new byte[] {2});
+        assertThat(poolUnderTest.tombstones()).isEqualTo(0);
+    }
+
+    @Test
+    void resizeDropsTombstones() {
+        // given
+        int key = poolUnderTest.put(new byte[] {-1});
+        poolUnderTest.free(key);
+
+        // when
+        givenFullPool();
+        poolUnderTest.put(new byte[] {-2});
+
+        // then
+        assertThat(poolUnderTest.capacity()).isGreaterThan(INITIAL_CAPACITY);
+        assertThat(poolUnderTest.tombstones()).isEqualTo(0);
+    }
+
+    @Test
+    void shouldCountProbesOfEveryPut() {
+        // given
+        PooledByteArrayMap poolUnderTest = new PooledByteArrayMap(1);
+
+        // when
+        poolUnderTest.put(new byte[] {1});
+        poolUnderTest.put(new byte[] {1});
+
+        // then
+        assertThat(poolUnderTest.lookupCount()).isEqualTo(2);
+        assertThat(poolUnderTest.probeCount()).isEqualTo(2);
+    }
+
+
+    @Test
+    void resizeShouldMoveKeysFewAtATimeAndKeepThemReadable() {
+        // given
+        PooledByteArrayMap poolUnderTest = new PooledByteArrayMap(64);
+        for (int i = 0; i < 64; i++) {
+            poolUnderTest.put(new byte[] {(byte) i});
+        }
+
+        // when
+        int puts = 0;
+        do {
+            poolUnderTest.put(new byte[] {(byte) (-puts - 1)});
+            puts++;
+
+            // then
+            for (int i = 0; i < 64; i++) {
+                assertThat(getForAssertion(poolUnderTest, i)).isEqualTo(new byte[] {(byte) i});
+            }
+        }
+        while (poolUnderTest.isResizing());
+
+        // then
+        assertThat(puts).isEqualTo(8);
+        assertThat(poolUnderTest.capacity()).isGreaterThan(64);
+    }
+
+    @Test
+    void putAndFreeShouldFindValuesNotMovedYetByResize() {
+        // given
+        PooledByteArrayMap poolUnderTest = new PooledByteArrayMap(64);
+        for (int i = 0; i < 64; i++) {
+            poolUnderTest.put(new byte[] {(byte) i});
+        }
+        poolUnderTest.put(new byte[] {-1});
+        assertThat(poolUnderTest.isResizing()).isTrue();
+
+        // when
+        int reusedKey = poolUnderTest.put(new byte[] {63});
+        poolUnderTest.free(62);
+        poolUnderTest.free(reusedKey);
+
+        // then
+        assertThat(reusedKey).isEqualTo(63);
+        assertThat(getForAssertion(poolUnderTest, 62)).isNull();
+        assertThat(getForAssertion(poolUnderTest, 63)).isEqualTo(new byte[] {63});
+        assertThat(poolUnderTest.put(new byte[] {-2})).isEqualTo(62);
+        assertThat(poolUnderTest.size()).isEqualTo(65);
+    }
+
+    @Test
+    void shouldBehaveAsModelMapOverManyIncrementalResizes() {
+        // given
+        PooledByteArrayMap poolUnderTest = new PooledByteArrayMap(1);
+        Map<Integer, byte[]> valuesByKey = new HashMap<>();
+        Map<Integer, Integer> usagesByKey = new HashMap<>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 200_000; i++) {
+            // when
+            byte[] value = new byte[] {(byte) random.nextInt(256), (byte) random.nextInt(256), 7};
+            if (random.nextInt(3) == 0 && !valuesByKey.isEmpty()) {
+                int key = valuesByKey.keySet().iterator().next();
+                poolUnderTest.free(key);
+                if (usagesByKey.merge(key, -1, Integer::sum) == 0) {
+                    usagesByKey.remove(key);
+                    valuesByKey.remove(key);
+                }
+                value = null;
+            }
+            else {
+                int key = poolUnderTest.put(value);
+                byte[] previous = valuesByKey.put(key, value);
+                assertThat(previous == null || Arrays.equals(previous, value)).isTrue();
+                usagesByKey.merge(key, 1, Integer::sum);
+            }
+
+            // then
+            if (value != null) {
+                assertThat(poolUnderTest.size()).isEqualTo(valuesByKey.size());
+            }
+        }
+        for (Map.Entry<Integer, byte[]> entry : valuesByKey.entrySet()) {
+            assertThat(getForAssertion(poolUnderTest, entry.getKey())).isEqualTo(entry.getValue());
+        }
+        assertThat(poolUnderTest.size()).isEqualTo(valuesByKey.size());
+    }
+
+    /**
+     * {@link PooledByteArrayMap#writeTo(java.io.DataOutput)}
+     */
+
+    @Test
+    void restoredMapKeepsKeysUsagesAndRemovedKeyReuseOrder() throws IOException {
+        // given
+        int key1 = poolUnderTest.put(new byte[] {1});
+        int key2 = poolUnderTest.put(new byte[] {2});
+        poolUnderTest.put(new byte[] {2});
+        int key3 = poolUnderTest.put(new byte[] {3});
+        int key4 = poolUnderTest.put(new byte[] {4});
+        poolUnderTest.free(key1);
+        poolUnderTest.free(key3);
+
+        // when
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        poolUnderTest.writeTo(new DataOutputStream(bytes));
+        PooledByteArrayMap restored = PooledByteArrayMap.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        // then
+        assertThat(restored.size()).isEqualTo(2);
+        assertThat(getForAssertion(restored, key1)).isNull();
+        assertThat(getForAssertion(restored, key2)).isEqualTo(new byte[] {2});
+        assertThat(getForAssertion(restored, key4)).isEqualTo(new byte[] {4});
+        assertThat(restored.put(new byte[] {4})).isEqualTo(key4);
+        assertThat(restored.put(new byte[] {5})).isEqualTo(key3);
+        assertThat(restored.put(new byte[] {6})).isEqualTo(key1);
+        restored.free(key2);
+        assertThat(getForAssertion(restored, key2)).isEqualTo(new byte[] {2});
+    }
+
+    @ParameterizedTest
+    @EnumSource(ValueStorage.class)
+    void contentEqualsShouldComparePooledValueWithSliceInEveryStorage(ValueStorage storage) {
+        // given
+        PooledByteArrayMap poolUnderTest = new PooledByteArrayMap(INITIAL_CAPACITY, storage);
+        int key = poolUnderTest.put(new byte[] {1, 2, 3});
+        int freedKey = poolUnderTest.put(new byte[] {4});
+        poolUnderTest.free(freedKey);
+
+        // when
+        byte[] message = {9, 1, 2, 3, 9};
+
+        // then
+        assertThat(poolUnderTest.contentEquals(key, message, 1, 3)).isTrue();
+        assertThat(poolUnderTest.contentEquals(key, message, 1, 2)).isFalse();
+        assertThat(poolUnderTest.contentEquals(key, message, 0, 3)).isFalse();
+        assertThat(poolUnderTest.contentEquals(freedKey, new byte[] {4}, 0, 1)).isFalse();
+    }
+    @Test
+    void contentEqualsShouldSeeValuesNotMovedYetByResize() {
+        // given
+        PooledByteArrayMap poolUnderTest = new PooledByteArrayMap(64);
+        for (int i = 0; i <= 64; i++) {
+            poolUnderTest.put(new byte[] {(byte) i});
+        }
+        assertThat(poolUnderTest.isResizing()).isTrue();
+
+        // then
+        assertThat(poolUnderTest.contentEquals(63, new byte[] {63}, 0, 1)).isTrue();
+        assertThat(poolUnderTest.contentEquals(63, new byte[] {62}, 0, 1)).isFalse();
+    }
+
+
+
+    /**
+     * {@link ValueStorage}
+     */
+
+    @ParameterizedTest
+    @EnumSource(ValueStorage.class)
+    void shouldPoolValuesOfAnyLengthInEveryStorage(ValueStorage storage) {
+        // given
+        PooledByteArrayMap poolUnderTest = new PooledByteArrayMap(INITIAL_CAPACITY, storage);
+        byte[][] values = new byte[][] {
+                new byte[0],
+                filled(127, (byte) 1),
+                filled(128, (byte) 2),
+                filled(16_384, (byte) 3),
+                filled(ValueArena.CHUNK_SIZE + 1, (byte) 4) // does not fit any chunk
+        };
+
+        // when
+        int[] keys = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            keys[i] = poolUnderTest.put(values[i]);
+        }
+
+        // then
+        for (int i = 0; i < values.length; i++) {
+            assertThat(getForAssertion(poolUnderTest, keys[i])).isEqualTo(values[i]);
+            assertThat(poolUnderTest.put(values[i].clone())).isEqualTo(keys[i]);
+        }
+        assertThat(poolUnderTest.size()).isEqualTo(values.length);
+    }
+
+    @ParameterizedTest
+    @EnumSource(ValueStorage.class)
+    void shouldKeepKeysAndValuesOverResizeInEveryStorage(ValueStorage storage) {
+        // given
+        PooledByteArrayMap poolUnderTest = new PooledByteArrayMap(INITIAL_CAPACITY, storage);
+        int removedKey = poolUnderTest.put(new byte[] {-1, -1});
+        poolUnderTest.free(removedKey);
+        int[] keys = new int[100];
+
+        // when
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = poolUnderTest.put(new byte[] {(byte) i, 42});
+        }
+
+        // then
+        assertThat(poolUnderTest.capacity()).isGreaterThan(INITIAL_CAPACITY);
+        for (int i = 0; i < keys.length; i++) {
+            assertThat(getForAssertion(poolUnderTest, keys[i])).isEqualTo(new byte[] {(byte) i, 42});
+        }
+    }
+
+    @Test
+    void arenaShouldAccountFreedValuesUntilCompaction() {
+        // given
+        PooledByteArrayMap poolUnderTest = new PooledByteArrayMap(INITIAL_CAPACITY, ValueStorage.DIRECT_ARENA);
+        int key1 = poolUnderTest.put(new byte[] {1, 1, 1});
+        int key2 = poolUnderTest.put(filled(200, (byte) 2));
+        int key3 = poolUnderTest.put(new byte[] {3});
+        poolUnderTest.put(new byte[] {3});
+
+        // when
+        poolUnderTest.free(key2);
+        poolUnderTest.free(key1);
+        poolUnderTest.free(key3); // still used once
+
+        // then
+        assertThat(poolUnderTest.wastedValueBytes()).isEqualTo(1 + 3 + 2 + 200);
+
+        // when
+        poolUnderTest.compactValues();
+
+        // then
+        assertThat(poolUnderTest.wastedValueBytes()).isEqualTo(0);
+        assertThat(getForAssertion(poolUnderTest, key3)).isEqualTo(new byte[] {3});
+        assertThat(poolUnderTest.put(new byte[] {4})).isEqualTo(key1);
+        assertThat(getForAssertion(poolUnderTest, key1)).isEqualTo(new byte[] {4});
+    }
+
+    @Test
+    void arenaPoolShouldRestoreFromSnapshotOfArrayPool() throws IOException {
+        // given
+        int key1 = poolUnderTest.put(new byte[] {1});
+        int key2 = poolUnderTest.put(new byte[] {2, 2});
+        poolUnderTest.free(key1);
+
+        // when
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        poolUnderTest.writeTo(new DataOutputStream(bytes));
+        PooledByteArrayMap restored = PooledByteArrayMap.readFrom(
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())),
+                ValueStorage.HEAP_ARENA
+        );
+
+        // then
+        assertThat(getForAssertion(restored, key1)).isNull();
+        assertThat(getForAssertion(restored, key2)).isEqualTo(new byte[] {2, 2});
+        assertThat(restored.put(new byte[] {2, 2})).isEqualTo(key2);
+        assertThat(restored.put(new byte[] {1})).isEqualTo(key1);
+    }
+
+
+
+    /**
+     * {@link HashStrategy}
+     */
+
+    @ParameterizedTest
+    @EnumSource(HashStrategy.class)
+    void shouldPoolAndFreeValuesWithEveryHashStrategy(HashStrategy hashing) {
+        // given
+        PooledByteArrayMap poolUnderTest = new PooledByteArrayMap(INITIAL_CAPACITY, ValueStorage.ARRAYS, hashing);
+        int[] keys = new int[1_000];
+
+        // when
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = poolUnderTest.put(new byte[] {(byte) i, (byte) (i >>> 8)});
+        }
+        for (int i = 0; i < keys.length; i += 2) {
+            poolUnderTest.free(keys[i]);
+        }
+
+        // then
+        assertThat(poolUnderTest.size()).isEqualTo(keys.length / 2);
+        for (int i = 1; i < keys.length; i += 2) {
+            assertThat(getForAssertion(poolUnderTest, keys[i])).isEqualTo(new byte[] {(byte) i, (byte) (i >>> 8)});
+            assertThat(poolUnderTest.put(new byte[] {(byte) i, (byte) (i >>> 8)})).isEqualTo(keys[i]);
+        }
+    }
+
+    @Test
+    void poolShouldRestoreFromSnapshotWithOtherHashStrategy() throws IOException {
+        // given
+        int key1 = poolUnderTest.put(new byte[] {1, 0});
+        int key2 = poolUnderTest.put(new byte[] {0, 31}); // same Arrays.hashCode as {1, 0}
+        int key3 = poolUnderTest.put(new byte[] {3});
+        poolUnderTest.free(key3);
+
+        // when
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        poolUnderTest.writeTo(new DataOutputStream(bytes));
+        PooledByteArrayMap restored = PooledByteArrayMap.readFrom(
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())),
+                ValueStorage.ARRAYS,
+                HashStrategy.XX
+        );
+
+        // then
+        assertThat(restored.put(new byte[] {1, 0})).isEqualTo(key1);
+        assertThat(restored.put(new byte[] {0, 31})).isEqualTo(key2);
+        assertThat(restored.put(new byte[] {3})).isEqualTo(key3);
+        assertThat(restored.size()).isEqualTo(3);
+    }
+
+
+
+    /**
+     * {@link PooledByteArrayMap#find(byte[], int, int)}, {@link PooledByteArrayMap#put(byte[], int, int)}
+     */
+
+    @ParameterizedTest
+    @EnumSource(ValueStorage.class)
+    void putOfSliceShouldPoolSameValueAsWholeArray(ValueStorage storage) {
+        // given
+        PooledByteArrayMap poolUnderTest = new PooledByteArrayMap(INITIAL_CAPACITY, storage, HashStrategy.XX);
+        byte[] message = {9, 9, 1, 2, 3, 9};
+        ByteBuffer direct = ByteBuffer.allocateDirect(16).put(message);
+        ByteBuffer heapSlice = ByteBuffer.wrap(message, 1, 5).slice();
+
+        // when
+        int key1 = poolUnderTest.put(message, 2, 3);
+        int key2 = poolUnderTest.put(new byte[] {1, 2, 3});
+        int key3 = poolUnderTest.put(direct, 2, 3);
+        int key4 = poolUnderTest.put(heapSlice.asReadOnlyBuffer(), 1, 3);
+
+        // then
+        assertThat(key2).isEqualTo(key1);
+        assertThat(key3).isEqualTo(key1);
+        assertThat(key4).isEqualTo(key1);
+        assertThat(getForAssertion(poolUnderTest, key1)).isEqualTo(new byte[] {1, 2, 3});
+        assertThat(poolUnderTest.size()).isEqualTo(1);
+        assertThat(direct.position()).isEqualTo(message.length);
+    }
+
+    @Test
+    void findShouldReturnKeyOfPooledValueWithoutChangingItsUsages() {
+        // given
+        int key = poolUnderTest.put(new byte[] {1, 2, 3});
+        ByteBuffer direct = ByteBuffer.allocateDirect(8).put(new byte[] {0, 1, 2, 3});
+
+        // when
+        int foundKey = poolUnderTest.find(new byte[] {0, 1, 2, 3, 4}, 1, 3);
+        int foundInBufferKey = poolUnderTest.find(direct, 1, 3);
+        poolUnderTest.free(key);
+
+        // then
+        assertThat(foundKey).isEqualTo(key);
+        assertThat(foundInBufferKey).isEqualTo(key);
+        assertThat(getForAssertion(poolUnderTest, key)).isNull();
+        assertThat(poolUnderTest.find(new byte[] {1, 2, 3}, 0, 3)).isEqualTo(PooledByteArrayMap.NOT_POOLED);
+    }
+
+    @Test
+    void findShouldNotPoolMissingValue() {
+        // given
+        poolUnderTest.put(new byte[] {1, 2});
+
+        // when
+        int key = poolUnderTest.find(new byte[] {1, 2, 3}, 0, 3);
+
+        // then
+        assertThat(key).isEqualTo(PooledByteArrayMap.NOT_POOLED);
+        assertThat(poolUnderTest.find(new byte[] {1, 2, 3}, 0, 2)).isNotEqualTo(PooledByteArrayMap.NOT_POOLED);
+        assertThat(poolUnderTest.size()).isEqualTo(1);
+    }
+
+    @Test
+    void findShouldRejectSliceOutsideOfArrayOrBufferLimit() {
+        assertThatThrownBy(() -> poolUnderTest.find(new byte[4], 2, 3)).isInstanceOf(IndexOutOfBoundsException.class);
+        assertThatThrownBy(() -> poolUnderTest.put(ByteBuffer.allocate(8).limit(4), 2, 3)).isInstanceOf(IndexOutOfBoundsException.class);
+    }
+
+    @Test
+    void findShouldSeeValuesNotMovedYetByResize() {
+        // given
+        PooledByteArrayMap poolUnderTest = new PooledByteArrayMap(64);
+        for (int i = 0; i <= 64; i++) {
+            poolUnderTest.put(new byte[] {(byte) i});
+        }
+        assertThat(poolUnderTest.isResizing()).isTrue();
+
+        // when
+        int key = poolUnderTest.find(new byte[] {63}, 0, 1);
+
+        // then
+        assertThat(key).isEqualTo(63);
+        assertThat(poolUnderTest.isResizing()).isTrue();
+    }
+
+    @Test
+    void putOfPooledValueShouldNotResizeFullMap() {
+        // given
+        givenFullPool();
+
+        // when
+        poolUnderTest.put(new byte[] {0});
+
+        // then
+        assertThat(poolUnderTest.capacity()).isEqualTo(INITIAL_CAPACITY);
+        assertThat(poolUnderTest.isResizing()).isFalse();
+    }
+
+    @Test
+    void findAndPutOfPooledSliceShouldNotAllocate() {
+        // given
+        byte[] message = {9, 1, 2, 3, 9};
+        ByteBuffer direct = ByteBuffer.allocateDirect(8).put(message);
+        poolUnderTest.put(new byte[] {1, 2, 3});
+        poolUnderTest.find(message, 1, 3); // load classes of all calls below
+        poolUnderTest.free(poolUnderTest.put(direct, 1, 3));
+
+        ThreadMXBean threadMXBean = givenConfiguredOracleThreadMXBean();
+        long allocatedDuringQueryForAllocation = getAllocatedDuringQueryForAllocation(threadMXBean);
+        long initialThreadMemory = threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+
+        // when
+        poolUnderTest.find(message, 1, 3);
+        poolUnderTest.find(direct, 1, 3);
+        poolUnderTest.put(message, 1, 3);
+        poolUnderTest.put(direct, 1, 3);
+
+        // then
+        long finalThreadMemory = threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        assertThat(finalThreadMemory).isEqualTo(initialThreadMemory + allocatedDuringQueryForAllocation);
+    }
+
+    @Test
+    void putOfMissingSliceShouldOnlyAllocateCopyOfIt() {
+        // given
+        byte[] message = {9, 1, 2, 3, 9};
+        poolUnderTest.free(poolUnderTest.put(message, 0, 2)); // create pages and load classes of calls below
+
+        ThreadMXBean threadMXBean = givenConfiguredOracleThreadMXBean();
+        long allocatedDuringQueryForAllocation = getAllocatedDuringQueryForAllocation(threadMXBean);
+        long initialThreadMemory = threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        byte[] copy = new byte[3];
+        long copyMemory = threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+
+        // when
+        int key = poolUnderTest.put(message, 1, 3);
+
+        // then
+        long finalThreadMemory = threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        long copySize = copyMemory - initialThreadMemory - allocatedDuringQueryForAllocation;
+        assertThat(finalThreadMemory - copyMemory - allocatedDuringQueryForAllocation).isEqualTo(copySize);
+        assertThat(getForAssertion(poolUnderTest, key)).isEqualTo(new byte[] {1, 2, 3}).isNotSameAs(copy);
+    }
+
+    private static byte[] filled(int length, byte value) {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, value);
+        return bytes;
+    }
 
     private void givenFullPool() {
         byte[][] values = new byte[INITIAL_CAPACITY][];
@@ -261,4 +813,9 @@ class PooledByteArrayMapTest {
     private byte [] getForAssertion(int key) {
         return poolUnderTest.get(key);
     }
+
+    @SuppressWarnings("byte.array.weakening")
+    private static byte [] getForAssertion(PooledByteArrayMap pool, int key) {
+        return pool.get(key);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,159 @@
+package com.romanmarkunas.blog.memory.example15;
+
+import com.romanmarkunas.blog.memory.example14.HashStrategy;
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+/**
+ * Manual benchmarks, numbers are printed to stdout. Both maps are filled up to load without
+ * resizing, then put + free of pooled value and free + put of new value at same load are measured.
+ */
+@Disabled
+class RobinHoodPooledByteArrayMapLatencyTest {
+
+    private static final double[] LOADS = {0.5, 0.6, 0.7, 0.8, 0.9, 0.95};
+    private static final int SLOTS = 1 << 20;
+    private static final int VALUE_LENGTH = 16;
+    private static final int WARMUP_OPERATIONS = 1_000_000;
+    private static final int MEASURED_OPERATIONS = 5_000_000;
+
+
+    @Test
+    void putLatencyAndProbeLengthAtLoads() {
+        for (double load : LOADS) {
+            int values = (int) (SLOTS * load) - 1; // one more would resize
+            measure("prime step", load, new PrimeStepPool(new PooledByteArrayMap(values + 1, ValueStorage.ARRAYS, HashStrategy.XX, load)), values);
+            measure("robin hood", load, new RobinHoodPool(new RobinHoodPooledByteArrayMap(values + 1, ValueStorage.ARRAYS, HashStrategy.XX, load)), values);
+        }
+    }
+
+
+    private static void measure(String name, double load, Pool pool, int values) {
+        Random random = new Random(42);
+        byte[][] pooledValues = new byte[values][];
+        int[] keys = new int[values];
+        for (int i = 0; i < values; i++) {
+            pooledValues[i] = randomValue(random);
+            keys[i] = pool.put(pooledValues[i]);
+        }
+
+        putPooledValues(pool, pooledValues, random, WARMUP_OPERATIONS);
+        long lookupCount = pool.lookupCount();
+        long probeCount = pool.probeCount();
+        long startNs = System.nanoTime();
+        putPooledValues(pool, pooledValues, random, MEASURED_OPERATIONS);
+        long hitNs = System.nanoTime() - startNs;
+        double hitProbes = (double) (pool.probeCount() - probeCount) / (pool.lookupCount() - lookupCount);
+
+        replaceValues(pool, pooledValues, keys, random, WARMUP_OPERATIONS);
+        lookupCount = pool.lookupCount();
+        probeCount = pool.probeCount();
+        startNs = System.nanoTime();
+        replaceValues(pool, pooledValues, keys, random, MEASURED_OPERATIONS);
+        long replaceNs = System.nanoTime() - startNs;
+        double replaceProbes = (double) (pool.probeCount() - probeCount) / (pool.lookupCount() - lookupCount);
+
+        System.out.printf(
+                "%s at load %.2f: %6.1f ns, %5.2f probes per put + free of pooled value; %6.1f ns, %5.2f probes per free + put of new one%n",
+                name,
+                load,
+                (double) hitNs / MEASURED_OPERATIONS,
+                hitProbes,
+                (double) replaceNs / MEASURED_OPERATIONS,
+                replaceProbes
+        );
+    }
+
+    private static void putPooledValues(Pool pool, byte[][] pooledValues, Random random, int operations) {
+        for (int i = 0; i < operations; i++) {
+            pool.free(pool.put(pooledValues[random.nextInt(pooledValues.length)]));
+        }
+    }
+
+    private static void replaceValues(Pool pool, byte[][] pooledValues, int[] keys, Random random, int operations) {
+        for (int i = 0; i < operations; i++) {
+            int index = random.nextInt(pooledValues.length);
+            pool.free(keys[index]);
+            pooledValues[index] = randomValue(random);
+            keys[index] = pool.put(pooledValues[index]);
+        }
+    }
+
+    private static byte[] randomValue(Random random) {
+        byte[] value = new byte[VALUE_LENGTH];
+        random.nextBytes(value);
+        return value;
+    }
+
+
+    private interface Pool {
+
+        int put(byte[] value);
+
+        void free(int key);
+
+        long lookupCount();
+
+        long probeCount();
+    }
+
+    private static final class PrimeStepPool implements Pool {
+
+        private final PooledByteArrayMap map;
+
+        PrimeStepPool(PooledByteArrayMap map) {
+            this.map = map;
+        }
+
+        @Override
+        public int put(byte[] value) {
+            return map.put(value);
+        }
+
+        @Override
+        public void free(int key) {
+            map.free(key);
+        }
+
+        @Override
+        public long lookupCount() {
+            return map.lookupCount();
+        }
+
+        @Override
+        public long probeCount() {
+            return map.probeCount();
+        }
+    }
+
+    private static final class RobinHoodPool implements Pool {
+
+        private final RobinHoodPooledByteArrayMap map;
+
+        RobinHoodPool(RobinHoodPooledByteArrayMap map) {
+            this.map = map;
+        }
+
+        @Override
+        public int put(byte[] value) {
+            return map.put(value);
+        }
+
+        @Override
+        public void free(int key) {
+            map.free(key);
+        }
+
+        @Override
+        public long lookupCount() {
+            return map.lookupCount();
+        }
+
+        @Override
+        public long probeCount() {
+            return map.probeCount();
+        }
+    }
+}
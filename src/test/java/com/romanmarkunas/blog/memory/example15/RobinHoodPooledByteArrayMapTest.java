@@ -0,0 +1,233 @@
+package com.romanmarkunas.blog.memory.example15;
+
+import com.romanmarkunas.blog.memory.example14.HashStrategy;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RobinHoodPooledByteArrayMapTest {
+
+    private static final int INITIAL_CAPACITY = 7; // 8 slots
+    private final RobinHoodPooledByteArrayMap poolUnderTest = new RobinHoodPooledByteArrayMap(INITIAL_CAPACITY);
+
+
+    @Test
+    void getOnNewMapReturnsNull() {
+        assertThat(getForAssertion(poolUnderTest, 0)).isNull();
+        assertThat(getForAssertion(poolUnderTest, -1)).isNull();
+        assertThat(poolUnderTest.size()).isEqualTo(0);
+    }
+
+    @Test
+    void putSameValueReturnsSameKeyUntilFreedSameNumberOfTimes() {
+        // given
+        int key1 = poolUnderTest.put(new byte[] {1, 1, 1});
+        int key2 = poolUnderTest.put(new byte[] {1, 1, 1});
+
+        // when
+        poolUnderTest.free(key1);
+
+        // then
+        assertThat(key1).isEqualTo(key2);
+        assertThat(getForAssertion(poolUnderTest, key1)).isEqualTo(new byte[] {1, 1, 1});
+
+        // when
+        poolUnderTest.free(key1);
+
+        // then
+        assertThat(getForAssertion(poolUnderTest, key1)).isNull();
+        assertThat(poolUnderTest.size()).isEqualTo(0);
+    }
+
+    @Test
+    void putShouldRejectNull() {
+        assertThatThrownBy(() -> poolUnderTest.put(null)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void freeShouldMoveFollowingValuesBackInsteadOfLeavingTombstone() {
+        // given
+        byte[] value1 = {1, 0};
+        byte[] value2 = {0, 31}; // same Arrays.hashCode, so same starting slot
+        byte[] value3 = {-1, 62};
+        assertThat(Arrays.hashCode(value1)).isEqualTo(Arrays.hashCode(value2)).isEqualTo(Arrays.hashCode(value3));
+        int key1 = poolUnderTest.put(value1);
+        int key2 = poolUnderTest.put(value2);
+        int key3 = poolUnderTest.put(value3);
+
+        // when
+        poolUnderTest.free(key1);
+        long lookupCount = poolUnderTest.lookupCount();
+        long probeCount = poolUnderTest.probeCount();
+        int key = poolUnderTest.put(value3);
+
+        // then
+        assertThat(key).isEqualTo(key3);
+        assertThat(poolUnderTest.probeCount() - probeCount).isEqualTo(2);
+        assertThat(poolUnderTest.lookupCount() - lookupCount).isEqualTo(1);
+        assertThat(getForAssertion(poolUnderTest, key2)).isEqualTo(value2);
+        assertThat(getForAssertion(poolUnderTest, key3)).isEqualTo(value3);
+        assertThat(poolUnderTest.contentEquals(key2, value2, 0, value2.length)).isTrue();
+        assertThat(poolUnderTest.contentEquals(key1, value1, 0, value1.length)).isFalse();
+        assertThat(poolUnderTest.tombstones()).isEqualTo(0);
+    }
+
+    @Test
+    void putOfSliceShouldPoolSameValueAsWholeArray() {
+        // given
+        int key = poolUnderTest.put(new byte[] {1, 2, 3});
+
+        // when
+        int sliceKey = poolUnderTest.put(new byte[] {9, 1, 2, 3, 9}, 1, 3);
+        int newSliceKey = poolUnderTest.put(new byte[] {9, 4, 9}, 1, 1);
+
+        // then
+        assertThat(sliceKey).isEqualTo(key);
+        assertThat(getForAssertion(poolUnderTest, newSliceKey)).isEqualTo(new byte[] {4});
+        assertThat(poolUnderTest.put(new byte[] {4})).isEqualTo(newSliceKey);
+        assertThat(poolUnderTest.size()).isEqualTo(2);
+    }
+
+    @Test
+    void putShouldReuseKeysOfFreedValues() {
+        // given
+        int key1 = poolUnderTest.put(new byte[] {1});
+        int key2 = poolUnderTest.put(new byte[] {2});
+        poolUnderTest.free(key1);
+        poolUnderTest.free(key2);
+
+        // when
+        int key3 = poolUnderTest.put(new byte[] {3});
+        int key4 = poolUnderTest.put(new byte[] {4});
+
+        // then
+        assertThat(key3).isEqualTo(key2);
+        assertThat(key4).isEqualTo(key1);
+    }
+
+    @Test
+    void putOfPooledValueShouldNotResizeFullMap() {
+        // given
+        int[] keys = new int[poolUnderTest.capacity()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = poolUnderTest.put(new byte[] {(byte) i});
+        }
+
+        // when
+        int key = poolUnderTest.put(new byte[] {0});
+
+        // then
+        assertThat(key).isEqualTo(keys[0]);
+        assertThat(poolUnderTest.capacity()).isEqualTo(keys.length);
+
+        // when
+        poolUnderTest.put(new byte[] {(byte) keys.length});
+
+        // then
+        assertThat(poolUnderTest.capacity()).isGreaterThan(keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            assertThat(getForAssertion(poolUnderTest, keys[i])).isEqualTo(new byte[] {(byte) i});
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(ValueStorage.class)
+    void shouldKeepKeysAndValuesOverResizeInEveryStorage(ValueStorage storage) {
+        // given
+        RobinHoodPooledByteArrayMap poolUnderTest = new RobinHoodPooledByteArrayMap(INITIAL_CAPACITY, storage, HashStrategy.XX);
+        int[] keys = new int[100];
+
+        // when
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = poolUnderTest.put(new byte[] {(byte) i, 42});
+        }
+
+        // then
+        assertThat(poolUnderTest.capacity()).isGreaterThanOrEqualTo(keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            assertThat(getForAssertion(poolUnderTest, keys[i])).isEqualTo(new byte[] {(byte) i, 42});
+            assertThat(poolUnderTest.put(new byte[] {(byte) i, 42})).isEqualTo(keys[i]);
+        }
+    }
+
+    @Test
+    void probesShouldStayShortWhenValuesAreFreedAndPutAtHighLoad() {
+        // given
+        RobinHoodPooledByteArrayMap poolUnderTest = new RobinHoodPooledByteArrayMap(1000, ValueStorage.ARRAYS, HashStrategy.XX, 0.95);
+        int capacity = poolUnderTest.capacity();
+        int[] keys = new int[capacity];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = poolUnderTest.put(new byte[] {(byte) i, (byte) (i >>> 8), 0});
+        }
+
+        // when
+        long lookupCount = poolUnderTest.lookupCount();
+        long probeCount = poolUnderTest.probeCount();
+        for (int i = 0; i < 100_000; i++) {
+            int index = i % keys.length;
+            poolUnderTest.free(keys[index]);
+            keys[index] = poolUnderTest.put(new byte[] {(byte) index, (byte) (index >>> 8), (byte) (i / keys.length + 1)});
+        }
+
+        // then
+        assertThat(poolUnderTest.capacity()).isEqualTo(capacity);
+        assertThat(poolUnderTest.probeCount() - probeCount).isLessThan((poolUnderTest.lookupCount() - lookupCount) * 10);
+    }
+
+    @ParameterizedTest
+    @EnumSource(ValueStorage.class)
+    void shouldBehaveAsModelMapOverManyPutsAndFrees(ValueStorage storage) {
+        // given
+        RobinHoodPooledByteArrayMap poolUnderTest = new RobinHoodPooledByteArrayMap(INITIAL_CAPACITY, storage, HashStrategy.ARRAYS_HASH_CODE);
+        Map<Integer, Integer> usagesByValue = new HashMap<>();
+        Map<Integer, Integer> keysByValue = new HashMap<>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 200_000; i++) {
+            int value = random.nextInt(3_000);
+            byte[] bytes = {(byte) value, (byte) (value >>> 8)};
+
+            // when
+            if (random.nextBoolean()) {
+                int key = poolUnderTest.put(bytes);
+
+                // then
+                assertThat(keysByValue.getOrDefault(value, key)).isEqualTo(key);
+                keysByValue.put(value, key);
+                usagesByValue.merge(value, 1, Integer::sum);
+            }
+            else if (keysByValue.containsKey(value)) {
+                int key = keysByValue.get(value);
+                poolUnderTest.free(key);
+
+                // then
+                if (usagesByValue.merge(value, -1, Integer::sum) == 0) {
+                    usagesByValue.remove(value);
+                    keysByValue.remove(value);
+                    assertThat(getForAssertion(poolUnderTest, key)).isNull();
+                }
+                else {
+                    assertThat(getForAssertion(poolUnderTest, key)).isEqualTo(bytes);
+                }
+            }
+        }
+
+        // then
+        assertThat(poolUnderTest.size()).isEqualTo(keysByValue.size());
+        keysByValue.forEach((value, key) -> assertThat(getForAssertion(poolUnderTest, key)).isEqualTo(new byte[] {(byte) (int) value, (byte) (value >>> 8)}));
+    }
+
+
+    @SuppressWarnings("byte.array.weakening")
+    private static byte [] getForAssertion(RobinHoodPooledByteArrayMap pool, int key) {
+        return pool.get(key);
+    }
+}
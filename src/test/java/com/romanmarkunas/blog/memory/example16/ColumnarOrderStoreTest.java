@@ -0,0 +1,113 @@
+package com.romanmarkunas.blog.memory.example16;
+
+import com.romanmarkunas.blog.memory.example15.PooledByteArrayMap;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ColumnarOrderStoreTest {
+
+    private final ColumnarOrderStore storeUnderTest = new ColumnarOrderStore(new PooledByteArrayMap(1_000));
+
+
+    @Test
+    void shouldWriteAndReadSymmetrically() {
+        // when
+        int key = storeUnderTest.allocate();
+        storeUnderTest.get(key).set(
+                42L,
+                "alice".getBytes(StandardCharsets.US_ASCII),
+                7,
+                3,
+                1999,
+                "12",
+                "Baker Street",
+                "London",
+                "Greater London",
+                "NW1 6XE"
+        );
+
+        // then
+        ColumnarOrderView readView = storeUnderTest.get(key);
+        assertThat(readView.getId()).isEqualTo(42L);
+        assertThatUserIsEqual(readView, "alice".getBytes(StandardCharsets.US_ASCII));
+        assertThat(readView.getArticleNr()).isEqualTo(7);
+        assertThat(readView.getCount()).isEqualTo(3);
+        assertThat(readView.getPricePence()).isEqualTo(1999);
+        assertThat(readView.getAddress()).isEqualTo("12 Baker Street, London, Greater London, NW1 6XE");
+    }
+
+    @Test
+    void shouldReuseLowestFreedKeyAcrossPages() {
+        // given
+        for (int i = 0; i < 2 * ColumnarOrderStore.PAGE_SIZE + 1; i++) {
+            storeUnderTest.allocate();
+        }
+        storeUnderTest.free(ColumnarOrderStore.PAGE_SIZE + 5);
+        storeUnderTest.free(70);
+
+        // when
+        int first = storeUnderTest.allocate();
+        int second = storeUnderTest.allocate();
+        int third = storeUnderTest.allocate();
+
+        // then
+        assertThat(first).isEqualTo(70);
+        assertThat(second).isEqualTo(ColumnarOrderStore.PAGE_SIZE + 5);
+        assertThat(third).isEqualTo(2 * ColumnarOrderStore.PAGE_SIZE + 1);
+        assertThat(storeUnderTest.size()).isEqualTo(2 * ColumnarOrderStore.PAGE_SIZE + 2);
+        assertThat(storeUnderTest.keyLimit()).isEqualTo(3 * ColumnarOrderStore.PAGE_SIZE);
+    }
+
+    @Test
+    void shouldFailFastWhenFreeingAlreadyFreeKey() {
+        // given
+        int key = storeUnderTest.allocate();
+        storeUnderTest.free(key);
+
+        assertThatThrownBy(() -> storeUnderTest.free(key)).isExactlyInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> storeUnderTest.free(ColumnarOrderStore.PAGE_SIZE)).isExactlyInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void shouldAggregateLiveOrdersByColumnScan() {
+        // given
+        Map<Integer, Long> expectedRevenueByArticle = new HashMap<>();
+        for (int i = 0; i < 10_000; i++) {
+            int key = storeUnderTest.allocate();
+            int articleNr = i % 7;
+            storeUnderTest.get(key).set(i, new byte[] {1}, articleNr, i % 5, 100 + i, "1", "s", "c", "r", "p");
+        }
+        for (int key = 0; key < 10_000; key += 3) {
+            storeUnderTest.free(key);
+        }
+        for (int i = 0; i < 10_000; i++) {
+            if (i % 3 != 0) {
+                expectedRevenueByArticle.merge(i % 7, (long) (i % 5) * (100 + i), Long::sum);
+            }
+        }
+
+        // when
+        Map<Integer, Long> revenueByArticle = new HashMap<>();
+        for (int key = 0; key < storeUnderTest.keyLimit(); key++) {
+            if (storeUnderTest.isLive(key)) {
+                long revenue = (long) storeUnderTest.pricePenceOf(key) * storeUnderTest.countOf(key);
+                revenueByArticle.merge(storeUnderTest.articleNrOf(key), revenue, Long::sum);
+            }
+        }
+
+        // then
+        assertThat(revenueByArticle).isEqualTo(expectedRevenueByArticle);
+    }
+
+
+    @SuppressWarnings("byte.array.weakening")
+    private void assertThatUserIsEqual(ColumnarOrderView readView, byte[] user) {
+        assertThat(readView.getUser()).isEqualTo(user);
+    }
+}
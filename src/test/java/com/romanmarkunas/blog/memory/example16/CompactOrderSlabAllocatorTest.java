@@ -0,0 +1,146 @@
+package com.romanmarkunas.blog.memory.example16;
+
+import com.romanmarkunas.blog.memory.example15.PooledByteArrayMap;
+import com.romanmarkunas.blog.memory.example16.records.Bits;
+import com.romanmarkunas.blog.memory.example16.records.SlabRecord;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CompactOrderSlabAllocatorTest {
+
+    private final PooledByteArrayMap pool = new PooledByteArrayMap(1_000);
+    private final CompactOrderSlabAllocator allocatorUnderTest = new CompactOrderSlabAllocator(pool);
+
+
+    @Test
+    void shouldPackOrderIntoFewerBytes() {
+        assertThat(CompactOrderView.TOTAL_SIZE).isEqualTo(28);
+    }
+
+    @Test
+    void shouldWriteAndReadLargestValuesSymmetrically() {
+        // when
+        long handle = allocatorUnderTest.allocate();
+        allocatorUnderTest.get(handle).set((1L << 40) - 1, bytes("ABC123"), 1023, 15, 16383, "1", "Fishery Road", "Seashoreworth", "", "SBSP42");
+
+        // then
+        CompactOrderView readView = allocatorUnderTest.get(handle);
+        assertThat(readView.getId()).isEqualTo((1L << 40) - 1);
+        assertThatUserIsEqual(readView, bytes("ABC123"));
+        assertThat(readView.getArticleNr()).isEqualTo(1023);
+        assertThat(readView.getCount()).isEqualTo(15);
+        assertThat(readView.getPricePence()).isEqualTo(16383);
+        assertThat(readView.getAddressNumber()).isEqualTo("1");
+        assertThat(readView.getAddressStreet()).isEqualTo("Fishery Road");
+        assertThat(readView.getAddressCity()).isEqualTo("Seashoreworth");
+        assertThat(readView.getAddressRegion()).isEqualTo("");
+        assertThat(readView.getAddressPostCode()).isEqualTo("SBSP42");
+    }
+
+    @Test
+    void shouldNotOverwriteFieldsSharingBytesOrNeighbourOrders() {
+        // given
+        long first = allocatorUnderTest.allocate();
+        long second = allocatorUnderTest.allocate();
+        long third = allocatorUnderTest.allocate();
+        allocatorUnderTest.get(first).set((1L << 40) - 1, bytes("A"), 1023, 15, 16383, "1", "2", "3", "4", "5");
+        allocatorUnderTest.get(second).set(0, bytes("A"), 0, 0, 0, "1", "2", "3", "4", "5");
+        allocatorUnderTest.get(third).set((1L << 40) - 1, bytes("A"), 1023, 15, 16383, "1", "2", "3", "4", "5");
+
+        // when
+        allocatorUnderTest.get(second).setArticleNr(1).setCount(2).setPricePence(3);
+
+        // then
+        CompactOrderView readView = allocatorUnderTest.get(second);
+        assertThat(readView.getId()).isEqualTo(0);
+        assertThat(readView.getArticleNr()).isEqualTo(1);
+        assertThat(readView.getCount()).isEqualTo(2);
+        assertThat(readView.getPricePence()).isEqualTo(3);
+        assertThat(readView.getAddressPostCode()).isEqualTo("5");
+        for (long neighbour : new long[] {first, third}) {
+            readView = allocatorUnderTest.get(neighbour);
+            assertThat(readView.getId()).isEqualTo((1L << 40) - 1);
+            assertThat(readView.getArticleNr()).isEqualTo(1023);
+            assertThat(readView.getCount()).isEqualTo(15);
+            assertThat(readView.getPricePence()).isEqualTo(16383);
+            assertThat(readView.getAddressPostCode()).isEqualTo("5");
+        }
+    }
+
+    @Test
+    void shouldRejectValuesOutOfDeclaredRangeWithoutPoolingAnything() {
+        // given
+        long handle = allocatorUnderTest.allocate();
+        CompactOrderView view = allocatorUnderTest.get(handle);
+
+        // then
+        assertThatThrownBy(() -> view.set(1L << 40, bytes("A"), 1, 1, 1, "1", "2", "3", "4", "5"))
+                .isExactlyInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> view.set(1, bytes("A"), 1024, 1, 1, "1", "2", "3", "4", "5"))
+                .isExactlyInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> view.set(1, bytes("A"), 1, -1, 1, "1", "2", "3", "4", "5"))
+                .isExactlyInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> view.setPricePence(16384)).isExactlyInstanceOf(IllegalArgumentException.class);
+        assertThat(pool.size()).isEqualTo(0);
+    }
+
+    @Test
+    void shouldPackAllFieldTypes() {
+        // given
+        PackedSampleSlabAllocator allocator = new PackedSampleSlabAllocator();
+        long handle = allocator.allocate();
+
+        // when
+        allocator.get(handle).set(-1.5, 7, true, 'x', Float.MIN_VALUE, (short) -3, (byte) 100, -42L);
+
+        // then
+        PackedSampleView readView = allocator.get(handle);
+        assertThat(PackedSampleView.TOTAL_SIZE).isEqualTo(26);
+        assertThat(readView.getPrice()).isEqualTo(-1.5);
+        assertThat(readView.getSmall()).isEqualTo(7);
+        assertThat(readView.getFlag()).isTrue();
+        assertThat(readView.getLetter()).isEqualTo('x');
+        assertThat(readView.getRatio()).isEqualTo(Float.MIN_VALUE);
+        assertThat(readView.getShortValue()).isEqualTo((short) -3);
+        assertThat(readView.getByteValue()).isEqualTo((byte) 100);
+        assertThat(readView.getLongValue()).isEqualTo(-42L);
+    }
+
+
+    private static byte[] bytes(String str) {
+        return str.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @SuppressWarnings("byte.array.weakening")
+    private void assertThatUserIsEqual(CompactOrderView readView, byte[] user) {
+        assertThat(readView.getUser()).isEqualTo(user);
+    }
+
+
+    // 64 + 3 + 1 + 16 + 32 + 16 + 7 + 64 = 203 bits, all but 3 and 7 bit fields keep full width
+    @SlabRecord
+    interface PackedSample {
+
+        double price();
+
+        @Bits(3)
+        int small();
+
+        boolean flag();
+
+        char letter();
+
+        float ratio();
+
+        short shortValue();
+
+        @Bits(7)
+        byte byteValue();
+
+        long longValue();
+    }
+}
@@ -0,0 +1,180 @@
+package com.romanmarkunas.blog.memory.example16;
+
+import com.romanmarkunas.blog.memory.example15.ByteArrayPool;
+import com.romanmarkunas.blog.memory.example15.ConcurrentPooledByteArrayMap;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ConcurrentOrderSlabAllocatorTest {
+
+    private static final int THREADS = 8;
+    private static final int ORDERS_PER_THREAD = 10 * ConcurrentOrderSlabAllocator.MAX_OBJECTS_IN_SINGLE_SLAB;
+
+    private final ByteArrayPool pool = new ConcurrentPooledByteArrayMap(1_000, THREADS);
+    private final ConcurrentOrderSlabAllocator allocatorUnderTest = new ConcurrentOrderSlabAllocator(pool);
+
+
+    @Test
+    void shouldWriteAndReadSymmetrically() {
+        // when
+        int key = allocatorUnderTest.allocate();
+        setId(key, 42);
+
+        // then
+        assertThat(allocatorUnderTest.get(key).getId()).isEqualTo(42L);
+        assertThat(allocatorUnderTest.get(key).getAddressCity()).isEqualTo("Seashoreworth");
+    }
+
+    @Test
+    void concurrentWritersShouldNeverGetSameKey() throws Exception {
+        // given
+        Map<Integer, Long> idsByKey = new ConcurrentHashMap<>();
+
+        // when
+        runConcurrently(thread -> {
+            for (int i = 0; i < ORDERS_PER_THREAD; i++) {
+                int key = allocatorUnderTest.allocate();
+                long id = (long) thread * ORDERS_PER_THREAD + i;
+                setId(key, id);
+                assertThat(idsByKey.put(key, id)).isNull();
+            }
+        });
+
+        // then
+        assertThat(idsByKey.size()).isEqualTo(THREADS * ORDERS_PER_THREAD);
+        idsByKey.forEach((key, id) -> assertThat(allocatorUnderTest.get(key).getId()).isEqualTo(id));
+    }
+
+    @Test
+    void slotsFreedByOtherThreadsShouldBeReused() throws Exception {
+        // given
+        Set<Integer> keys = ConcurrentHashMap.newKeySet();
+        runConcurrently(thread -> {
+            for (int i = 0; i < ORDERS_PER_THREAD; i++) {
+                keys.add(allocatorUnderTest.allocate());
+            }
+            allocatorUnderTest.releaseThreadSlab();
+        });
+        int slabCount = allocatorUnderTest.slabCount();
+
+        // when keys are freed by this thread, which owns no slabs
+        keys.forEach(allocatorUnderTest::free);
+        runConcurrently(thread -> {
+            for (int i = 0; i < ORDERS_PER_THREAD; i++) {
+                allocatorUnderTest.allocate();
+            }
+        });
+
+        // then
+        assertThat(allocatorUnderTest.slabCount()).isEqualTo(slabCount);
+    }
+
+    @Test
+    void slabsShouldNotBeLostWhenRemoteFreesRaceWithTakingSlabs() throws Exception {
+        for (int round = 0; round < 50; round++) {
+            // given
+            ConcurrentOrderSlabAllocator allocator = new ConcurrentOrderSlabAllocator(pool);
+            Queue<Integer> keys = new ConcurrentLinkedQueue<>();
+
+            // when every thread frees keys allocated by others while they take slabs
+            runConcurrently(thread -> {
+                for (int i = 0; i < ORDERS_PER_THREAD; i++) {
+                    keys.add(allocator.allocate());
+                    Integer key = keys.poll();
+                    if (key != null) {
+                        allocator.free(key);
+                    }
+                }
+                allocator.releaseThreadSlab();
+            });
+            keys.forEach(allocator::free);
+            int slabCount = allocator.slabCount();
+
+            // then every slab is offered again, so all slots can be allocated without new slab
+            for (int i = 0; i < slabCount * ConcurrentOrderSlabAllocator.MAX_OBJECTS_IN_SINGLE_SLAB; i++) {
+                allocator.allocate();
+            }
+            allocator.releaseThreadSlab();
+            assertThat(allocator.slabCount()).isEqualTo(slabCount);
+        }
+    }
+
+    @Test
+    void shouldFailFastWhenOwnerFreesAlreadyFreeMemory() {
+        // given
+        int key = allocatorUnderTest.allocate();
+        allocatorUnderTest.free(key);
+
+        assertThatThrownBy(() -> allocatorUnderTest.free(key)).isExactlyInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void shouldFailFastWhenOtherThreadFreesAlreadyFreeMemory() throws Exception {
+        // given
+        List<Integer> keys = new ArrayList<>();
+        runConcurrently(thread -> {
+            if (thread == 0) {
+                keys.add(allocatorUnderTest.allocate());
+                keys.add(allocatorUnderTest.allocate());
+            }
+        });
+        int key = keys.get(1);
+        allocatorUnderTest.free(key);
+
+        assertThatThrownBy(() -> allocatorUnderTest.free(key)).isExactlyInstanceOf(IllegalStateException.class);
+    }
+
+
+    private void setId(int key, long id) {
+        allocatorUnderTest.get(key).set(
+                id,
+                new byte[] {1},
+                1,
+                1,
+                1,
+                "1",
+                "Fishery Road",
+                "Seashoreworth",
+                "",
+                "SBSP42"
+        );
+    }
+
+    private static void runConcurrently(ThreadTask task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int thread = 0; thread < THREADS; thread++) {
+                int threadNumber = thread;
+                results.add(executor.submit(() -> {
+                    task.run(threadNumber);
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get(1, TimeUnit.MINUTES);
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private interface ThreadTask {
+        void run(int thread) throws Exception;
+    }
+}
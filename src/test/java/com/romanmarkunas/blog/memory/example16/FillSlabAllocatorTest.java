@@ -0,0 +1,147 @@
+package com.romanmarkunas.blog.memory.example16;
+
+import com.romanmarkunas.blog.memory.example15.PooledByteArrayMap;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FillSlabAllocatorTest {
+
+    private final PooledByteArrayMap pool = new PooledByteArrayMap(1_000);
+    private final FillSlabAllocator allocatorUnderTest = new FillSlabAllocator(pool);
+
+
+    @Test
+    void shouldPadGeneratedLayoutToWidestField() {
+        // 2 longs, 4 ints (incl. 2 pool keys) and 1 byte boolean take 33 bytes
+        assertThat(FillView.TOTAL_SIZE).isEqualTo(40);
+    }
+
+    @Test
+    void shouldWriteAndReadSymmetrically() {
+        // when
+        long handle = allocatorUnderTest.allocate();
+        allocatorUnderTest.get(handle).set(1L, 100L, 25, 1999, true, "LSE", bytes("bank"));
+
+        // then
+        FillView readView = allocatorUnderTest.get(handle);
+        assertThat(readView.getId()).isEqualTo(1L);
+        assertThat(readView.getOrderId()).isEqualTo(100L);
+        assertThat(readView.getQuantity()).isEqualTo(25);
+        assertThat(readView.getPricePence()).isEqualTo(1999);
+        assertThat(readView.getAggressor()).isTrue();
+        assertThat(readView.getVenue()).isEqualTo("LSE");
+        assertThatCounterpartyIsEqual(readView, bytes("bank"));
+    }
+
+    @Test
+    void shouldNotOverwriteNeighbourFields() {
+        // given
+        long first = allocatorUnderTest.allocate();
+        long second = allocatorUnderTest.allocate();
+        allocatorUnderTest.get(first).set(1L, 100L, 25, 1999, true, "LSE", bytes("bank"));
+        allocatorUnderTest.get(second).set(2L, 200L, 50, 2999, false, "NYSE", bytes("fund"));
+
+        // when
+        allocatorUnderTest.get(first)
+                .setQuantity(-1)
+                .setAggressor(false)
+                .changeVenue("XETRA");
+
+        // then
+        FillView readView = allocatorUnderTest.get(first);
+        assertThat(readView.getId()).isEqualTo(1L);
+        assertThat(readView.getOrderId()).isEqualTo(100L);
+        assertThat(readView.getQuantity()).isEqualTo(-1);
+        assertThat(readView.getPricePence()).isEqualTo(1999);
+        assertThat(readView.getAggressor()).isFalse();
+        assertThat(readView.getVenue()).isEqualTo("XETRA");
+        readView = allocatorUnderTest.get(second);
+        assertThat(readView.getId()).isEqualTo(2L);
+        assertThat(readView.getQuantity()).isEqualTo(50);
+        assertThat(readView.getVenue()).isEqualTo("NYSE");
+    }
+
+    @Test
+    void shouldReleasePooledValueOnChange() {
+        // given
+        long handle = allocatorUnderTest.allocate();
+        allocatorUnderTest.get(handle).set(1L, 100L, 25, 1999, true, "LSE", bytes("bank"));
+        int poolSizeBefore = pool.size();
+
+        // when
+        allocatorUnderTest.get(handle).changeCounterparty(bytes("fund"));
+
+        // then
+        assertThat(pool.size()).isEqualTo(poolSizeBefore);
+        assertThatCounterpartyIsEqual(allocatorUnderTest.get(handle), bytes("fund"));
+    }
+
+    @Test
+    void cursorsShouldHoldDifferentFillsAtOnce() {
+        // given
+        long first = allocatorUnderTest.allocate();
+        long second = allocatorUnderTest.allocate();
+        allocatorUnderTest.get(first).set(1L, 100L, 25, 1999, true, "LSE", bytes("bank"));
+        allocatorUnderTest.get(second).set(2L, 200L, 50, 2999, false, "NYSE", bytes("fund"));
+        SlabCursor<FillView> firstCursor = allocatorUnderTest.newCursor();
+        SlabCursor<FillView> secondCursor = allocatorUnderTest.newCursor();
+
+        // when
+        FillView firstView = firstCursor.moveTo(first);
+        FillView secondView = secondCursor.moveTo(second);
+        allocatorUnderTest.get(second);
+
+        // then
+        assertThat(firstView.getId()).isEqualTo(1L);
+        assertThat(firstView.getVenue()).isEqualTo("LSE");
+        assertThat(secondView.getId()).isEqualTo(2L);
+        assertThat(secondView.getVenue()).isEqualTo("NYSE");
+    }
+
+    @Test
+    void shouldReadSingleFieldsByHandle() {
+        // when
+        long handle = allocatorUnderTest.allocate();
+        allocatorUnderTest.get(handle).set(1L, 100L, 25, 1999, true, "LSE", bytes("bank"));
+
+        // then
+        assertThat(allocatorUnderTest.orderIdOf(handle)).isEqualTo(100L);
+        assertThat(allocatorUnderTest.quantityOf(handle)).isEqualTo(25);
+        assertThat(allocatorUnderTest.aggressorOf(handle)).isTrue();
+        assertThat(allocatorUnderTest.venuePoolKeyOf(handle)).isEqualTo(allocatorUnderTest.get(handle).getVenuePoolKey());
+    }
+
+    @Test
+    void forEachShouldVisitLiveFills() {
+        // given
+        long first = allocatorUnderTest.allocate();
+        long second = allocatorUnderTest.allocate();
+        long third = allocatorUnderTest.allocate();
+        allocatorUnderTest.get(first).set(1L, 100L, 25, 1999, true, "LSE", bytes("bank"));
+        allocatorUnderTest.get(second).set(2L, 200L, 50, 2999, false, "NYSE", bytes("fund"));
+        allocatorUnderTest.get(third).set(3L, 300L, 75, 3999, false, "LSE", bytes("fund"));
+        allocatorUnderTest.free(second);
+
+        // when
+        List<Long> visitedIds = new ArrayList<>();
+        allocatorUnderTest.forEach(fill -> visitedIds.add(fill.getId()));
+
+        // then
+        assertThat(visitedIds).containsExactly(1L, 3L);
+    }
+
+
+    private static byte[] bytes(String str) {
+        return str.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @SuppressWarnings("byte.array.weakening")
+    private void assertThatCounterpartyIsEqual(FillView readView, byte[] counterparty) {
+        assertThat(readView.getCounterparty()).isEqualTo(counterparty);
+    }
+}
@@ -0,0 +1,165 @@
+package com.romanmarkunas.blog.memory.example16;
+
+import com.romanmarkunas.blog.memory.example15.PooledByteArrayMap;
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Manual benchmarks, numbers are printed to stdout. Slabs are memory mapped,
+ * so largest runs do not need a big heap, only some disk space in temp directory,
+ * except for slab size comparison, which keeps slabs on heap and needs -Xmx4g.
+ * <p>
+ * Allocation inspects one slab whatever the slab count, which is asserted by
+ * {@link OrderSlabAllocatorTest#allocationShouldInspectSingleSlabRegardlessOfSlabCount()}, and is
+ * printed below next to latency. Latency still grows with live orders, because random frees touch
+ * slab memory that no longer fits into caches and TLB.
+ */
+@Disabled
+class OrderSlabAllocatorLatencyTest {
+
+    private static final int[] LIVE_ORDERS = {1_000, 10_000, 100_000, 1_000_000, 10_000_000};
+    private static final int WARMUP_OPERATIONS = 200_000;
+    private static final int MEASURED_OPERATIONS = 1_000_000;
+    private static final int SLAB_SIZE_COMPARISON_ORDERS = 50_000_000;
+    private static final int ACCESS_COMPARISON_ORDERS = 1_000_000;
+    private static final int ACCESS_COMPARISON_PASSES = 50;
+
+
+    @Test
+    void allocationLatencyShouldNotDependOnLiveOrderCount() throws IOException {
+        Path directory = Files.createTempDirectory("slabs");
+        for (int liveOrders : LIVE_ORDERS) {
+            OrderSlabAllocator allocator = new OrderSlabAllocator(
+                    new PooledByteArrayMap(1_000),
+                    SlabStorage.mappedFiles(directory)
+            );
+            long[] handles = new long[liveOrders];
+            for (int i = 0; i < liveOrders; i++) {
+                handles[i] = allocator.allocate();
+            }
+
+            Random random = new Random(42);
+            replaceRandomOrders(allocator, handles, random, WARMUP_OPERATIONS);
+            long inspectedSlabCount = allocator.inspectedSlabCount();
+            long startNs = System.nanoTime();
+            replaceRandomOrders(allocator, handles, random, MEASURED_OPERATIONS);
+            long elapsedNs = System.nanoTime() - startNs;
+
+            System.out.printf(
+                    "%,12d live orders: %6.1f ns per free + allocate, %4.2f slabs inspected per allocate%n",
+                    liveOrders,
+                    (double) elapsedNs / MEASURED_OPERATIONS,
+                    (double) (allocator.inspectedSlabCount() - inspectedSlabCount) / MEASURED_OPERATIONS
+            );
+        }
+        Files.delete(directory);
+    }
+
+
+    /**
+     * Run with -XX:+UseTransparentHugePages to see effect of huge page sized slabs on TLB misses
+     */
+    @Test
+    void getLatencyForSmallAndHugePageSlabs() {
+        int[] slabSizes = {SlabAllocator.DEFAULT_SLAB_SIZE_BYTES, SlabAllocator.HUGE_PAGE_SLAB_SIZE_BYTES};
+        for (int slabSizeBytes : slabSizes) {
+            OrderSlabAllocator allocator = new OrderSlabAllocator(
+                    new PooledByteArrayMap(1_000),
+                    SlabStorage.HEAP,
+                    slabSizeBytes,
+                    SlabAllocator.DEFAULT_MAX_CACHED_SLABS
+            );
+            long[] handles = new long[SLAB_SIZE_COMPARISON_ORDERS];
+            for (int i = 0; i < handles.length; i++) {
+                handles[i] = allocator.allocate();
+            }
+
+            Random random = new Random(42);
+            long checksum = readRandomOrders(allocator, handles, random, WARMUP_OPERATIONS);
+            long startNs = System.nanoTime();
+            checksum += readRandomOrders(allocator, handles, random, MEASURED_OPERATIONS);
+            long elapsedNs = System.nanoTime() - startNs;
+
+            System.out.printf(
+                    "%,10d byte slabs, %,d orders: %6.1f ns per get (checksum %d)%n",
+                    slabSizeBytes,
+                    handles.length,
+                    (double) elapsedNs / MEASURED_OPERATIONS,
+                    checksum
+            );
+        }
+    }
+
+
+    /**
+     * Run once per {@link SlabAccess} with -Dslab.access=BYTE_BUFFER|VAR_HANDLE|UNSAFE, so
+     * JIT only sees one of them, same as in production
+     */
+    @Test
+    void scanLatencyForSelectedSlabAccess() {
+        SlabStorage[] storages = {SlabStorage.HEAP, SlabStorage.DIRECT};
+        String[] storageNames = {"heap", "direct"};
+        for (int i = 0; i < storages.length; i++) {
+            OrderSlabAllocator allocator = new OrderSlabAllocator(new PooledByteArrayMap(1_000), storages[i]);
+            long[] handles = new long[ACCESS_COMPARISON_ORDERS];
+            for (int j = 0; j < handles.length; j++) {
+                handles[j] = allocator.allocate();
+                allocator.get(handles[j]).set(j, new byte[] {1}, j, j % 10, j % 1000, "1", "Street", "City", "", "AB1");
+            }
+            SlabCursor<OrderView> cursor = allocator.newCursor();
+
+            long checksum = 0;
+            for (int pass = 0; pass < ACCESS_COMPARISON_PASSES / 5; pass++) {
+                checksum += sumOrderValues(cursor, handles);
+            }
+            long startNs = System.nanoTime();
+            for (int pass = 0; pass < ACCESS_COMPARISON_PASSES; pass++) {
+                checksum += sumOrderValues(cursor, handles);
+            }
+            long elapsedNs = System.nanoTime() - startNs;
+
+            System.out.printf(
+                    "%s access, %s slabs: %5.2f ns per order scanned (checksum %d)%n",
+                    SlabAccess.SELECTED,
+                    storageNames[i],
+                    (double) elapsedNs / ACCESS_COMPARISON_PASSES / handles.length,
+                    checksum
+            );
+        }
+    }
+
+
+    // freeing at random position leaves one vacant slot somewhere in the middle of slabs,
+    // which is the worst case for allocator that scans slabs from the start
+    private static void replaceRandomOrders(OrderSlabAllocator allocator, long[] handles, Random random, int operations) {
+        for (int i = 0; i < operations; i++) {
+            int position = random.nextInt(handles.length);
+            allocator.free(handles[position]);
+            handles[position] = allocator.allocate();
+        }
+    }
+
+    // random handles defeat prefetching, so each get pays for TLB and cache misses
+    private static long readRandomOrders(OrderSlabAllocator allocator, long[] handles, Random random, int operations) {
+        long checksum = 0;
+        for (int i = 0; i < operations; i++) {
+            checksum += allocator.get(handles[random.nextInt(handles.length)]).getArticleNr();
+        }
+        return checksum;
+    }
+
+    // allocation order handles walk slabs sequentially, so memory access path dominates
+    private static long sumOrderValues(SlabCursor<OrderView> cursor, long[] handles) {
+        long sum = 0;
+        for (long handle : handles) {
+            OrderView order = cursor.moveTo(handle);
+            sum += order.getId() + (long) order.getCount() * order.getPricePence();
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,96 @@
+package com.romanmarkunas.blog.memory.example16;
+
+import com.romanmarkunas.blog.memory.example15.PooledByteArrayMap;
+import org.junit.jupiter.api.Test;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class OrderSlabAllocatorMetricsTest {
+
+    private final PooledByteArrayMap pool = new PooledByteArrayMap(100);
+    private final OrderSlabAllocator allocator = new OrderSlabAllocator(pool);
+    private final OrderSlabAllocatorMetrics metricsUnderTest = new OrderSlabAllocatorMetrics(allocator);
+
+
+    @Test
+    void shouldReportZerosForEmptyAllocator() {
+        // when
+        metricsUnderTest.update();
+
+        // then
+        assertThat(metricsUnderTest.getSlabCount()).isEqualTo(0);
+        assertThat(metricsUnderTest.getLiveOrders()).isEqualTo(0);
+        assertThat(metricsUnderTest.getFreeRunsPerSlab()).isEqualTo(0.0);
+        assertThat(metricsUnderTest.getFreeSlotRatio()).isEqualTo(0.0);
+    }
+
+    @Test
+    void shouldReportSlabOccupancyAsOfLastUpdate() {
+        // given
+        long[] handles = new long[2 * OrderSlabAllocator.MAX_OBJECTS_IN_SINGLE_SLAB];
+        for (int i = 0; i < handles.length; i++) {
+            handles[i] = allocator.allocate();
+        }
+        allocator.free(handles[1]);
+        allocator.free(handles[2]);
+        allocator.free(handles[4]);
+        allocator.free(handles[handles.length - 1]);
+
+        // when
+        metricsUnderTest.update();
+        allocator.free(handles[10]);
+
+        // then
+        assertThat(metricsUnderTest.getSlabCount()).isEqualTo(2);
+        assertThat(metricsUnderTest.getLiveOrders()).isEqualTo(handles.length - 4);
+        assertThat(metricsUnderTest.getSlabCapacity()).isEqualTo(handles.length);
+        assertThat(metricsUnderTest.getFreeRunsPerSlab()).isEqualTo(1.5);
+        assertThat(metricsUnderTest.getFreeSlotRatio()).isCloseTo(4.0 / handles.length, within(1e-9));
+    }
+
+    @Test
+    void shouldReportPoolOccupancyAndProbeLengthSincePreviousUpdate() {
+        // given
+        int key = pool.put(new byte[] {1});
+        pool.put(new byte[] {2});
+        pool.free(key);
+        metricsUnderTest.update();
+
+        // when
+        pool.put(new byte[] {2});
+        metricsUnderTest.update();
+
+        // then
+        assertThat(metricsUnderTest.getPoolSize()).isEqualTo(1);
+        assertThat(metricsUnderTest.getPoolCapacity()).isEqualTo(pool.capacity());
+        assertThat(metricsUnderTest.getPoolTombstones()).isEqualTo(1);
+        assertThat(metricsUnderTest.getPoolAverageProbeLength()).isEqualTo(1.0);
+    }
+
+    @Test
+    void shouldExposeMetricsOverJmx() throws JMException {
+        // given
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OrderSlabAllocatorMetrics.DOMAIN + ":type=OrderSlabAllocator,name=\"test\"");
+        allocator.allocate();
+
+        // when
+        metricsUnderTest.register("test");
+        metricsUnderTest.update();
+
+        // then
+        try {
+            assertThat(server.getAttribute(name, "LiveOrders")).isEqualTo(1);
+            assertThat(server.getAttribute(name, "SlabCount")).isEqualTo(1);
+        }
+        finally {
+            server.unregisterMBean(name);
+        }
+    }
+}
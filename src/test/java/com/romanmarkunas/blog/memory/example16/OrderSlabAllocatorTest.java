@@ -1,10 +1,22 @@
 package com.romanmarkunas.blog.memory.example16;
 
+import com.romanmarkunas.blog.memory.example15.ConcurrentPooledByteArrayMap;
 import com.romanmarkunas.blog.memory.example15.PooledByteArrayMap;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 
+import static com.romanmarkunas.blog.memory.example16.SlabAllocator.addressOf;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
@@ -17,7 +29,7 @@ class OrderSlabAllocatorTest {
     @Test
     void shouldWriteAndReadSymmetrically() {
         // when
-        int key = allocatorUnderTest.allocate();
+        long key = allocatorUnderTest.allocate();
         OrderView writeView = allocatorUnderTest.get(key);
         setValuesFrom(TestOrder.ORDER_1, writeView);
 
@@ -34,7 +46,7 @@ class OrderSlabAllocatorTest {
         }
 
         // when
-        int key = allocatorUnderTest.allocate();
+        long key = allocatorUnderTest.allocate();
         OrderView writeView = allocatorUnderTest.get(key);
         setValuesFrom(TestOrder.ORDER_2, writeView);
 
@@ -43,14 +55,30 @@ class OrderSlabAllocatorTest {
         assertValues(TestOrder.ORDER_2, readView);
     }
 
+    @Test
+    void shouldWriteAndReadSymmetricallyInDirectSlabs() {
+        shouldWriteAndReadSymmetricallyIn(SlabStorage.DIRECT);
+    }
+
+    @Test
+    void shouldWriteAndReadSymmetricallyInMappedFileSlabs() throws IOException {
+        Path directory = Files.createTempDirectory("slabs");
+        try {
+            shouldWriteAndReadSymmetricallyIn(SlabStorage.mappedFiles(directory));
+        }
+        finally {
+            Files.delete(directory);
+        }
+    }
+
     @Test
     void newlyAllocatedOrdersShouldNotOverwritePreviousOne() {
         // given
-        int key1 = allocatorUnderTest.allocate();
+        long key1 = allocatorUnderTest.allocate();
         setValuesFrom(TestOrder.ORDER_1, allocatorUnderTest.get(key1));
 
         // when
-        int key2 = allocatorUnderTest.allocate();
+        long key2 = allocatorUnderTest.allocate();
         setValuesFrom(TestOrder.ORDER_2, allocatorUnderTest.get(key2));
 
         // then
@@ -62,96 +90,96 @@ class OrderSlabAllocatorTest {
     @Test
     void shouldFreeObjectIntoNewFirstFreeSpaceAndUseFreedSlotInNextAllocation() {
         // given 12____...
-        int key1 = allocatorUnderTest.allocate();
-        int key2 = allocatorUnderTest.allocate();
+        long key1 = allocatorUnderTest.allocate();
+        long key2 = allocatorUnderTest.allocate();
         assertThat(key2).isNotEqualTo(key1);
 
         // when _2____...
         allocatorUnderTest.free(key1);
 
         // then 324___...
-        int key3 = allocatorUnderTest.allocate();
-        int key4 = allocatorUnderTest.allocate();
-        assertThat(key3).isEqualTo(key1);
+        long key3 = allocatorUnderTest.allocate();
+        long key4 = allocatorUnderTest.allocate();
+        assertThat(addressOf(key3)).isEqualTo(addressOf(key1));
         assertThat(Set.of(key3, key2)).doesNotContain(key4);
     }
 
     @Test
     void shouldFreeObjectInFrontOfFirstFreeSpaceAndUseFreedSlotInNextAllocation() {
         // given 1_3___...
-        int key1 = allocatorUnderTest.allocate();
-        int key2 = allocatorUnderTest.allocate();
-        int key3 = allocatorUnderTest.allocate();
+        long key1 = allocatorUnderTest.allocate();
+        long key2 = allocatorUnderTest.allocate();
+        long key3 = allocatorUnderTest.allocate();
         allocatorUnderTest.free(key2);
 
         // when __3___...
         allocatorUnderTest.free(key1);
 
         // then 4536__...
-        int key4 = allocatorUnderTest.allocate();
-        int key5 = allocatorUnderTest.allocate();
-        int key6 = allocatorUnderTest.allocate();
-        assertThat(key4).isEqualTo(key1);
-        assertThat(key5).isEqualTo(key2);
+        long key4 = allocatorUnderTest.allocate();
+        long key5 = allocatorUnderTest.allocate();
+        long key6 = allocatorUnderTest.allocate();
+        assertThat(addressOf(key4)).isEqualTo(addressOf(key1));
+        assertThat(addressOf(key5)).isEqualTo(addressOf(key2));
         assertThat(Set.of(key4, key5, key3)).doesNotContain(key6);
     }
 
     @Test
     void shouldFreeObjectJustBehindFirstFreeSpaceAndUseFreedSlotInSubsequentAllocation() {
         // given 1_34__...
-        int key1 = allocatorUnderTest.allocate();
-        int key2 = allocatorUnderTest.allocate();
-        int key3 = allocatorUnderTest.allocate();
-        int key4 = allocatorUnderTest.allocate();
+        long key1 = allocatorUnderTest.allocate();
+        long key2 = allocatorUnderTest.allocate();
+        long key3 = allocatorUnderTest.allocate();
+        long key4 = allocatorUnderTest.allocate();
         allocatorUnderTest.free(key2);
 
         // when 1__4__...
         allocatorUnderTest.free(key3);
 
         // then 15647_...
-        int key5 = allocatorUnderTest.allocate();
-        int key6 = allocatorUnderTest.allocate();
-        int key7 = allocatorUnderTest.allocate();
-        assertThat(key5).isEqualTo(key2);
-        assertThat(key6).isEqualTo(key3);
+        long key5 = allocatorUnderTest.allocate();
+        long key6 = allocatorUnderTest.allocate();
+        long key7 = allocatorUnderTest.allocate();
+        assertThat(addressOf(key5)).isEqualTo(addressOf(key2));
+        assertThat(addressOf(key6)).isEqualTo(addressOf(key3));
         assertThat(Set.of(key1, key5, key6, key4)).doesNotContain(key7);
     }
 
     @Test
     void shouldFreeObjectBehindFirstFreeSpaceAndUseFreedSlotInSubsequentAllocation() {
         // given 1_345__...
-        int key1 = allocatorUnderTest.allocate();
-        int key2 = allocatorUnderTest.allocate();
-        int key3 = allocatorUnderTest.allocate();
-        int key4 = allocatorUnderTest.allocate();
-        int key5 = allocatorUnderTest.allocate();
+        long key1 = allocatorUnderTest.allocate();
+        long key2 = allocatorUnderTest.allocate();
+        long key3 = allocatorUnderTest.allocate();
+        long key4 = allocatorUnderTest.allocate();
+        long key5 = allocatorUnderTest.allocate();
         allocatorUnderTest.free(key2);
 
         // when 1_3_5__...
         allocatorUnderTest.free(key4);
 
         // then 163758_...
-        int key6 = allocatorUnderTest.allocate();
-        int key7 = allocatorUnderTest.allocate();
-        int key8 = allocatorUnderTest.allocate();
-        assertThat(key6).isEqualTo(key2);
-        assertThat(key7).isEqualTo(key4);
+        long key6 = allocatorUnderTest.allocate();
+        long key7 = allocatorUnderTest.allocate();
+        long key8 = allocatorUnderTest.allocate();
+        assertThat(addressOf(key6)).isEqualTo(addressOf(key2));
+        assertThat(addressOf(key7)).isEqualTo(addressOf(key4));
         assertThat(Set.of(key1, key6, key3, key7, key5)).doesNotContain(key8);
     }
 
     @Test
     void shouldFreeObjectBetweenSubsequentFreeSpacesAndUseFreedSlotInSubsequentAllocation() {
         // given 12_4_678_A__...
-        int key1 = allocatorUnderTest.allocate();
-        int key2 = allocatorUnderTest.allocate();
-        int key3 = allocatorUnderTest.allocate();
-        int key4 = allocatorUnderTest.allocate();
-        int key5 = allocatorUnderTest.allocate();
-        int key6 = allocatorUnderTest.allocate();
-        int key7 = allocatorUnderTest.allocate();
-        int key8 = allocatorUnderTest.allocate();
-        int key9 = allocatorUnderTest.allocate();
-        int keyA = allocatorUnderTest.allocate();
+        long key1 = allocatorUnderTest.allocate();
+        long key2 = allocatorUnderTest.allocate();
+        long key3 = allocatorUnderTest.allocate();
+        long key4 = allocatorUnderTest.allocate();
+        long key5 = allocatorUnderTest.allocate();
+        long key6 = allocatorUnderTest.allocate();
+        long key7 = allocatorUnderTest.allocate();
+        long key8 = allocatorUnderTest.allocate();
+        long key9 = allocatorUnderTest.allocate();
+        long keyA = allocatorUnderTest.allocate();
         allocatorUnderTest.free(key3);
         allocatorUnderTest.free(key5);
         allocatorUnderTest.free(key9);
@@ -160,28 +188,28 @@ class OrderSlabAllocatorTest {
         allocatorUnderTest.free(key7);
 
         // then 12B4C6D8EAF_...
-        int keyB = allocatorUnderTest.allocate();
-        int keyC = allocatorUnderTest.allocate();
-        int keyD = allocatorUnderTest.allocate();
-        int keyE = allocatorUnderTest.allocate();
-        int keyF = allocatorUnderTest.allocate();
-        assertThat(keyB).isEqualTo(key3);
-        assertThat(keyC).isEqualTo(key5);
-        assertThat(keyD).isEqualTo(key7);
-        assertThat(keyE).isEqualTo(key9);
+        long keyB = allocatorUnderTest.allocate();
+        long keyC = allocatorUnderTest.allocate();
+        long keyD = allocatorUnderTest.allocate();
+        long keyE = allocatorUnderTest.allocate();
+        long keyF = allocatorUnderTest.allocate();
+        assertThat(addressOf(keyB)).isEqualTo(addressOf(key3));
+        assertThat(addressOf(keyC)).isEqualTo(addressOf(key5));
+        assertThat(addressOf(keyD)).isEqualTo(addressOf(key7));
+        assertThat(addressOf(keyE)).isEqualTo(addressOf(key9));
         assertThat(Set.of(key1, key2, keyB, key4, keyC, key6, keyD, key8, keyE, keyA)).doesNotContain(keyF);
     }
 
     @Test
     void shouldFreeObjectInFrontOfSubsequentFreeSpaceAndUseFreedSlotInSubsequentAllocation() {
         // given 12_45_7__...
-        int key1 = allocatorUnderTest.allocate();
-        int key2 = allocatorUnderTest.allocate();
-        int key3 = allocatorUnderTest.allocate();
-        int key4 = allocatorUnderTest.allocate();
-        int key5 = allocatorUnderTest.allocate();
-        int key6 = allocatorUnderTest.allocate();
-        int key7 = allocatorUnderTest.allocate();
+        long key1 = allocatorUnderTest.allocate();
+        long key2 = allocatorUnderTest.allocate();
+        long key3 = allocatorUnderTest.allocate();
+        long key4 = allocatorUnderTest.allocate();
+        long key5 = allocatorUnderTest.allocate();
+        long key6 = allocatorUnderTest.allocate();
+        long key7 = allocatorUnderTest.allocate();
         allocatorUnderTest.free(key3);
         allocatorUnderTest.free(key6);
 
@@ -189,26 +217,26 @@ class OrderSlabAllocatorTest {
         allocatorUnderTest.free(key5);
 
         // then 12849A7B_...
-        int key8 = allocatorUnderTest.allocate();
-        int key9 = allocatorUnderTest.allocate();
-        int keyA = allocatorUnderTest.allocate();
-        int keyB = allocatorUnderTest.allocate();
-        assertThat(key8).isEqualTo(key3);
-        assertThat(key9).isEqualTo(key5);
-        assertThat(keyA).isEqualTo(key6);
+        long key8 = allocatorUnderTest.allocate();
+        long key9 = allocatorUnderTest.allocate();
+        long keyA = allocatorUnderTest.allocate();
+        long keyB = allocatorUnderTest.allocate();
+        assertThat(addressOf(key8)).isEqualTo(addressOf(key3));
+        assertThat(addressOf(key9)).isEqualTo(addressOf(key5));
+        assertThat(addressOf(keyA)).isEqualTo(addressOf(key6));
         assertThat(Set.of(key1, key2, key8, key4, key9, keyA, key7)).doesNotContain(keyB);
     }
 
     @Test
     void shouldFreeObjectJustBehindSubsequentFreeSpaceAndUseFreedSlotInSubsequentAllocation() {
         // given 12_4_67__...
-        int key1 = allocatorUnderTest.allocate();
-        int key2 = allocatorUnderTest.allocate();
-        int key3 = allocatorUnderTest.allocate();
-        int key4 = allocatorUnderTest.allocate();
-        int key5 = allocatorUnderTest.allocate();
-        int key6 = allocatorUnderTest.allocate();
-        int key7 = allocatorUnderTest.allocate();
+        long key1 = allocatorUnderTest.allocate();
+        long key2 = allocatorUnderTest.allocate();
+        long key3 = allocatorUnderTest.allocate();
+        long key4 = allocatorUnderTest.allocate();
+        long key5 = allocatorUnderTest.allocate();
+        long key6 = allocatorUnderTest.allocate();
+        long key7 = allocatorUnderTest.allocate();
         allocatorUnderTest.free(key3);
         allocatorUnderTest.free(key5);
 
@@ -216,13 +244,13 @@ class OrderSlabAllocatorTest {
         allocatorUnderTest.free(key6);
 
         // then 12849A7B_...
-        int key8 = allocatorUnderTest.allocate();
-        int key9 = allocatorUnderTest.allocate();
-        int keyA = allocatorUnderTest.allocate();
-        int keyB = allocatorUnderTest.allocate();
-        assertThat(key8).isEqualTo(key3);
-        assertThat(key9).isEqualTo(key5);
-        assertThat(keyA).isEqualTo(key6);
+        long key8 = allocatorUnderTest.allocate();
+        long key9 = allocatorUnderTest.allocate();
+        long keyA = allocatorUnderTest.allocate();
+        long keyB = allocatorUnderTest.allocate();
+        assertThat(addressOf(key8)).isEqualTo(addressOf(key3));
+        assertThat(addressOf(key9)).isEqualTo(addressOf(key5));
+        assertThat(addressOf(keyA)).isEqualTo(addressOf(key6));
         assertThat(Set.of(key1, key2, key8, key4, key9, keyA, key7)).doesNotContain(keyB);
     }
 
@@ -232,21 +260,124 @@ class OrderSlabAllocatorTest {
         for (int i = 0; i < OrderSlabAllocator.MAX_OBJECTS_IN_SINGLE_SLAB - 1; i++) {
             allocatorUnderTest.allocate();
         }
-        int keyZ = allocatorUnderTest.allocate();
+        long keyZ = allocatorUnderTest.allocate();
 
         // when ...XY_
         allocatorUnderTest.free(keyZ);
 
         // then ...XY1
-        int key1 = allocatorUnderTest.allocate();
-        assertThat(key1).isEqualTo(keyZ);
+        long key1 = allocatorUnderTest.allocate();
+        assertThat(addressOf(key1)).isEqualTo(addressOf(keyZ));
+    }
+
+    @Test
+    void shouldNotReuseOccupiedSlotAfterLastSlotInFullSlabIsFreedAndReallocated() {
+        // given XY...Z
+        long[] keys = new long[OrderSlabAllocator.MAX_OBJECTS_IN_SINGLE_SLAB];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = allocatorUnderTest.allocate();
+        }
+        long keyZ = keys[keys.length - 1];
+        allocatorUnderTest.free(keyZ);
+        assertThat(addressOf(allocatorUnderTest.allocate())).isEqualTo(addressOf(keyZ));
+
+        // when
+        long key = allocatorUnderTest.allocate();
+
+        // then
+        assertThat(key).isGreaterThanOrEqualTo(keys.length);
+    }
+
+    @Test
+    void shouldWriteAndReadSymmetricallyInHugePageSlabs() {
+        // given
+        OrderSlabAllocator allocator = new OrderSlabAllocator(
+                new PooledByteArrayMap(1_000),
+                SlabStorage.HEAP,
+                SlabAllocator.HUGE_PAGE_SLAB_SIZE_BYTES,
+                SlabAllocator.DEFAULT_MAX_CACHED_SLABS
+        );
+        int maxObjectsInSlab = SlabAllocator.HUGE_PAGE_SLAB_SIZE_BYTES / OrderView.TOTAL_SIZE;
+        for (int i = 0; i < maxObjectsInSlab; i++) {
+            allocator.allocate();
+        }
+
+        // when
+        long key = allocator.allocate();
+        setValuesFrom(TestOrder.ORDER_1, allocator.get(key));
+
+        // then
+        assertThat(key).isEqualTo(Integer.highestOneBit(maxObjectsInSlab) << 1);
+        assertThat(allocator.slabCount()).isEqualTo(2);
+        assertValues(TestOrder.ORDER_1, allocator.get(key));
+    }
+
+    @Test
+    void shouldReuseSlotFreedInFullSlabBeforeCreatingNewSlab() {
+        // given
+        long[] keys = new long[2 * OrderSlabAllocator.MAX_OBJECTS_IN_SINGLE_SLAB];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = allocatorUnderTest.allocate();
+        }
+
+        // when
+        allocatorUnderTest.free(keys[7]);
+
+        // then
+        long key = allocatorUnderTest.allocate();
+        assertThat(addressOf(key)).isEqualTo(addressOf(keys[7]));
+        long nextKey = allocatorUnderTest.allocate();
+        assertThat(nextKey).isGreaterThanOrEqualTo(keys.length);
+    }
+
+    @Test
+    void allocationShouldInspectSingleSlabRegardlessOfSlabCount() {
+        for (int slabCount : new int[] {10, 1_000}) {
+            // given
+            OrderSlabAllocator allocator = new OrderSlabAllocator(new PooledByteArrayMap(1_000));
+            long[] keys = new long[slabCount * OrderSlabAllocator.MAX_OBJECTS_IN_SINGLE_SLAB];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = allocator.allocate();
+            }
+            Random random = new Random(42);
+            long inspectedSlabCount = allocator.inspectedSlabCount();
+
+            // when free slots are scattered over all slabs
+            for (int i = 0; i < 10_000; i++) {
+                int position = random.nextInt(keys.length);
+                allocator.free(keys[position]);
+                keys[position] = allocator.allocate();
+            }
+
+            // then
+            assertThat(allocator.inspectedSlabCount() - inspectedSlabCount).isEqualTo(10_000);
+        }
+    }
+
+    @Test
+    void shouldReuseWholeSlabAfterFreeingAllSlotsInArbitraryOrder() {
+        // given
+        List<Long> keys = new ArrayList<>();
+        for (int i = 0; i < OrderSlabAllocator.MAX_OBJECTS_IN_SINGLE_SLAB; i++) {
+            keys.add(allocatorUnderTest.allocate());
+        }
+
+        // when
+        List<Long> shuffled = new ArrayList<>(keys);
+        Collections.shuffle(shuffled, new Random(42));
+        shuffled.forEach(allocatorUnderTest::free);
+
+        // then
+        for (long key : keys) {
+            assertThat(addressOf(allocatorUnderTest.allocate())).isEqualTo(addressOf(key));
+        }
     }
 
     @Test
     void shouldFailFastWhenFreeingAlreadyFreeMemoryForSingleObjectSlot() {
         // given 1_3__...
         allocatorUnderTest.allocate();
-        int key2 = allocatorUnderTest.allocate();
+        long key2 = allocatorUnderTest.allocate();
         allocatorUnderTest.allocate();
         allocatorUnderTest.free(key2);
 
@@ -257,9 +388,9 @@ class OrderSlabAllocatorTest {
     void shouldFailFastWhenFreeingAlreadyFreeMemory() {
         // given 1___5__...
         allocatorUnderTest.allocate();
-        int key2 = allocatorUnderTest.allocate();
-        int key3 = allocatorUnderTest.allocate();
-        int key4 = allocatorUnderTest.allocate();
+        long key2 = allocatorUnderTest.allocate();
+        long key3 = allocatorUnderTest.allocate();
+        long key4 = allocatorUnderTest.allocate();
         allocatorUnderTest.allocate();
         allocatorUnderTest.free(key2);
         allocatorUnderTest.free(key4);
@@ -276,7 +407,7 @@ class OrderSlabAllocatorTest {
         for (int i = 0; i < OrderSlabAllocator.MAX_OBJECTS_IN_SINGLE_SLAB - 1; i++) {
             allocatorUnderTest.allocate();
         }
-        int keyZ = allocatorUnderTest.allocate();
+        long keyZ = allocatorUnderTest.allocate();
         allocatorUnderTest.free(keyZ);
 
         assertThatThrownBy(() -> allocatorUnderTest.free(keyZ)).isExactlyInstanceOf(IllegalStateException.class);
@@ -288,13 +419,622 @@ class OrderSlabAllocatorTest {
         for (int i = 0; i < 2 * OrderSlabAllocator.MAX_OBJECTS_IN_SINGLE_SLAB - 1; i++) {
             allocatorUnderTest.allocate();
         }
-        int key = allocatorUnderTest.allocate();
+        long key = allocatorUnderTest.allocate();
         allocatorUnderTest.free(key);
         assertThat(key).isGreaterThan(OrderSlabAllocator.MAX_OBJECTS_IN_SINGLE_SLAB);
 
         assertThatThrownBy(() -> allocatorUnderTest.free(key)).isExactlyInstanceOf(IllegalStateException.class);
     }
 
+    @Test
+    void cursorsShouldHoldSeveralOrdersAtOnce() {
+        // given
+        long first = allocatorUnderTest.allocate();
+        long second = allocatorUnderTest.allocate();
+        setValuesFrom(TestOrder.ORDER_1, allocatorUnderTest.get(first));
+        setValuesFrom(TestOrder.ORDER_2, allocatorUnderTest.get(second));
+        SlabCursor<OrderView> firstCursor = allocatorUnderTest.newCursor();
+        SlabCursor<OrderView> secondCursor = allocatorUnderTest.newCursor();
+
+        // when
+        OrderView firstView = firstCursor.moveTo(first);
+        OrderView secondView = secondCursor.moveTo(second);
+        allocatorUnderTest.get(second);
+
+        // then
+        assertValues(TestOrder.ORDER_1, firstView);
+        assertValues(TestOrder.ORDER_2, secondView);
+        assertThat(firstCursor.view()).isSameAs(firstView);
+        assertThat(firstCursor.handle()).isEqualTo(first);
+    }
+
+    @Test
+    void cursorShouldRejectStaleHandle() {
+        // given
+        long handle = allocatorUnderTest.allocate();
+        SlabCursor<OrderView> cursor = allocatorUnderTest.newCursor();
+        allocatorUnderTest.free(handle);
+
+        // then
+        assertThatThrownBy(() -> cursor.moveTo(handle)).isExactlyInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(cursor::view).isExactlyInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void shouldReadSingleFieldsByHandle() {
+        // given
+        long handle = allocatorUnderTest.allocate();
+        setValuesFrom(TestOrder.ORDER_2, allocatorUnderTest.get(handle));
+
+        // then
+        assertThat(allocatorUnderTest.idOf(handle)).isEqualTo(TestOrder.ORDER_2.id);
+        assertThat(allocatorUnderTest.userPoolKeyOf(handle)).isEqualTo(allocatorUnderTest.get(handle).getUserPoolKey());
+        assertThat(allocatorUnderTest.articleNrOf(handle)).isEqualTo(TestOrder.ORDER_2.articleNr);
+        assertThat(allocatorUnderTest.countOf(handle)).isEqualTo(TestOrder.ORDER_2.count);
+        assertThat(allocatorUnderTest.pricePenceOf(handle)).isEqualTo(TestOrder.ORDER_2.pricePence);
+    }
+
+    @Test
+    void shouldDetectStaleHandleOfReusedSlot() {
+        // given
+        long staleKey = allocatorUnderTest.allocate();
+        allocatorUnderTest.free(staleKey);
+
+        // when
+        long key = allocatorUnderTest.allocate();
+
+        // then
+        assertThat(addressOf(key)).isEqualTo(addressOf(staleKey));
+        assertThat(key).isNotEqualTo(staleKey);
+        assertThatThrownBy(() -> allocatorUnderTest.get(staleKey)).isExactlyInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> allocatorUnderTest.free(staleKey)).isExactlyInstanceOf(IllegalStateException.class);
+        setValuesFrom(TestOrder.ORDER_1, allocatorUnderTest.get(key));
+    }
+
+    @Test
+    void shouldDetectStaleHandleOfSlotInReleasedAndReusedSlab() {
+        // given
+        long staleKey = allocatorUnderTest.allocate();
+        allocatorUnderTest.free(staleKey);
+        assertThat(allocatorUnderTest.slabCount()).isEqualTo(0);
+
+        // when
+        long key = allocatorUnderTest.allocate();
+
+        // then
+        assertThat(addressOf(key)).isEqualTo(addressOf(staleKey));
+        assertThatThrownBy(() -> allocatorUnderTest.get(staleKey)).isExactlyInstanceOf(IllegalStateException.class);
+    }
+
+
+    @Test
+    void shouldReleaseEmptySlabsIntoCacheAndReuseThem() {
+        // given
+        CountingStorage storage = new CountingStorage();
+        OrderSlabAllocator allocator = new OrderSlabAllocator(new PooledByteArrayMap(1_000), storage, 4);
+        List<Long> keys = new ArrayList<>();
+        for (int i = 0; i < 3 * OrderSlabAllocator.MAX_OBJECTS_IN_SINGLE_SLAB; i++) {
+            keys.add(allocator.allocate());
+        }
+
+        // when
+        keys.forEach(allocator::free);
+        keys.forEach(key -> allocator.allocate());
+
+        // then
+        assertThat(allocator.slabCount()).isEqualTo(3);
+        assertThat(allocator.cachedSlabCount()).isEqualTo(0);
+        assertThat(storage.allocated).isEqualTo(3);
+    }
+
+    @Test
+    void shouldTrimSlabCacheToHalfWhenItGrowsOverLimit() {
+        // given
+        CountingStorage storage = new CountingStorage();
+        OrderSlabAllocator allocator = new OrderSlabAllocator(new PooledByteArrayMap(1_000), storage, 4);
+        List<Long> keys = new ArrayList<>();
+        for (int i = 0; i < 10 * OrderSlabAllocator.MAX_OBJECTS_IN_SINGLE_SLAB; i++) {
+            keys.add(allocator.allocate());
+        }
+
+        // when
+        keys.forEach(allocator::free);
+
+        // then 5th and 8th releases overflow the cache and trim it back to 2
+        assertThat(allocator.slabCount()).isEqualTo(0);
+        assertThat(allocator.cachedSlabCount()).isEqualTo(4);
+
+        // and trimmed slabs are gone, so they have to come from storage again
+        keys.forEach(key -> allocator.allocate());
+        assertThat(storage.allocated).isEqualTo(10 + 6);
+    }
+
+    @Test
+    void staleViewShouldStayReadableAfterItsDirectSlabIsTrimmedFromCache() {
+        // given
+        OrderSlabAllocator allocator = new OrderSlabAllocator(new PooledByteArrayMap(1_000), SlabStorage.DIRECT, 0);
+        long key = allocator.allocate();
+        OrderView view = allocator.get(key);
+        setValuesFrom(TestOrder.ORDER_1, view);
+
+        // when
+        allocator.free(key);
+
+        // then
+        assertThat(allocator.slabCount()).isEqualTo(0);
+        assertThat(allocator.cachedSlabCount()).isEqualTo(0);
+        assertThat(view.getId()).isEqualTo(TestOrder.ORDER_1.id);
+    }
+
+    @Test
+    void shouldFailFastWhenFreeingAlreadyFreeInReleasedSlab() {
+        // given
+        long key = allocatorUnderTest.allocate();
+        allocatorUnderTest.free(key);
+        assertThat(allocatorUnderTest.slabCount()).isEqualTo(0);
+
+        assertThatThrownBy(() -> allocatorUnderTest.free(key)).isExactlyInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void compactionShouldMoveObjectsOutOfSparseSlabsAndReleaseThem() {
+        // given 4 slabs, of which 3 are almost empty
+        Map<Long, Long> idsByKey = givenOrdersWithIds(4 * OrderSlabAllocator.MAX_OBJECTS_IN_SINGLE_SLAB);
+        idsByKey.keySet().removeIf(key -> {
+            boolean free = key >= OrderSlabAllocator.MAX_OBJECTS_IN_SINGLE_SLAB && key % 10 != 0;
+            if (free) {
+                allocatorUnderTest.free(key);
+            }
+            return free;
+        });
+        for (int i = 0; i < OrderSlabAllocator.MAX_OBJECTS_IN_SINGLE_SLAB / 2; i++) {
+            long key = i * 2;
+            allocatorUnderTest.free(key);
+            idsByKey.remove(key);
+        }
+        assertThat(allocatorUnderTest.slabCount()).isEqualTo(4);
+
+        // when
+        Map<Long, Long> relocatedIdsByKey = new HashMap<>(idsByKey);
+        boolean moreWork = allocatorUnderTest.compact(Integer.MAX_VALUE, (fromKey, toKey) ->
+                relocatedIdsByKey.put(toKey, relocatedIdsByKey.remove(fromKey)));
+
+        // then
+        assertThat(moreWork).isFalse();
+        assertThat(allocatorUnderTest.slabCount()).isEqualTo(1);
+        assertThat(relocatedIdsByKey.size()).isEqualTo(idsByKey.size());
+        relocatedIdsByKey.forEach((key, id) -> assertThat(allocatorUnderTest.get(key).getId()).isEqualTo(id));
+    }
+
+    @Test
+    void compactionShouldDoNoMoreThanRequestedWork() {
+        // given
+        Map<Long, Long> idsByKey = givenOrdersWithIds(3 * OrderSlabAllocator.MAX_OBJECTS_IN_SINGLE_SLAB);
+        idsByKey.keySet().removeIf(key -> {
+            boolean free = key % 3 != 0;
+            if (free) {
+                allocatorUnderTest.free(key);
+            }
+            return free;
+        });
+
+        // when
+        List<Long> relocatedKeys = new ArrayList<>();
+        boolean moreWork = allocatorUnderTest.compact(5, (fromKey, toKey) -> relocatedKeys.add(fromKey));
+
+        // then
+        assertThat(moreWork).isTrue();
+        assertThat(relocatedKeys.size()).isLessThanOrEqualTo(5);
+    }
+
+    @Test
+    void compactionShouldNotRelocateAnythingInDenseSlabs() {
+        // given
+        givenOrdersWithIds(3 * OrderSlabAllocator.MAX_OBJECTS_IN_SINGLE_SLAB - 10);
+
+        // when
+        List<Long> relocatedKeys = new ArrayList<>();
+        boolean moreWork = allocatorUnderTest.compact(Integer.MAX_VALUE, (fromKey, toKey) -> relocatedKeys.add(fromKey));
+
+        // then
+        assertThat(moreWork).isFalse();
+        assertThat(relocatedKeys).isEmpty();
+        assertThat(allocatorUnderTest.slabCount()).isEqualTo(3);
+    }
+
+    @Test
+    void compactionShouldNotRescanSlabsUntilObjectIsFreed() {
+        // given slabs with more than a slab of free slots in total, but none of them sparse
+        Map<Long, Long> idsByKey = givenOrdersWithIds(3 * OrderSlabAllocator.MAX_OBJECTS_IN_SINGLE_SLAB);
+        idsByKey.keySet().stream().filter(key -> key % 5 < 2).forEach(allocatorUnderTest::free);
+        RelocationListener listener = (fromKey, toKey) -> {};
+        assertThat(allocatorUnderTest.compact(Integer.MAX_VALUE, listener)).isFalse();
+
+        // when
+        boolean moreWorkWhenIdle = allocatorUnderTest.compact(1, listener);
+        idsByKey.keySet().stream().filter(key -> key % 5 == 2).forEach(allocatorUnderTest::free);
+        boolean moreWorkAfterFree = allocatorUnderTest.compact(1, listener);
+
+        // then
+        assertThat(moreWorkWhenIdle).isFalse();
+        assertThat(moreWorkAfterFree).isTrue();
+    }
+
+
+    @Test
+    void changeAddressShouldOnlyInternChangedParts() {
+        // given
+        PooledByteArrayMap pool = new PooledByteArrayMap(1_000);
+        OrderSlabAllocator allocator = new OrderSlabAllocator(pool);
+        OrderView order = allocator.get(allocator.allocate());
+        setValuesFrom(TestOrder.ORDER_1, order);
+        long lookupsBefore = pool.lookupCount();
+
+        // when
+        order.changeAddress(
+                TestOrder.ORDER_1.addressNumber,
+                TestOrder.ORDER_2.addressStreet,
+                new String(TestOrder.ORDER_1.addressCity), // equal, but not same instance
+                TestOrder.ORDER_1.addressRegion,
+                TestOrder.ORDER_2.addressPostCode
+        );
+
+        // then
+        assertThat(pool.lookupCount() - lookupsBefore).isEqualTo(2);
+        assertThat(order.getAddressNumber()).isEqualTo(TestOrder.ORDER_1.addressNumber);
+        assertThat(order.getAddressStreet()).isEqualTo(TestOrder.ORDER_2.addressStreet);
+        assertThat(order.getAddressCity()).isEqualTo(TestOrder.ORDER_1.addressCity);
+        assertThat(order.getAddressRegion()).isEqualTo(TestOrder.ORDER_1.addressRegion);
+        assertThat(order.getAddressPostCode()).isEqualTo(TestOrder.ORDER_2.addressPostCode);
+        assertThat(pool.size()).isEqualTo(6); // user and 5 address parts, replaced ones freed
+    }
+
+    @Test
+    void changeAddressShouldKeepPartsSharedWithOtherOrders() {
+        // given orders sharing city, and number of second one same as region of first one
+        PooledByteArrayMap pool = new PooledByteArrayMap(1_000);
+        OrderSlabAllocator allocator = new OrderSlabAllocator(pool);
+        long firstKey = allocator.allocate();
+        long secondKey = allocator.allocate();
+        setValuesFrom(TestOrder.ORDER_1, allocator.get(firstKey));
+        setValuesFrom(TestOrder.ORDER_2, allocator.get(secondKey));
+        assertThat(pool.size()).isEqualTo(10);
+
+        // when
+        allocator.get(secondKey).changeAddress("2", "Smoke House", "Fishtown", "Fish'n'Chips County", "SBSP43");
+
+        // then
+        assertThat(pool.size()).isEqualTo(12);
+        assertValues(TestOrder.ORDER_1, allocator.get(firstKey));
+        assertThat(allocator.get(secondKey).getAddress()).isEqualTo("2 Smoke House, Fishtown, Fish'n'Chips County, SBSP43");
+    }
+
+    @Test
+    void changeAddressShouldEncodeNonAsciiPartsSameWayAsSet() {
+        // given
+        OrderView order = allocatorUnderTest.get(allocatorUnderTest.allocate());
+        setValuesFrom(TestOrder.ORDER_1, order);
+
+        // when
+        order.changeAddress("1", "Fishery Road", "Seashoreworth", "Zürich", "SBSP42");
+        order.changeAddress("1", "Fishery Road", "Seashoreworth", "Z?rich", "SBSP42");
+        order.changeAddress("1", "Fishery Road", "Seashoreworth", "Zärich", "SBSP42");
+        order.changeAddress("1", "Fishery Road", "Seashoreworth", "Z\uD83D\uDC1Frich", "SBSP42"); // fish emoji is a surrogate pair
+
+        // then
+        assertThat(order.getAddressRegion()).isEqualTo("Z?rich");
+        assertThat(allocatorUnderTest.pool().size()).isEqualTo(6);
+    }
+
+    @Test
+    void changeAddressShouldOnlyLookUpChangedParts() {
+        // given
+        PooledByteArrayMap pool = new PooledByteArrayMap(1_000);
+        OrderSlabAllocator allocator = new OrderSlabAllocator(pool);
+        OrderView order = allocator.get(allocator.allocate());
+        setValuesFrom(TestOrder.ORDER_1, order);
+        long lookupsBefore = pool.lookupCount();
+
+        // when
+        order.changeAddress("1", "Fishery Road", "Seashoreworth", "", "SBSP43");
+
+        // then
+        assertThat(pool.lookupCount() - lookupsBefore).isEqualTo(1);
+        assertThat(order.getAddress()).isEqualTo("1 Fishery Road, Seashoreworth, , SBSP43");
+        assertThat(pool.size()).isEqualTo(6);
+    }
+
+
+    @Test
+    void forEachShouldVisitLiveOrdersInPhysicalOrder() {
+        // given 3 slabs, first one released and others with free slots and free runs
+        Map<Long, Long> idsByKey = givenOrdersWithIds(3 * OrderSlabAllocator.MAX_OBJECTS_IN_SINGLE_SLAB);
+        idsByKey.keySet().removeIf(key -> {
+            boolean free = addressOf(key) < OrderSlabAllocator.HANDLES_PER_SLAB || key % 3 == 0 || key % 100 < 70;
+            if (free) {
+                allocatorUnderTest.free(key);
+            }
+            return free;
+        });
+        assertThat(allocatorUnderTest.slabCount()).isEqualTo(2);
+
+        // when
+        List<Long> visitedIds = new ArrayList<>();
+        allocatorUnderTest.forEach(order -> visitedIds.add(order.getId()));
+
+        // then
+        List<Long> expectedIds = new ArrayList<>(idsByKey.values());
+        Collections.sort(expectedIds);
+        assertThat(visitedIds).isEqualTo(expectedIds);
+    }
+
+    @Test
+    void forEachShouldVisitNothingInEmptyAllocator() {
+        // given
+        allocatorUnderTest.free(allocatorUnderTest.allocate());
+
+        // when
+        List<Long> visitedIds = new ArrayList<>();
+        allocatorUnderTest.forEach(order -> visitedIds.add(order.getId()));
+
+        // then
+        assertThat(visitedIds).isEmpty();
+    }
+
+    @Test
+    void cursorShouldAllowFreeingVisitedOrdersAndStartOverAfterLastOne() {
+        // given
+        Map<Long, Long> idsByKey = givenOrdersWithIds(OrderSlabAllocator.MAX_OBJECTS_IN_SINGLE_SLAB + 1);
+        SlabCursor<OrderView> cursor = allocatorUnderTest.newCursor();
+
+        // when
+        int visited = 0;
+        while (cursor.next()) {
+            assertThat(cursor.view().getId()).isEqualTo(idsByKey.get(cursor.handle()));
+            allocatorUnderTest.free(cursor.handle());
+            visited++;
+        }
+
+        // then
+        assertThat(visited).isEqualTo(idsByKey.size());
+        assertThat(allocatorUnderTest.slabCount()).isEqualTo(0);
+        assertThatThrownBy(cursor::view).isExactlyInstanceOf(IllegalStateException.class);
+        long key = allocatorUnderTest.allocate();
+        assertThat(cursor.next()).isTrue();
+        assertThat(cursor.handle()).isEqualTo(key);
+    }
+
+
+    @Test
+    void bulkAllocationShouldTakeLowestFreeRunSpanningBitmapWords() {
+        // given
+        givenOrdersWithIds(100);
+        for (int key = 60; key < 70; key++) {
+            allocatorUnderTest.free(key);
+        }
+        allocatorUnderTest.free(50);
+
+        // when
+        long firstKey = allocatorUnderTest.allocate(10);
+
+        // then
+        assertThat(addressOf(firstKey)).isEqualTo(60);
+        assertThat(addressOf(allocatorUnderTest.allocate())).isEqualTo(50);
+        assertThat(addressOf(allocatorUnderTest.allocate())).isEqualTo(100);
+        assertThat(allocatorUnderTest.slabCount()).isEqualTo(1);
+    }
+
+    @Test
+    void bulkAllocationShouldTakeNewSlabWhenPartialSlabHasNoLongEnoughRun() {
+        // given
+        givenOrdersWithIds(OrderSlabAllocator.MAX_OBJECTS_IN_SINGLE_SLAB - 5);
+
+        // when
+        long firstKey = allocatorUnderTest.allocate(OrderSlabAllocator.MAX_OBJECTS_IN_SINGLE_SLAB);
+
+        // then
+        assertThat(firstKey).isEqualTo(OrderSlabAllocator.HANDLES_PER_SLAB);
+        assertThat(allocatorUnderTest.slabCount()).isEqualTo(2);
+        assertThat(addressOf(allocatorUnderTest.allocate())).isEqualTo(OrderSlabAllocator.MAX_OBJECTS_IN_SINGLE_SLAB - 5);
+    }
+
+    @Test
+    void bulkAllocationShouldRejectRunsLongerThanSlab() {
+        assertThatThrownBy(() -> allocatorUnderTest.allocate(OrderSlabAllocator.MAX_OBJECTS_IN_SINGLE_SLAB + 1))
+                .isExactlyInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> allocatorUnderTest.allocate(0))
+                .isExactlyInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void batchWriterShouldWriteOrdersSpanningMultipleSlabs() {
+        // given
+        int count = 2 * OrderSlabAllocator.MAX_OBJECTS_IN_SINGLE_SLAB + 7;
+        OrderBatchWriter writer = allocatorUnderTest.batchWriter(count);
+        Map<Long, Long> idsByKey = new HashMap<>();
+
+        // when
+        for (long id = 0; id < count; id++) {
+            TestOrder order = TestOrder.ORDER_2;
+            writer.next().set(
+                    id,
+                    order.user,
+                    order.articleNr,
+                    order.count,
+                    order.pricePence,
+                    order.addressNumber,
+                    order.addressStreet,
+                    order.addressCity,
+                    order.addressRegion,
+                    order.addressPostCode
+            );
+            idsByKey.put(writer.handle(), id);
+        }
+
+        // then
+        assertThat(writer.remaining()).isEqualTo(0);
+        assertThatThrownBy(writer::next).isExactlyInstanceOf(IllegalStateException.class);
+        assertThat(idsByKey.size()).isEqualTo(count);
+        assertThat(allocatorUnderTest.slabCount()).isEqualTo(3);
+        idsByKey.forEach((key, id) -> assertThat(allocatorUnderTest.get(key).getId()).isEqualTo(id));
+        assertThat(allocatorUnderTest.get(writer.handle()).getAddress()).isEqualTo(allocatorUnderTest.get(0).getAddress());
+    }
+
+    @Test
+    void abandonedBatchShouldLeaveOnlyWrittenOrdersAllocated() {
+        // given
+        List<Long> handles = new ArrayList<>();
+        OrderBatchWriter writer = allocatorUnderTest.batchWriter(2 * OrderSlabAllocator.MAX_OBJECTS_IN_SINGLE_SLAB);
+        for (int i = 0; i < 10; i++) {
+            setValuesFrom(TestOrder.ORDER_1, writer.next());
+            handles.add(writer.handle());
+        }
+
+        // when
+        writer.close();
+
+        // then reserved but unwritten orders are free, so freeing written ones releases the slab
+        assertThatThrownBy(writer::next).isExactlyInstanceOf(IllegalStateException.class);
+        handles.forEach(allocatorUnderTest::free);
+        assertThat(allocatorUnderTest.slabCount()).isEqualTo(0);
+    }
+
+    @Test
+    void shouldRestoreOrdersFreeSlotsAndPoolFromSnapshot() throws IOException {
+        // given
+        Map<Long, Long> idsByKey = givenOrdersWithIds(3 * OrderSlabAllocator.MAX_OBJECTS_IN_SINGLE_SLAB);
+        int secondSlabStart = OrderSlabAllocator.HANDLES_PER_SLAB;
+        for (long key = secondSlabStart; key < secondSlabStart + OrderSlabAllocator.MAX_OBJECTS_IN_SINGLE_SLAB; key++) {
+            allocatorUnderTest.free(key);
+            idsByKey.remove(key);
+        }
+        allocatorUnderTest.free(7);
+        idsByKey.remove(7L);
+        Path directory = Files.createTempDirectory("order-snapshot");
+
+        // when
+        allocatorUnderTest.snapshot(directory);
+        OrderSlabAllocator restored = OrderSlabAllocator.restore(directory, SlabStorage.HEAP);
+
+        // then
+        assertThat(restored.slabCount()).isEqualTo(2);
+        idsByKey.forEach((key, id) -> assertThat(restored.get(key).getId()).isEqualTo(id));
+        assertThat(restored.get(0).getAddress()).isEqualTo(allocatorUnderTest.get(0).getAddress());
+        assertThat(restored.pool().size()).isEqualTo(allocatorUnderTest.pool().size());
+        assertThat(addressOf(restored.allocate())).isEqualTo(7);
+        assertThat(addressOf(restored.allocate())).isEqualTo(secondSlabStart);
+    }
+
+    @Test
+    void compactionShouldMakeHandlesOfRelocatedOrdersStale() {
+        // given
+        Map<Long, Long> idsByKey = givenOrdersWithIds(3 * OrderSlabAllocator.MAX_OBJECTS_IN_SINGLE_SLAB);
+        idsByKey.keySet().removeIf(key -> {
+            boolean free = key % 3 != 0;
+            if (free) {
+                allocatorUnderTest.free(key);
+            }
+            return free;
+        });
+
+        // when
+        List<Long> relocatedKeys = new ArrayList<>();
+        allocatorUnderTest.compact(Integer.MAX_VALUE, (fromKey, toKey) -> relocatedKeys.add(fromKey));
+
+        // then
+        assertThat(relocatedKeys).isNotEmpty();
+        relocatedKeys.forEach(key ->
+                assertThatThrownBy(() -> allocatorUnderTest.get(key)).isExactlyInstanceOf(IllegalStateException.class));
+    }
+
+    @Test
+    void changesAfterRestoreShouldNotModifySnapshot() throws IOException {
+        // given
+        long key = allocatorUnderTest.allocate();
+        setValuesFrom(TestOrder.ORDER_1, allocatorUnderTest.get(key));
+        Path directory = Files.createTempDirectory("order-snapshot");
+        allocatorUnderTest.snapshot(directory);
+
+        // when
+        setValuesFrom(TestOrder.ORDER_2, OrderSlabAllocator.restore(directory, SlabStorage.HEAP).get(key));
+
+        // then
+        assertValues(TestOrder.ORDER_1, OrderSlabAllocator.restore(directory, SlabStorage.HEAP).get(key));
+    }
+
+    @Test
+    void shouldSnapshotRestoredAllocatorIntoDirectoryItWasRestoredFrom() throws IOException {
+        // given
+        Map<Long, Long> idsByKey = givenOrdersWithIds(3 * OrderSlabAllocator.MAX_OBJECTS_IN_SINGLE_SLAB);
+        Path directory = Files.createTempDirectory("order-snapshot");
+        allocatorUnderTest.snapshot(directory);
+        OrderSlabAllocator restored = OrderSlabAllocator.restore(directory, SlabStorage.HEAP);
+
+        // when files mapped by restored allocator are overwritten by a smaller snapshot and then by its own
+        int lastSlabStart = 2 * OrderSlabAllocator.HANDLES_PER_SLAB;
+        for (long key = lastSlabStart; key < lastSlabStart + OrderSlabAllocator.MAX_OBJECTS_IN_SINGLE_SLAB; key++) {
+            allocatorUnderTest.free(key);
+        }
+        allocatorUnderTest.snapshot(directory);
+        restored.snapshot(directory);
+
+        // then
+        OrderSlabAllocator restoredAgain = OrderSlabAllocator.restore(directory, SlabStorage.HEAP);
+        idsByKey.forEach((key, id) -> {
+            assertThat(restored.get(key).getId()).isEqualTo(id);
+            assertThat(restoredAgain.get(key).getId()).isEqualTo(id);
+        });
+        assertThat(restoredAgain.get(0).getAddress()).isEqualTo(allocatorUnderTest.get(0).getAddress());
+    }
+
+    @Test
+    void snapshotShouldRejectPoolWhichCannotBeRestored() throws IOException {
+        // given
+        OrderSlabAllocator allocator = new OrderSlabAllocator(new ConcurrentPooledByteArrayMap(1_000, 4));
+        setValuesFrom(TestOrder.ORDER_1, allocator.get(allocator.allocate()));
+        Path directory = Files.createTempDirectory("order-snapshot");
+
+        // then
+        assertThatThrownBy(() -> allocator.snapshot(directory)).isInstanceOf(IllegalStateException.class);
+        assertThat(directory.toFile().list()).isEmpty();
+    }
+
+    private Map<Long, Long> givenOrdersWithIds(int count) {
+        Map<Long, Long> idsByKey = new HashMap<>();
+        for (long id = 0; id < count; id++) {
+            long key = allocatorUnderTest.allocate();
+            TestOrder order = TestOrder.ORDER_1;
+            allocatorUnderTest.get(key).set(
+                    id,
+                    order.user,
+                    order.articleNr,
+                    order.count,
+                    order.pricePence,
+                    order.addressNumber,
+                    order.addressStreet,
+                    order.addressCity,
+                    order.addressRegion,
+                    order.addressPostCode
+            );
+            idsByKey.put(key, id);
+        }
+        return idsByKey;
+    }
+
+    private void shouldWriteAndReadSymmetricallyIn(SlabStorage storage) {
+        // given
+        OrderSlabAllocator allocator = new OrderSlabAllocator(new PooledByteArrayMap(1_000), storage);
+        for (int i = 0; i < OrderSlabAllocator.MAX_OBJECTS_IN_SINGLE_SLAB; i++) {
+            allocator.allocate();
+        }
+
+        // when
+        long key = allocator.allocate();
+        setValuesFrom(TestOrder.ORDER_1, allocator.get(key));
+
+        // then
+        assertValues(TestOrder.ORDER_1, allocator.get(key));
+    }
 
     private void setValuesFrom(TestOrder order, OrderView view) {
         view.set(
@@ -329,6 +1069,17 @@ class OrderSlabAllocatorTest {
         assertThat(readView.getUser()).isEqualTo(user);
     }
 
+    private static class CountingStorage implements SlabStorage {
+
+        private int allocated;
+
+        @Override
+        public ByteBuffer allocate(int sizeBytes) {
+            allocated++;
+            return SlabStorage.HEAP.allocate(sizeBytes);
+        }
+    }
+
     private enum TestOrder {
         ORDER_1(42, new byte[] {0}, Integer.MIN_VALUE, 0, Integer.MAX_VALUE, "1", "Fishery Road", "Seashoreworth", "", "SBSP42"),
         ORDER_2(43, new byte[] {-2}, 1, 0, -1, "", "Smoke House", "Seashoreworth", "Fish'n'Chips County", "SBSP43");
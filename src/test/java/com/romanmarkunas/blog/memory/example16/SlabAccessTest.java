@@ -0,0 +1,81 @@
+package com.romanmarkunas.blog.memory.example16;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.nio.ByteBuffer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SlabAccessTest {
+
+    @ParameterizedTest
+    @EnumSource(SlabAccess.class)
+    void shouldReadWhatWasWrittenToHeapBuffer(SlabAccess access) {
+        assertReadsWhatWasWritten(access, ByteBuffer.allocate(64));
+    }
+
+    @ParameterizedTest
+    @EnumSource(SlabAccess.class)
+    void shouldReadWhatWasWrittenToDirectBuffer(SlabAccess access) {
+        assertReadsWhatWasWritten(access, ByteBuffer.allocateDirect(64));
+    }
+
+    @ParameterizedTest
+    @EnumSource(SlabAccess.class)
+    void shouldUseSameByteOrderAsByteBuffer(SlabAccess access) {
+        // given
+        ByteBuffer heap = ByteBuffer.allocate(64);
+        ByteBuffer direct = ByteBuffer.allocateDirect(64);
+
+        // when
+        access.putLong(heap, 8, 0x0102030405060708L);
+        access.putInt(heap, 20, 0x0A0B0C0D);
+        access.putShort(heap, 30, (short) 0x0E0F);
+        access.putLong(direct, 8, 0x0102030405060708L);
+        access.putInt(direct, 20, 0x0A0B0C0D);
+        access.putShort(direct, 30, (short) 0x0E0F);
+
+        // then
+        assertThat(heap.getLong(8)).isEqualTo(0x0102030405060708L);
+        assertThat(heap.getInt(20)).isEqualTo(0x0A0B0C0D);
+        assertThat(heap.getShort(30)).isEqualTo((short) 0x0E0F);
+        assertThat(direct.getLong(8)).isEqualTo(0x0102030405060708L);
+        assertThat(direct.getInt(20)).isEqualTo(0x0A0B0C0D);
+        assertThat(direct.getShort(30)).isEqualTo((short) 0x0E0F);
+    }
+
+    @ParameterizedTest
+    @EnumSource(SlabAccess.class)
+    void shouldAddressHeapBufferRelativeToItsArrayOffset(SlabAccess access) {
+        // given
+        ByteBuffer slice = ByteBuffer.allocate(64).position(16).slice();
+
+        // when
+        access.putLong(slice, 0, -1L);
+
+        // then
+        assertThat(slice.getLong(0)).isEqualTo(-1L);
+        assertThat(slice.array()[15]).isEqualTo((byte) 0);
+        assertThat(access.getLong(slice, 0)).isEqualTo(-1L);
+    }
+
+
+    private static void assertReadsWhatWasWritten(SlabAccess access, ByteBuffer buffer) {
+        // when
+        access.putLong(buffer, 0, Long.MIN_VALUE);
+        access.putInt(buffer, 8, Integer.MAX_VALUE);
+        access.putInt(buffer, 12, -2);
+        access.putShort(buffer, 16, Short.MIN_VALUE);
+        access.putByte(buffer, 18, (byte) -3);
+        access.putLong(buffer, 56, 42L);
+
+        // then
+        assertThat(access.getLong(buffer, 0)).isEqualTo(Long.MIN_VALUE);
+        assertThat(access.getInt(buffer, 8)).isEqualTo(Integer.MAX_VALUE);
+        assertThat(access.getInt(buffer, 12)).isEqualTo(-2);
+        assertThat(access.getShort(buffer, 16)).isEqualTo(Short.MIN_VALUE);
+        assertThat(access.getByte(buffer, 18)).isEqualTo((byte) -3);
+        assertThat(access.getLong(buffer, 56)).isEqualTo(42L);
+    }
+}